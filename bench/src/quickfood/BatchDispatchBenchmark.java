@@ -0,0 +1,189 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+//Compares greedy dispatch with batch dispatch: 20 metros, each with 10 served locations and 30
+//suburbs without drivers, where orders favour a few hot locations and 40% come from suburbs.
+//Reports throughput with orders submitted flat out, latency at a fixed arrival rate, and how evenly
+//the load ends up spread over the drivers, for a steady mix of orders and for a surge from idle
+//drivers in which each burst of orders has its suburb orders first. Invoices and the journal are
+//left out to isolate dispatch.
+public class BatchDispatchBenchmark {
+  private static final int METROS = 20;
+  private static final int SERVED = 10;  // Locations with drivers per metro
+  private static final int SUBURBS = 30; // Locations without drivers per metro
+  private static final int DRIVERS_PER_LOCATION = 20;
+  private static final double RADIUS_KM = 25;
+  private static final int ORDERS = 200_000;
+  private static final int BURST = 256;
+  private static final int SURGE = 80 * BURST;
+  private static final int RATE = 20_000; // Orders per second for the latency runs
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(42);
+    Path file = Files.createTempFile("locations", ".txt");
+    try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+      for (int metro = 0; metro < METROS; metro++) {
+        double latitude = -34 + random.nextDouble() * 10;
+        double longitude = 18 + random.nextDouble() * 12;
+        for (int i = 0; i < SERVED + SUBURBS; i++) {
+          // Within about 0.15 degrees, roughly 15 km, of the metro centre
+          writer.write(SyntheticData.location(metro * (SERVED + SUBURBS) + i) + ", "
+              + (latitude + (random.nextDouble() - 0.5) * 0.3) + ", " + (longitude + (random.nextDouble() - 0.5) * 0.3));
+          writer.newLine();
+        }
+      }
+    }
+    LocationCoordinates coordinates = LocationCoordinates.load(file);
+    Files.delete(file);
+
+    Order[] orders = SyntheticData.orders(ORDERS, 1, 7);
+    boolean[] suburb = new boolean[ORDERS];
+    for (int i = 0; i < ORDERS; i++) {
+      int metro = random.nextInt(METROS);
+      // Served locations are picked with weights 1, 1/2, 1/3, ... so the first few are hot
+      suburb[i] = random.nextDouble() < 0.4;
+      int local = suburb[i] ? SERVED + random.nextInt(SUBURBS) : zipf(random, SERVED);
+      Restaurant restaurant = orders[i].getRestaurant();
+      orders[i].setRestaurant(new Restaurant(restaurant.getName(),
+          SyntheticData.location(metro * (SERVED + SUBURBS) + local), restaurant.getContactNumber()));
+    }
+
+    System.out.printf("%d drivers, radius %.0f km%n", METROS * SERVED * DRIVERS_PER_LOCATION, RADIUS_KM);
+    for (int run = 0; run < 2; run++) {
+      System.out.printf("steady mix of %,d orders, initial loads 0-19%n", ORDERS);
+      greedy(coordinates, orders, 20);
+      for (int[] window : new int[][] {{1, 64}, {10, 256}, {50, 1024}}) {
+        batch(coordinates, orders, window[0], window[1], 20);
+      }
+    }
+
+    // Suburb orders first in every burst, so greedy fills the quiet locations before the hot orders arrive
+    List<Order> surge = new ArrayList<>(SURGE);
+    for (int from = 0; from < SURGE; from += BURST) {
+      for (boolean suburbsFirst : new boolean[] {true, false}) {
+        for (int i = from; i < from + BURST; i++) {
+          if (suburb[i] == suburbsFirst) {
+            surge.add(orders[i]);
+          }
+        }
+      }
+    }
+    Order[] surgeOrders = surge.toArray(new Order[0]);
+    System.out.printf("surge of %,d orders on idle drivers, suburbs first in each burst of %d%n", surgeOrders.length, BURST);
+    greedy(coordinates, surgeOrders, 0);
+    batch(coordinates, surgeOrders, 10, BURST, 0);
+  }
+
+  private static void greedy(LocationCoordinates coordinates, Order[] orders, int initialLoads) {
+    DriverRoster roster = DriverRoster.of(drivers(initialLoads), coordinates);
+    long start = System.nanoTime();
+    int missed = 0;
+    for (Order order : orders) {
+      try {
+        roster.claim(order.getRestaurant().getLocationId(), RADIUS_KM);
+      } catch (DriverNotFoundException e) {
+        missed++;
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    System.out.printf("  %-18s %,10.0f orders/s  latency %6.1f us           %s (no driver %d)%n",
+        "greedy", orders.length / (nanos / 1e9), nanos / 1e3 / orders.length, spread(roster), missed);
+  }
+
+  private static void batch(LocationCoordinates coordinates, Order[] orders, int millis, int maxOrders, int initialLoads)
+      throws IOException {
+    // Flat out, for throughput and the load spread
+    DriverRoster roster = DriverRoster.of(drivers(initialLoads), coordinates);
+    long start = System.nanoTime();
+    int missed = 0;
+    try (BatchDispatcher dispatcher = new BatchDispatcher(() -> roster, RADIUS_KM, millis, maxOrders, (order, driver) -> { })) {
+      List<CompletableFuture<Driver>> results = new ArrayList<>(orders.length);
+      for (Order order : orders) {
+        results.add(dispatcher.submit(order));
+      }
+      for (CompletableFuture<Driver> result : results) {
+        if (result.join() == null) {
+          missed++;
+        }
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    String spread = spread(roster);
+
+    // At a fixed arrival rate, for the time each order waits
+    DriverRoster paced = DriverRoster.of(drivers(initialLoads), coordinates);
+    int count = Math.min(orders.length, ORDERS / 4);
+    long[] latencies = new long[count];
+    long interval = TimeUnit.SECONDS.toNanos(1) / RATE;
+    try (BatchDispatcher dispatcher = new BatchDispatcher(() -> paced, RADIUS_KM, millis, maxOrders, (order, driver) -> { })) {
+      long next = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        while (System.nanoTime() < next) {
+          Thread.onSpinWait();
+        }
+        long submitted = System.nanoTime();
+        int slot = i;
+        dispatcher.submit(orders[i]).thenRun(() -> latencies[slot] = System.nanoTime() - submitted);
+        next += interval;
+      }
+    }
+    Arrays.sort(latencies);
+    System.out.printf("  %-18s %,10.0f orders/s  p50 %5.2f ms p99 %5.2f ms %s (no driver %d)%n",
+        "batch " + millis + " ms/" + maxOrders, orders.length / (nanos / 1e9),
+        latencies[count / 2] / 1e6, latencies[count * 99 / 100] / 1e6, spread, missed);
+  }
+
+  private static List<Driver> drivers(int initialLoads) {
+    Random random = new Random(11);
+    List<Driver> drivers = new ArrayList<>();
+    for (int metro = 0; metro < METROS; metro++) {
+      for (int i = 0; i < SERVED; i++) {
+        for (int d = 0; d < DRIVERS_PER_LOCATION; d++) {
+          String location = SyntheticData.location(metro * (SERVED + SUBURBS) + i);
+          drivers.add(new Driver("Driver " + drivers.size(), location, initialLoads > 0 ? random.nextInt(initialLoads) : 0));
+        }
+      }
+    }
+    return drivers;
+  }
+
+  // Picks 0 to n - 1 with weights 1, 1/2, 1/3, ...
+  private static int zipf(Random random, int n) {
+    double total = 0;
+    for (int i = 1; i <= n; i++) {
+      total += 1.0 / i;
+    }
+    double r = random.nextDouble() * total;
+    for (int i = 1; i <= n; i++) {
+      r -= 1.0 / i;
+      if (r <= 0) {
+        return i - 1;
+      }
+    }
+    return n - 1;
+  }
+
+  private static String spread(DriverRoster roster) {
+    long sum = 0;
+    long squares = 0;
+    int max = 0;
+    for (Driver driver : roster.getDrivers()) {
+      sum += driver.getLoad();
+      squares += (long) driver.getLoad() * driver.getLoad();
+      max = Math.max(max, driver.getLoad());
+    }
+    int n = roster.getDrivers().size();
+    double mean = sum / (double) n;
+    return String.format("load max %3d mean %5.1f stddev %5.2f", max, mean, Math.sqrt(squares / (double) n - mean * mean));
+  }
+}
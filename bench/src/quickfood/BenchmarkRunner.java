@@ -0,0 +1,30 @@
+package quickfood;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*Entry point of benchmarks.jar. Accepts the usual JMH command line, but unless -rf/-rff are given
+  the results are written as JSON to jmh-result.json so that runs can be diffed over time:
+    java -jar bench/target/benchmarks.jar                 all benchmarks
+    java -jar bench/target/benchmarks.jar Dispatch -p fleetSize=1000
+*/
+public class BenchmarkRunner {
+  private static final String RESULT_FILE = "jmh-result.json";
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (!commandLine.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLine.getResult().hasValue()) {
+      options.result(RESULT_FILE);
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,86 @@
+package quickfood;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Dispatches orders from many threads at once and checks that no load increment is lost.
+//Prints orders/sec for 1 thread up to the number of cores, spreading orders over many
+//locations, and then a run where every thread hammers the same location.
+public class ConcurrentDispatchStressTest {
+  private static final int DRIVERS = 200_000;
+  private static final int LOCATIONS = 500;
+  private static final int ORDERS_PER_THREAD = 2_000_000;
+
+  public static void main(String[] args) throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    System.out.printf("%8s %12s %16s%n", "threads", "locations", "orders/sec");
+    run(1, LOCATIONS, false); // warm-up
+    for (int threads = 1; threads <= cores; threads *= 2) {
+      run(threads, LOCATIONS, true);
+    }
+    if (Integer.highestOneBit(cores) != cores) {
+      run(cores, LOCATIONS, true);
+    }
+    run(cores, 1, true);
+    System.out.println("OK: no lost increments");
+  }
+
+  private static void run(int threads, int locations, boolean report) throws Exception {
+    List<Driver> drivers = new ArrayList<>(DRIVERS);
+    DriverIndex index = new DriverIndex();
+    long initialLoad = 0;
+    for (int i = 0; i < DRIVERS; i++) {
+      Driver driver = new Driver("Driver " + i, SyntheticData.location(i % locations), i % 7);
+      drivers.add(driver);
+      index.add(driver);
+      initialLoad += driver.getLoad();
+    }
+
+    String[] names = new String[locations];
+    for (int i = 0; i < locations; i++) {
+      names[i] = SyntheticData.location(i).toLowerCase();
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicLong claims = new AtomicLong();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      SplittableRandom random = new SplittableRandom(t);
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+            index.claim(names[random.nextInt(locations)]);
+          }
+          claims.addAndGet(ORDERS_PER_THREAD);
+        } catch (InterruptedException | DriverNotFoundException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    long elapsed = System.nanoTime() - begin;
+
+    long finalLoad = 0;
+    for (Driver driver : drivers) {
+      finalLoad += driver.getLoad();
+    }
+    long expected = initialLoad + (long) threads * ORDERS_PER_THREAD;
+    if (claims.get() != (long) threads * ORDERS_PER_THREAD || finalLoad != expected) {
+      throw new AssertionError("Lost increments: expected total load " + expected + " but found " + finalLoad);
+    }
+    if (report) {
+      System.out.printf("%8d %12d %,16.0f%n", threads, locations, claims.get() * 1e9 / elapsed);
+    }
+  }
+}
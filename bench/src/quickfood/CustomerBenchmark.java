@@ -0,0 +1,40 @@
+package quickfood;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: constructing and validating a Customer from entered fields
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerBenchmark {
+  private static final int CUSTOMERS = 1024;
+
+  private String[][] fields;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    fields = SyntheticData.customerFields(CUSTOMERS, 50, 42);
+  }
+
+  @Benchmark
+  public Customer construct() throws InvalidInputException {
+    String[] c = fields[next++ & (CUSTOMERS - 1)];
+    return new Customer(next, c[0], c[1], c[2], c[3], c[4]);
+  }
+}
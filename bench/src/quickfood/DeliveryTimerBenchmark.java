@@ -0,0 +1,152 @@
+package quickfood;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//DeliveryTimer at scale: schedules millions of deliveries due within the hour, cancels half of them
+//by order number and reports the cost of each and the heap used per pending delivery, next to a
+//ScheduledThreadPoolExecutor holding the same timers. Then measures expiry with a 1 ms tick, and
+//checks that releasing loads through the roster keeps every location's least loaded driver on top.
+public class DeliveryTimerBenchmark {
+  private static final int TIMERS = 4_000_000;
+  private static final int DRIVERS = 10_000;
+  private static final int LOCATIONS = 50;
+  private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  public static void main(String[] args) throws InterruptedException {
+    List<Driver> drivers = SyntheticData.drivers(DRIVERS, LOCATIONS, 42);
+    Random random = new Random(7);
+    long[] delays = new long[TIMERS];
+    for (int i = 0; i < TIMERS; i++) {
+      delays[i] = HOUR_MILLIS / 2 + random.nextInt((int) (HOUR_MILLIS / 2));
+    }
+    int[] cancelOrder = new int[TIMERS / 2];
+    for (int i = 0; i < cancelOrder.length; i++) {
+      cancelOrder[i] = random.nextInt(TIMERS);
+    }
+
+    for (int run = 0; run < 3; run++) {
+      long before = usedHeap();
+      DeliveryTimer timer = new DeliveryTimer(1000, 4096, (orderNumber, driver) -> { });
+      long start = System.nanoTime();
+      for (int i = 0; i < TIMERS; i++) {
+        timer.schedule(i, drivers.get(i % DRIVERS), delays[i]);
+      }
+      long scheduled = System.nanoTime() - start;
+      long bytes = usedHeap() - before;
+      start = System.nanoTime();
+      int found = 0;
+      for (int orderNumber : cancelOrder) {
+        if (timer.cancel(orderNumber) != null) {
+          found++;
+        }
+      }
+      long cancelled = System.nanoTime() - start;
+      System.out.printf("wheel     %,d timers: schedule %5.0f ns  cancel %5.0f ns (%,d found)  %5.1f bytes/timer  %,d pending%n",
+          TIMERS, scheduled / (double) TIMERS, cancelled / (double) cancelOrder.length, found,
+          bytes / (double) TIMERS, timer.pending());
+      timer.close();
+    }
+
+    for (int run = 0; run < 2; run++) {
+      long before = usedHeap();
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+      executor.setRemoveOnCancelPolicy(true);
+      ScheduledFuture<?>[] futures = new ScheduledFuture<?>[TIMERS];
+      long start = System.nanoTime();
+      for (int i = 0; i < TIMERS; i++) {
+        futures[i] = executor.schedule(() -> { }, delays[i], TimeUnit.MILLISECONDS);
+      }
+      long scheduled = System.nanoTime() - start;
+      long bytes = usedHeap() - before - 16L * TIMERS; // Less the futures array kept for cancelling
+      start = System.nanoTime();
+      for (int orderNumber : cancelOrder) {
+        futures[orderNumber].cancel(false);
+      }
+      long cancelled = System.nanoTime() - start;
+      System.out.printf("executor  %,d timers: schedule %5.0f ns  cancel %5.0f ns                  %5.1f bytes/timer%n",
+          TIMERS, scheduled / (double) TIMERS, cancelled / (double) cancelOrder.length, bytes / (double) TIMERS);
+      executor.shutdownNow();
+    }
+
+    expiry(drivers, random);
+    release(random);
+  }
+
+  // Schedules a million deliveries due over half a second on a 1 ms tick and waits for all of them
+  private static void expiry(List<Driver> drivers, Random random) throws InterruptedException {
+    int count = 1_000_000;
+    AtomicInteger expired = new AtomicInteger();
+    AtomicLong latestExpiry = new AtomicLong();
+    DeliveryTimer timer = new DeliveryTimer(1, 1024, (orderNumber, driver) -> {
+      expired.incrementAndGet();
+      latestExpiry.set(System.nanoTime());
+    });
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      timer.schedule(i, drivers.get(i % DRIVERS), random.nextInt(500));
+    }
+    while (expired.get() < count) {
+      Thread.sleep(10);
+    }
+    System.out.printf("expiry    %,d timers due within 500 ms: all expired %.0f ms after the first was scheduled%n",
+        count, (latestExpiry.get() - start) / 1e6);
+    timer.close();
+  }
+
+  // Claims and releases loads in random order and checks the heap top against a scan after each step
+  private static void release(Random random) {
+    List<Driver> copies = SyntheticData.drivers(DRIVERS, LOCATIONS, 42);
+    DriverRoster roster = DriverRoster.of(copies);
+    Driver[] claimed = new Driver[200_000];
+    int held = 0;
+    int checks = 0;
+    long start = System.nanoTime();
+    for (int step = 0; step < 400_000; step++) {
+      int location = LocationRegistry.register(SyntheticData.location(random.nextInt(LOCATIONS)));
+      if (held > 0 && (held == claimed.length || random.nextBoolean())) {
+        int pick = random.nextInt(held);
+        Driver driver = claimed[pick];
+        claimed[pick] = claimed[--held];
+        if (!roster.release(driver)) {
+          throw new IllegalStateException("Load already 0 for " + driver.getName());
+        }
+        location = driver.getLocationId();
+      } else {
+        try {
+          Driver driver = roster.claim(location, 0);
+          claimed[held++] = driver;
+        } catch (DriverNotFoundException e) {
+          continue;
+        }
+      }
+      if ((step & 63) == 0) {
+        int lowest = Integer.MAX_VALUE;
+        for (Driver driver : copies) {
+          if (driver.getLocationId() == location) {
+            lowest = Math.min(lowest, driver.getLoad());
+          }
+        }
+        if (roster.getIndex().peek(location).getLoad() != lowest) {
+          throw new IllegalStateException("Index out of order at " + LocationRegistry.name(location));
+        }
+        checks++;
+      }
+    }
+    System.out.printf("release   400,000 claims and releases in %.0f ms, %,d heap checks passed%n",
+        (System.nanoTime() - start) / 1e6, checks);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,61 @@
+package quickfood;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: cost of finding and claiming a driver with DriverIndex and with the old roster scan
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+  private static final int LOCATIONS = 50;
+  private static final int ORDER_LOCATIONS = 1 << 16;
+
+  @Param({"1000", "100000", "1000000"})
+  public int fleetSize;
+
+  private List<Driver> roster;
+  private DriverIndex index;
+  private String[] locations;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    roster = SyntheticData.drivers(fleetSize, LOCATIONS, 42);
+    index = new DriverIndex();
+    for (Driver driver : SyntheticData.drivers(fleetSize, LOCATIONS, 42)) {
+      index.add(driver);
+    }
+    locations = SyntheticData.orderLocations(ORDER_LOCATIONS, LOCATIONS, 7);
+  }
+
+  @Benchmark
+  public Driver index() throws DriverNotFoundException {
+    return index.claim(nextLocation());
+  }
+
+  @Benchmark
+  public Driver scan() throws DriverNotFoundException {
+    return DriverIndexBenchmark.scan(roster, nextLocation());
+  }
+
+  private String nextLocation() {
+    return locations[next++ & (ORDER_LOCATIONS - 1)];
+  }
+}
@@ -0,0 +1,84 @@
+package quickfood;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+//Reports time-to-ready for BufferedReader + split against DriverFileLoader on synthetic rosters,
+//and checks that both produce the same drivers
+public class DriverFileLoaderBenchmark {
+  private static final int CITIES = 6;
+
+  public static void main(String[] args) throws IOException {
+    File dir = Files.createTempDirectory("driver-bench").toFile();
+    checkEdgeCases(new File(dir, "edge.txt"));
+
+    int[] sizes = {100_000, 1_000_000, 5_000_000};
+    System.out.printf("%10s %12s %12s %12s%n", "lines", "split ms", "mapped ms", "speedup");
+    for (int lines : sizes) {
+      File file = new File(dir, "drivers-" + lines + ".txt");
+      SyntheticData.writeRoster(file.toPath(), lines, CITIES, 42);
+      List<Driver> expected = loadSplit(file.getPath());
+      assertSame(expected, DriverFileLoader.load(file.getPath()));
+
+      long split = best(() -> loadSplit(file.getPath()));
+      long mapped = best(() -> DriverFileLoader.load(file.getPath()));
+      System.out.printf("%10d %12.1f %12.1f %11.1fx%n", lines, split / 1e6, mapped / 1e6, (double) split / mapped);
+      file.delete();
+    }
+  }
+
+  // The loader DriverFileLoader replaced in Main.loadDrivers
+  static List<Driver> loadSplit(String filename) throws IOException {
+    List<Driver> drivers = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(",");
+        if (parts.length == 3) {
+          drivers.add(new Driver(parts[0].trim(), parts[1].trim(), Integer.parseInt(parts[2].trim())));
+        }
+      }
+    }
+    return drivers;
+  }
+
+  private static void checkEdgeCases(File file) throws IOException {
+    String text = "Ann, Durban, 4\r\n\nBob,Durban\nCarl , Cape Town , 7 ,,\rDee,,3\r\n,x,1\n"
+        + "Eve,a,b,c\nFay, Durban,\n  Gus\t, Durban ,\t-2\nHal, Paris, +12";
+    Files.writeString(file.toPath(), text, Charset.defaultCharset());
+    assertSame(loadSplit(file.getPath()), DriverFileLoader.load(file.getPath()));
+  }
+
+  private static void assertSame(List<Driver> expected, List<Driver> actual) {
+    if (expected.size() != actual.size()) {
+      throw new AssertionError("Expected " + expected.size() + " drivers but loaded " + actual.size());
+    }
+    for (int i = 0; i < expected.size(); i++) {
+      Driver a = expected.get(i);
+      Driver b = actual.get(i);
+      if (!a.getName().equals(b.getName()) || !a.getLocation().equals(b.getLocation()) || a.getLoad() != b.getLoad()) {
+        throw new AssertionError("Driver " + i + " differs: " + a.getName() + " / " + b.getName());
+      }
+    }
+  }
+
+  private interface Loader {
+    List<Driver> load() throws IOException;
+  }
+
+  private static long best(Loader loader) throws IOException {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < 5; run++) {
+      long start = System.nanoTime();
+      loader.load();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+}
@@ -0,0 +1,69 @@
+package quickfood;
+
+import java.util.List;
+
+//Compares the linear roster scan with DriverIndex for 1k, 100k and 1M drivers
+public class DriverIndexBenchmark {
+  private static final int LOCATIONS = 50;
+  private static final int INDEX_ORDERS = 1_000_000;
+  private static final long SCAN_BUDGET = 200_000_000L; // driver visits per scan run
+
+  public static void main(String[] args) throws DriverNotFoundException {
+    int[] fleetSizes = {1_000, 100_000, 1_000_000};
+    System.out.printf("%10s %14s %14s %10s%n", "drivers", "scan ns/order", "index ns/order", "speedup");
+    for (int fleetSize : fleetSizes) {
+      int scanOrders = (int) Math.max(100, Math.min(INDEX_ORDERS, SCAN_BUDGET / fleetSize));
+      double scan = measureScan(fleetSize, scanOrders);
+      double index = measureIndex(fleetSize, INDEX_ORDERS);
+      System.out.printf("%10d %14.1f %14.1f %9.0fx%n", fleetSize, scan, index, scan / index);
+    }
+  }
+
+  private static double measureScan(int fleetSize, int orders) throws DriverNotFoundException {
+    List<Driver> drivers = SyntheticData.drivers(fleetSize, LOCATIONS, 42);
+    String[] locations = SyntheticData.orderLocations(orders, LOCATIONS, 7);
+    scanAll(drivers, locations, Math.min(orders, 1_000)); // warm-up
+    long start = System.nanoTime();
+    scanAll(drivers, locations, orders);
+    return (double) (System.nanoTime() - start) / orders;
+  }
+
+  private static double measureIndex(int fleetSize, int orders) throws DriverNotFoundException {
+    DriverIndex index = new DriverIndex();
+    for (Driver driver : SyntheticData.drivers(fleetSize, LOCATIONS, 42)) {
+      index.add(driver);
+    }
+    String[] locations = SyntheticData.orderLocations(orders, LOCATIONS, 7);
+    for (int i = 0; i < Math.min(orders, 100_000); i++) {
+      index.claim(locations[i]); // warm-up
+    }
+    long start = System.nanoTime();
+    for (String location : locations) {
+      index.claim(location);
+    }
+    return (double) (System.nanoTime() - start) / orders;
+  }
+
+  private static void scanAll(List<Driver> drivers, String[] locations, int orders) throws DriverNotFoundException {
+    for (int i = 0; i < orders; i++) {
+      scan(drivers, locations[i]);
+    }
+  }
+
+  // The dispatch loop that DriverIndex replaced in Main.findDriver
+  static Driver scan(List<Driver> drivers, String location) throws DriverNotFoundException {
+    Driver bestDriver = null;
+    for (Driver driver : drivers) {
+      if (driver.getLocation().equalsIgnoreCase(location)) {
+        if (bestDriver == null || driver.getLoad() < bestDriver.getLoad()) {
+          bestDriver = driver;
+        }
+      }
+    }
+    if (bestDriver == null) {
+      throw new DriverNotFoundException("Sorry! Our drivers are too far away from you to be able to deliver to your location.");
+    }
+    bestDriver.setLoad(bestDriver.getLoad() + 1);
+    return bestDriver;
+  }
+}
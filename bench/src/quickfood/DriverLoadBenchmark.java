@@ -0,0 +1,57 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: time to load a synthetic driver roster with DriverFileLoader and with BufferedReader + split
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class DriverLoadBenchmark {
+
+  @Param({"100000", "1000000", "5000000"})
+  public int lines;
+
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    file = Files.createTempFile("drivers", ".txt");
+    SyntheticData.writeRoster(file, lines, 50, 42);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public List<Driver> mapped() throws IOException {
+    return DriverFileLoader.load(file.toString());
+  }
+
+  @Benchmark
+  public List<Driver> split() throws IOException {
+    return DriverFileLoaderBenchmark.loadSplit(file.toString());
+  }
+}
@@ -0,0 +1,84 @@
+package quickfood;
+
+import java.util.Random;
+
+//Checks FieldValidator against the regular expressions it replaced on random input,
+//then compares the cost of validating a customer's five fields both ways
+public class FieldValidatorBenchmark {
+  private static final String LETTERS = "[a-zA-Z ]+";
+  private static final String DIGITS = "\\d+";
+  private static final String ALPHANUMERIC = "[a-zA-Z0-9 ]+";
+  private static final String EMAIL = "^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,6}$";
+  private static final int ITERATIONS = 2_000_000;
+
+  public static void main(String[] args) {
+    checkAgreement(1_000_000);
+
+    String[][] customers = {
+      {"Jane Doe", "0821234567", "12 Long Street", "Cape Town", "jane.doe@example.com"},
+      {"Sipho Nkosi", "0837654321", "4 Beach Road", "Durban", "sipho+food@mail.co.za"},
+      {"Bad Name 1", "082-123", "Flat #3", "Joburg", "not-an-email"},
+    };
+    boolean sink = false;
+    for (int warmup = 0; warmup < 3; warmup++) {
+      sink ^= runMatches(customers, ITERATIONS / 10);
+      sink ^= runValidator(customers, ITERATIONS / 10);
+    }
+    long start = System.nanoTime();
+    sink ^= runMatches(customers, ITERATIONS);
+    long matches = System.nanoTime() - start;
+    start = System.nanoTime();
+    sink ^= runValidator(customers, ITERATIONS);
+    long validator = System.nanoTime() - start;
+
+    System.out.printf("String.matches  %8.1f ns/customer%n", (double) matches / ITERATIONS);
+    System.out.printf("FieldValidator  %8.1f ns/customer%n", (double) validator / ITERATIONS);
+    System.out.printf("speedup         %8.1fx (%b)%n", (double) matches / validator, sink);
+  }
+
+  private static boolean runMatches(String[][] customers, int iterations) {
+    boolean valid = false;
+    for (int i = 0; i < iterations; i++) {
+      String[] c = customers[i % customers.length];
+      valid ^= c[0].matches(LETTERS) && c[1].matches(DIGITS) && c[2].matches(ALPHANUMERIC)
+          && c[3].matches(LETTERS) && c[4].matches(EMAIL);
+    }
+    return valid;
+  }
+
+  private static boolean runValidator(String[][] customers, int iterations) {
+    boolean valid = false;
+    for (int i = 0; i < iterations; i++) {
+      String[] c = customers[i % customers.length];
+      valid ^= FieldValidator.isLetters(c[0]) && FieldValidator.isDigits(c[1]) && FieldValidator.isAlphanumeric(c[2])
+          && FieldValidator.isLetters(c[3]) && FieldValidator.isEmail(c[4]);
+    }
+    return valid;
+  }
+
+  private static void checkAgreement(int samples) {
+    Random random = new Random(1);
+    String alphabet = "aZ09 .@-_%+#\u00e9\u0663\n";
+    for (int i = 0; i < samples; i++) {
+      StringBuilder text = new StringBuilder();
+      int length = random.nextInt(14);
+      for (int j = 0; j < length; j++) {
+        text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      if (i % 2 == 0) {
+        text.append(random.nextBoolean() ? "@ab.c" : "@x-y.com").append("defgh", 0, random.nextInt(5));
+      }
+      String value = text.toString();
+      agree(value, value.matches(LETTERS), FieldValidator.isLetters(value));
+      agree(value, value.matches(DIGITS), FieldValidator.isDigits(value));
+      agree(value, value.matches(ALPHANUMERIC), FieldValidator.isAlphanumeric(value));
+      agree(value, value.matches(EMAIL), FieldValidator.isEmail(value));
+    }
+  }
+
+  private static void agree(String value, boolean expected, boolean actual) {
+    if (expected != actual) {
+      throw new AssertionError("Validators disagree on '" + value + "'");
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: rendering invoices, and writing them through InvoiceWriter into the store or as text with an open/close per invoice
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvoiceBenchmark {
+  private static final int ORDERS = 1024;
+
+  private Order[] orders;
+  private Driver driver;
+  private Path directory;
+  private InvoiceStore store;
+  private InvoiceWriter writer;
+  private String legacyFile;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    orders = SyntheticData.orders(ORDERS, 50, 42);
+    driver = new Driver("Julie Carty", SyntheticData.location(1), 0);
+    directory = Files.createTempDirectory("invoice-bench");
+    store = new InvoiceStore(directory.resolve("store"));
+    writer = new InvoiceWriter(store, 1024, InvoiceWriter.FlushPolicy.NONE, 1000);
+    legacyFile = directory.resolve("legacy.txt").toString();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    writer.close();
+    store.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public String render() {
+    return Main.renderInvoice(nextOrder(), driver);
+  }
+
+  @Benchmark
+  public void writeQueued() throws IOException {
+    writer.submit(InvoiceRecord.of(nextOrder(), driver));
+  }
+
+  @Benchmark
+  public void writePerInvoice() throws IOException {
+    BufferedWriter file = new BufferedWriter(new FileWriter(legacyFile, true));
+    file.write(Main.renderInvoice(nextOrder(), driver));
+    file.close();
+  }
+
+  private Order nextOrder() {
+    return orders[next++ & (ORDERS - 1)];
+  }
+}
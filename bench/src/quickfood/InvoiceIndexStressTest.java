@@ -0,0 +1,84 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+//Puts more keys into an InvoiceIndex than the old 32-bit table could hold (2^25, where it threw
+//"Invoice index is full"), so that the table grows past 2GB and spans several mappings. Checks
+//every key, reopens the index and checks a sample again, and prints puts/sec and lookups/sec.
+//Needs about 4GB of free disk. Run with the number of keys (default 2^25 + 2^20).
+public class InvoiceIndexStressTest {
+  private static final long OLD_LIMIT = 1L << 25;
+  private static final int SAMPLE = 1_000_000;
+
+  public static void main(String[] args) throws IOException {
+    long keys = args.length > 0 ? Long.parseLong(args[0]) : OLD_LIMIT + (1 << 20);
+    Path dir = Files.createTempDirectory("invoice-index-stress");
+    Path file = dir.resolve("stress.idx");
+    try {
+      long start = System.nanoTime();
+      try (InvoiceIndex index = new InvoiceIndex(file)) {
+        for (long i = 0; i < keys; i++) {
+          index.put(key(i), offset(i));
+        }
+        index.setIndexedLength(offset(keys));
+        report("put", System.nanoTime() - start, keys);
+        if (index.size() != keys) {
+          throw new AssertionError("Index holds " + index.size() + " keys, expected " + keys);
+        }
+
+        start = System.nanoTime();
+        for (long i = 0; i < keys; i++) {
+          check(index, i);
+        }
+        report("get", System.nanoTime() - start, keys);
+        if (index.get(key(keys)) != -1) {
+          throw new AssertionError("Found a key that was never put");
+        }
+      }
+      System.out.printf("index file %,d bytes%n", Files.size(file));
+
+      try (InvoiceIndex index = new InvoiceIndex(file)) {
+        if (!index.wasClosedCleanly() || index.size() != keys || index.getIndexedLength() != offset(keys)) {
+          throw new AssertionError("Reopened index lost its header");
+        }
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < SAMPLE; i++) {
+          check(index, random.nextLong(keys));
+        }
+      }
+      System.out.println("OK: " + keys + " keys, past the old limit of " + OLD_LIMIT);
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  // The inverse of the index's multiplier makes key i hash to slot i + 1, so the table fills in file
+  // order: random slots would have the kernel write the mapped file back over and over, and the
+  // check would measure page writeback rather than the index
+  private static long key(long i) {
+    return (i + 1) * 0xf1de83e19937733dL;
+  }
+
+  private static long offset(long i) {
+    return i * 200;
+  }
+
+  private static void check(InvoiceIndex index, long i) {
+    if (index.get(key(i)) != offset(i)) {
+      throw new AssertionError("Key " + i + " points at " + index.get(key(i)) + ", expected " + offset(i));
+    }
+  }
+
+  private static void report(String name, long nanos, long count) {
+    System.out.printf("%-4s %,d keys in %.1f s, %,.0f/sec%n", name, count, nanos / 1e9, count / (nanos / 1e9));
+  }
+}
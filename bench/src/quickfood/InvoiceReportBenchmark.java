@@ -0,0 +1,92 @@
+package quickfood;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+//Totals a multi-GB invoice store with InvoiceReport and prints its throughput in MB/s, for a full
+//read and for an incremental run with nothing new to read. The store is built from 200k invoices
+//written through InvoiceStore, whose data file is then repeated up to the requested size; the
+//repeated records keep valid frames and CRCs, and their back links still point before them.
+//Every run but the first reads from the page cache, so the figures are for parsing and tallying,
+//not the disk. Run with the size in GB (default 2), e.g.
+//  java -cp bench/target/benchmarks.jar quickfood.InvoiceReportBenchmark 4
+public class InvoiceReportBenchmark {
+  private static final int SEED_INVOICES = 200_000;
+  private static final int RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    double gigabytes = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+    Path dir = Files.createTempDirectory("invoice-report-bench");
+    try {
+      long size = buildStore(dir, (long) (gigabytes * (1L << 30)));
+      System.out.printf("store %,d bytes, %d fork-join threads%n", size, ForkJoinPool.getCommonPoolParallelism());
+
+      long best = Long.MAX_VALUE;
+      InvoiceReport.Totals totals = null;
+      for (int run = 0; run < RUNS; run++) {
+        long start = System.nanoTime();
+        totals = InvoiceReport.run(dir, null);
+        long nanos = System.nanoTime() - start;
+        best = Math.min(best, nanos);
+        report("full run " + (run + 1), nanos, size);
+      }
+      report("full run, best", best, size);
+      if (totals.getLength() != size) {
+        throw new AssertionError("Report covered " + totals.getLength() + " of " + size + " bytes");
+      }
+      System.out.printf("%,d invoices%n", totals.getInvoices());
+
+      Path checkpoint = dir.resolve("report.checkpoint");
+      InvoiceReport.run(dir, checkpoint);
+      long start = System.nanoTime();
+      InvoiceReport.Totals incremental = InvoiceReport.run(dir, checkpoint);
+      System.out.printf("%-22s %10.1f ms%n", "incremental, no change", (System.nanoTime() - start) / 1e6);
+      if (incremental.getInvoices() != totals.getInvoices()) {
+        throw new AssertionError("Incremental run counted " + incremental.getInvoices() + " invoices");
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  // Writes the seed invoices through InvoiceStore, then repeats its data file until it reaches the target size
+  private static long buildStore(Path dir, long target) throws IOException {
+    Order[] orders = SyntheticData.orders(SEED_INVOICES, 50, 42);
+    Driver driver = new Driver("Julie Carty", SyntheticData.location(1), 0);
+    try (InvoiceStore store = new InvoiceStore(dir)) {
+      List<InvoiceRecord> batch = new ArrayList<>();
+      for (int i = 0; i < SEED_INVOICES; i++) {
+        batch.add(i % 10 == 0 ? InvoiceRecord.unavailable(orders[i].getCustomer()) : InvoiceRecord.of(orders[i], driver));
+        if (batch.size() == 4096 || i == SEED_INVOICES - 1) {
+          store.append(batch);
+          batch.clear();
+        }
+      }
+    }
+    Path data = dir.resolve(InvoiceStore.DATA_FILE);
+    byte[] seed = Files.readAllBytes(data);
+    long size = seed.length;
+    try (OutputStream out = Files.newOutputStream(data, StandardOpenOption.APPEND)) {
+      for (; size + seed.length <= target; size += seed.length) {
+        out.write(seed);
+      }
+    }
+    return size;
+  }
+
+  private static void report(String name, long nanos, long bytes) {
+    System.out.printf("%-22s %10.1f ms %10.1f MB/s%n", name, nanos / 1e6, bytes / 1e6 / (nanos / 1e9));
+  }
+}
@@ -0,0 +1,130 @@
+package quickfood;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+//Stores 1M invoices, then compares the store's size and lookup times by order number and by email
+//against scanning the same invoices exported as text. Also checks that stored invoices render
+//exactly as the old renderer wrote them.
+public class InvoiceStoreBenchmark {
+  private static final int EMAILS = 50_000; // Each customer places about 20 orders
+  private static final int LOOKUPS = 10_000;
+
+  public static void main(String[] args) throws IOException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    Order[] orders = SyntheticData.orders(count, 50, 42);
+    Driver driver = new Driver("Julie Carty", SyntheticData.location(1), 0);
+    for (int i = 0; i < count; i++) {
+      Customer c = orders[i].getCustomer();
+      Customer repeat = orders[i % EMAILS].getCustomer();
+      orders[i].setCustomer(Customer.fromValidatedFields(c.getOrderNumber(), c.getName(), c.getContactNumber(),
+          c.getAddress(), c.getLocation(), repeat.getEmail()));
+    }
+    checkRendering(orders, driver);
+
+    Path dir = Files.createTempDirectory("invoice-store-bench");
+    long start = System.nanoTime();
+    try (InvoiceStore store = new InvoiceStore(dir)) {
+      List<InvoiceRecord> batch = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        batch.add(i % 10 == 0 ? InvoiceRecord.unavailable(orders[i].getCustomer()) : InvoiceRecord.of(orders[i], driver));
+        if (batch.size() == 4096 || i == count - 1) {
+          store.append(batch);
+          batch.clear();
+        }
+      }
+    }
+    System.out.printf("stored %,d invoices in %.0f ms%n", count, (System.nanoTime() - start) / 1e6);
+
+    start = System.nanoTime();
+    InvoiceStore store = new InvoiceStore(dir);
+    System.out.printf("reopened in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    Path text = dir.resolve("invoice.txt");
+    store.exportText(text);
+    System.out.printf("binary data %,d bytes, text export %,d bytes%n", store.getDataLength(), Files.size(text));
+
+    Random random = new Random(7);
+    start = System.nanoTime();
+    int found = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      found += store.findByOrderNumber(1 + random.nextInt(count)).size();
+    }
+    report("by order number", System.nanoTime() - start, LOOKUPS, found);
+
+    start = System.nanoTime();
+    found = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      found += store.findByEmail(orders[random.nextInt(EMAILS)].getCustomer().getEmail()).size();
+    }
+    report("by email", System.nanoTime() - start, LOOKUPS, found);
+
+    start = System.nanoTime();
+    found = scanText(text, "Order Number: " + (count / 2));
+    report("text scan, one order", System.nanoTime() - start, 1, found);
+    store.close();
+
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static void report(String name, long nanos, int lookups, int found) {
+    System.out.printf("%-22s %10.1f us/lookup %,10d invoices found%n", name, nanos / 1e3 / lookups, found);
+  }
+
+  // The full scan a lookup needed when invoices were only kept as text
+  private static int scanText(Path text, String line) throws IOException {
+    int found = 0;
+    try (BufferedReader reader = Files.newBufferedReader(text, Charset.defaultCharset())) {
+      String current;
+      while ((current = reader.readLine()) != null) {
+        if (current.equals(line)) {
+          found++;
+        }
+      }
+    }
+    return found;
+  }
+
+  private static void checkRendering(Order[] orders, Driver driver) {
+    for (int i = 0; i < 1000; i++) {
+      if (!InvoiceRecord.of(orders[i], driver).render().equals(legacyRender(orders[i], driver))) {
+        throw new AssertionError("Invoice for order " + (i + 1) + " renders differently");
+      }
+    }
+  }
+
+  // The text Main.renderInvoice produced before invoices were stored as records
+  private static String legacyRender(Order order, Driver driver) {
+    String n = System.lineSeparator();
+    StringBuilder invoice = new StringBuilder();
+    invoice.append("Invoice:").append(n)
+        .append("Customer Name: ").append(order.getCustomer().getName()).append(n)
+        .append("Order Number: ").append(order.getCustomer().getOrderNumber()).append(n)
+        .append("Customer Address: ").append(order.getCustomer().getAddress()).append(n)
+        .append("Customer Location: ").append(order.getCustomer().getLocation()).append(n)
+        .append("Customer Email: ").append(order.getCustomer().getEmail()).append(n)
+        .append("Restaurant Name: ").append(order.getRestaurant().getName()).append(n)
+        .append("Restaurant Location: ").append(order.getRestaurant().getLocation()).append(n)
+        .append("Driver Name: ").append(driver.getName()).append(n)
+        .append("Order Details:").append(n);
+    for (Meal meal : order.getMeals()) {
+      invoice.append("Meal: ").append(meal.getName()).append(", Quantity: ").append(meal.getQuantity())
+          .append(", Price: $").append(meal.getPrice()).append(n);
+    }
+    invoice.append("Total Amount: $").append(order.getTotalAmount()).append(n)
+        .append("Special Instructions: ").append(order.getSpecialInstructions()).append(n)
+        .append("--------------------------------------------------------").append(n);
+    return invoice.toString();
+  }
+}
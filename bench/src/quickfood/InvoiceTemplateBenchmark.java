@@ -0,0 +1,85 @@
+package quickfood;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: turning stored invoice records into UTF-8 text, by decoding them and rendering Strings as the
+//export did, and by InvoiceTemplate straight from the encoded bytes. Run with -prof gc for the bytes
+//allocated per invoice. Setup checks that both give the same bytes, for the synthetic orders and for
+//non-ASCII text, null fields, large prices and totals that are not a whole number of cents.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvoiceTemplateBenchmark {
+  private static final int ORDERS = 1024;
+
+  private ByteBuffer[] records;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Order[] orders = SyntheticData.orders(ORDERS, 50, 42);
+    Driver driver = new Driver("Julie Carty", SyntheticData.location(1), 0);
+    records = new ByteBuffer[ORDERS];
+    for (int i = 0; i < ORDERS; i++) {
+      records[i] = encode(i % 10 == 0 ? InvoiceRecord.unavailable(orders[i].getCustomer()) : InvoiceRecord.of(orders[i], driver));
+      check(records[i]);
+    }
+    Customer customer = Customer.fromValidatedFields(7, "Zoë Ndlovu", "0215550000", "12 Bree Straße", "City A", "zoë@example.com");
+    Restaurant restaurant = new Restaurant("Café Ünïcode", "City A", "0215551111");
+    for (double total : new double[] {0.1 + 0.2, 1e7, 123456789.5, -2.5, -0.0, 0, Double.NaN, 19.99}) {
+      List<Meal> meals = Arrays.asList(new Meal("Crème brûlée 🍮", 2, 45.5), new Meal(null, 1, 12345678.9), new Meal("Free", 1, 0));
+      check(encode(InvoiceRecord.of(new Order(customer, restaurant, meals, null, total), new Driver("Søren", "City A", 0))));
+    }
+    OrderLines lines = new OrderLines(2);
+    lines.add("Huge", Integer.MAX_VALUE, Long.MAX_VALUE);
+    lines.add("Refund", -3, -150);
+    check(encode(InvoiceRecord.of(new Order(customer, restaurant, lines, "Leave at the gate"), driver)));
+  }
+
+  private static ByteBuffer encode(InvoiceRecord record) {
+    ByteBuffer buffer = ByteBuffer.allocate(record.maxEncodedSize());
+    record.encode(buffer);
+    return buffer.flip();
+  }
+
+  private static void check(ByteBuffer record) {
+    byte[] expected = InvoiceRecord.decode(record.duplicate()).render().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer text = InvoiceTemplate.render(record.duplicate());
+    byte[] actual = Arrays.copyOf(text.array(), text.limit());
+    if (!Arrays.equals(expected, actual)) {
+      throw new AssertionError("Template renders differently:\n" + new String(expected, StandardCharsets.UTF_8)
+          + "\n" + new String(actual, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Benchmark
+  public byte[] decodeAndRender() {
+    ByteBuffer record = records[next++ & (ORDERS - 1)];
+    return InvoiceRecord.decode(record.position(0)).render().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ByteBuffer template() {
+    ByteBuffer record = records[next++ & (ORDERS - 1)];
+    return InvoiceTemplate.render(record.position(0));
+  }
+}
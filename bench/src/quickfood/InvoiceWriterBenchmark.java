@@ -0,0 +1,68 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+//Measures invoices/sec for the old open/write/close of invoice.txt per invoice against InvoiceWriter and the invoice store
+public class InvoiceWriterBenchmark {
+  private static final int INVOICES = 100_000;
+
+  public static void main(String[] args) throws Exception {
+    String[] invoices = sampleInvoices(INVOICES);
+    InvoiceRecord[] records = sampleRecords(INVOICES);
+    File dir = Files.createTempDirectory("invoice-bench").toFile();
+
+    report("open/write/close per invoice", INVOICES, perInvoice(new File(dir, "legacy.txt"), invoices));
+    for (InvoiceWriter.FlushPolicy policy : InvoiceWriter.FlushPolicy.values()) {
+      report("InvoiceWriter " + policy, INVOICES, queued(new File(dir, policy.toString()), records, policy));
+    }
+  }
+
+  private static long perInvoice(File file, String[] invoices) throws IOException {
+    long start = System.nanoTime();
+    for (String invoice : invoices) {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
+      writer.write(invoice);
+      writer.close();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long queued(File dir, InvoiceRecord[] invoices, InvoiceWriter.FlushPolicy policy) throws IOException {
+    long start = System.nanoTime();
+    try (InvoiceStore store = new InvoiceStore(dir.toPath());
+        InvoiceWriter writer = new InvoiceWriter(store, 1024, policy, 100)) {
+      for (InvoiceRecord invoice : invoices) {
+        writer.submit(invoice);
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void report(String name, int count, long nanos) {
+    System.out.printf("%-32s %,12.0f invoices/sec%n", name, count * 1e9 / nanos);
+  }
+
+  static String[] sampleInvoices(int count) {
+    InvoiceRecord[] records = sampleRecords(count);
+    String[] invoices = new String[count];
+    for (int i = 0; i < count; i++) {
+      invoices[i] = records[i].render();
+    }
+    return invoices;
+  }
+
+  // One invoice in ten is for an order no driver could take
+  static InvoiceRecord[] sampleRecords(int count) {
+    Order[] orders = SyntheticData.orders(count, 50, 42);
+    Driver driver = new Driver("Julie Carty", SyntheticData.location(1), 0);
+    InvoiceRecord[] records = new InvoiceRecord[count];
+    for (int i = 0; i < count; i++) {
+      records[i] = i % 10 == 0 ? InvoiceRecord.unavailable(orders[i].getCustomer()) : InvoiceRecord.of(orders[i], driver);
+    }
+    return records;
+  }
+}
@@ -0,0 +1,112 @@
+package quickfood;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Measures what location IDs save at large driver counts: heap used by a loaded roster with a
+//location String per driver against an int ID, the cost of resolving a typed location, which the
+//old index paid inside every claim and is now paid once at input time, and the claim itself
+public class LocationRegistryBenchmark {
+  private static final int DRIVERS = 1_000_000;
+  private static final int LOCATIONS = 1_000;
+  private static final int CLAIMS = 2_000_000;
+
+  // A driver as it was stored before location IDs
+  static final class StringLocationDriver {
+    final String name;
+    final String location;
+    final AtomicInteger load;
+
+    StringLocationDriver(String name, String location, int load) {
+      this.name = name;
+      this.location = location;
+      this.load = new AtomicInteger(load);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, DriverNotFoundException {
+    Path file = Files.createTempFile("drivers", ".txt");
+    SyntheticData.writeRoster(file, DRIVERS, LOCATIONS, 42);
+
+    long before = usedHeap();
+    List<StringLocationDriver> legacy = loadWithStrings(file.toString());
+    long legacyBytes = usedHeap() - before;
+    System.out.printf("%,d drivers, location String per driver: %,8.1f MB%n", legacy.size(), legacyBytes / 1e6);
+    legacy = null;
+
+    before = usedHeap();
+    List<Driver> drivers = DriverFileLoader.load(file.toString());
+    long idBytes = usedHeap() - before;
+    System.out.printf("%,d drivers, location ID per driver:     %,8.1f MB (%.0f bytes/driver saved)%n",
+        drivers.size(), idBytes / 1e6, (legacyBytes - idBytes) / (double) DRIVERS);
+    Files.delete(file);
+
+    DriverIndex index = new DriverIndex();
+    for (Driver driver : drivers) {
+      index.add(driver);
+    }
+    String[] typed = SyntheticData.orderLocations(CLAIMS, LOCATIONS, 7);
+    int[] ids = new int[typed.length];
+    for (int i = 0; i < typed.length; i++) {
+      ids[i] = LocationRegistry.lookup(typed[i]);
+    }
+    // The old index resolved the typed location on every claim: trim, lower-case and a hash lookup
+    Map<String, Integer> byName = new ConcurrentHashMap<>();
+    for (int id = 0; id < LocationRegistry.size(); id++) {
+      byName.put(LocationRegistry.name(id).trim().toLowerCase(Locale.ROOT), id);
+    }
+
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      long sum = 0;
+      for (String location : typed) {
+        sum += byName.get(location.trim().toLowerCase(Locale.ROOT));
+      }
+      long strings = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (String location : typed) {
+        sum += LocationRegistry.lookup(location);
+      }
+      long lookups = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int id : ids) {
+        index.claim(id);
+      }
+      long claims = System.nanoTime() - start;
+      System.out.printf("per order: resolve by normalize + map %5.1f ns, by registry %5.1f ns; claim by int ID %6.1f ns (%d)%n",
+          strings / (double) CLAIMS, lookups / (double) CLAIMS, claims / (double) CLAIMS, sum & 1);
+    }
+  }
+
+  // Each driver gets its own location String, as reading with split did
+  private static List<StringLocationDriver> loadWithStrings(String filename) throws IOException {
+    List<StringLocationDriver> drivers = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(",");
+        drivers.add(new StringLocationDriver(parts[0].trim(), parts[1].trim(), Integer.parseInt(parts[2].trim())));
+      }
+    }
+    return drivers;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
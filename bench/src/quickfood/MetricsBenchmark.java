@@ -0,0 +1,111 @@
+package quickfood;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: overhead of Metrics on the per-order path. orderPath runs what a bulk order costs in memory,
+//instrumented the way Main instruments it: parse and validate the line, which constructs the
+//Customer, claim a driver and encode the invoice. The same benchmark runs in forks with
+//-Dquickfood.metrics=false, where the JIT drops the instrumentation, and with every call timed
+//instead of one in 16. record is one histogram update.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+  private static final int ORDERS = 1024;
+  private static final int LOCATIONS = 50;
+
+  private String[] lines;
+  private DriverRoster roster;
+  private ByteBuffer buffer;
+  private LatencyHistogram histogram;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Order[] orders = SyntheticData.orders(ORDERS, LOCATIONS, 42);
+    lines = new String[ORDERS];
+    for (int i = 0; i < ORDERS; i++) {
+      lines[i] = line(orders[i]);
+    }
+    List<Driver> drivers = SyntheticData.drivers(10_000, LOCATIONS, 42);
+    roster = DriverRoster.of(drivers);
+    buffer = ByteBuffer.allocate(64 * 1024);
+    histogram = new LatencyHistogram("bench");
+  }
+
+  @Benchmark
+  public int orderPath() throws InvalidInputException {
+    return order();
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dquickfood.metrics=false")
+  public int orderPathMetricsOff() throws InvalidInputException {
+    return order();
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dquickfood.metrics.sampleEvery=1")
+  public int orderPathUnsampled() throws InvalidInputException {
+    return order();
+  }
+
+  @Benchmark
+  public LatencyHistogram record() {
+    histogram.record(next++ & 0xFFFF);
+    return histogram;
+  }
+
+  // Mirrors BulkOrderReader and Main.dispatchOrder, with the invoice encoded instead of queued
+  private int order() throws InvalidInputException {
+    Order order = BulkOrderReader.parseOrder(lines[next++ & (ORDERS - 1)]);
+    Metrics.orderPlaced();
+    Driver driver;
+    long start = Metrics.startSampled();
+    try {
+      driver = roster.claim(order.getRestaurant().getLocationId(), 0);
+    } catch (DriverNotFoundException e) {
+      Metrics.driverNotFound(order.getRestaurant().getLocationId());
+      return 0;
+    } finally {
+      Metrics.record(Metrics.FIND_DRIVER, start);
+    }
+    start = Metrics.startSampled();
+    buffer.clear();
+    InvoiceRecord.of(order, driver).encode(buffer);
+    Metrics.record(Metrics.GENERATE_INVOICE, start);
+    return buffer.position();
+  }
+
+  private static String line(Order order) {
+    Customer c = order.getCustomer();
+    Restaurant r = order.getRestaurant();
+    StringBuilder line = new StringBuilder();
+    line.append(c.getOrderNumber()).append(',').append(c.getName()).append(',').append(c.getContactNumber()).append(',')
+        .append(c.getAddress()).append(',').append(c.getLocation()).append(',').append(c.getEmail()).append(',')
+        .append(r.getName()).append(',').append(r.getLocation()).append(',').append(r.getContactNumber()).append(',')
+        .append(order.getSpecialInstructions()).append(',');
+    OrderLines meals = order.getLines();
+    for (int i = 0; i < meals.size(); i++) {
+      line.append(i > 0 ? ";" : "").append(meals.getName(i)).append(':').append(meals.getQuantity(i)).append(':').append(meals.getPrice(i));
+    }
+    return line.toString();
+  }
+}
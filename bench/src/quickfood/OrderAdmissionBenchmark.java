@@ -0,0 +1,68 @@
+package quickfood;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: admitting new order numbers, and retries of recent ones, after the filters already hold 50
+//million earlier orders. The history finds nothing, so every lookup a new order makes is a false
+//positive; the statistics printed after each fork give the rate. Run with -prof gc for allocation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class OrderAdmissionBenchmark {
+  private static final int EARLIER_ORDERS = 50_000_000;
+
+  @Param({"64", "512"})
+  public int filterMB;
+
+  private OrderAdmission admission;
+  private int next = EARLIER_ORDERS;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    admission = new OrderAdmission(1 << 18, (long) filterMB << 20, orderNumber -> null);
+    for (int n = 0; n < EARLIER_ORDERS; n++) {
+      admission.remember(n);
+    }
+  }
+
+  @Benchmark
+  public CompletableFuture<DispatchResult> admitNew() throws IOException {
+    int orderNumber = next++;
+    CompletableFuture<DispatchResult> original = admission.admit(orderNumber);
+    admission.complete(orderNumber, DispatchResult.NO_DRIVER);
+    return original;
+  }
+
+  @Benchmark
+  public CompletableFuture<DispatchResult> admitRetry() throws IOException {
+    int orderNumber = next++;
+    admission.admit(orderNumber);
+    admission.complete(orderNumber, DispatchResult.NO_DRIVER);
+    return admission.admit(orderNumber);
+  }
+
+  @TearDown(Level.Trial)
+  public void report() {
+    System.out.println();
+    System.out.println(admission);
+  }
+}
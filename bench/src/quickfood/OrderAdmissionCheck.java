@@ -0,0 +1,180 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//Checks that OrderAdmission dispatches each order number once: a duplicate gets the first result,
+//waiting for it while it is pending; an abandoned order can be placed again; the exact window
+//keeps pending and recent orders across rotations, even with more orders pending than it holds;
+//and the filters saved at shutdown load back, unless the file is stale or damaged. The history
+//stands in for the invoice store, holding the result of every completed order, and counts how
+//often it is asked.
+//  java -cp bench/target/benchmarks.jar quickfood.OrderAdmissionCheck
+public class OrderAdmissionCheck {
+  private static final long FILTER_BYTES = 1 << 20;
+  private static final int CRC = 0x5eed;
+
+  private static final Map<Integer, DispatchResult> invoices = new HashMap<>();
+  private static int lookups;
+
+  public static void main(String[] args) throws Exception {
+    duplicates();
+    abandoned();
+    rotation();
+    manyPending();
+    Path dir = Files.createTempDirectory("order-admission-check");
+    try {
+      saveAndLoad(dir.resolve("admission.bloom"));
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+    System.out.println("OK: every order number admitted once");
+  }
+
+  private static OrderAdmission admission(int recentOrders) {
+    return new OrderAdmission(recentOrders, FILTER_BYTES, orderNumber -> {
+      lookups++;
+      DispatchResult result = invoices.get(orderNumber);
+      return result == null ? null : CompletableFuture.completedFuture(result);
+    });
+  }
+
+  // Completes an admitted order and writes its "invoice" to the history
+  private static void complete(OrderAdmission admission, int orderNumber, DispatchResult result) {
+    admission.complete(orderNumber, result);
+    invoices.put(orderNumber, result);
+  }
+
+  private static void duplicates() throws Exception {
+    OrderAdmission admission = admission(1024);
+    check(admission.admit(1) == null, "a new order is admitted");
+    complete(admission, 1, DispatchResult.assigned("Ann"));
+    check("Ann".equals(result(admission.admit(1)).getDriverName()), "a duplicate gets the driver of the first dispatch");
+
+    check(admission.admit(2) == null, "a second new order is admitted");
+    CompletableFuture<DispatchResult> waiting = admission.admit(2);
+    check(waiting != null && !waiting.isDone(), "a duplicate of a pending order waits for it");
+    CompletableFuture<DispatchResult> fromThread = CompletableFuture.supplyAsync(() -> waiting.join());
+    complete(admission, 2, DispatchResult.NO_DRIVER);
+    check(!fromThread.get(5, TimeUnit.SECONDS).isDispatched(), "the waiting duplicate gets the pending order's result");
+  }
+
+  private static void abandoned() throws Exception {
+    OrderAdmission admission = admission(1024);
+    check(admission.admit(3) == null, "a new order is admitted");
+    CompletableFuture<DispatchResult> waiting = admission.admit(3);
+    admission.abandon(3, new IOException("journal full"));
+    try {
+      waiting.get();
+      check(false, "a duplicate of an abandoned order fails");
+    } catch (ExecutionException e) {
+      check(e.getCause() instanceof IOException, "a duplicate of an abandoned order fails with its error");
+    }
+    check(admission.admit(3) == null, "an abandoned order can be placed again");
+    complete(admission, 3, DispatchResult.assigned("Bea"));
+    check("Bea".equals(result(admission.admit(3)).getDriverName()), "the order placed again is the one remembered");
+  }
+
+  private static void rotation() throws Exception {
+    int recent = 8;
+    OrderAdmission admission = admission(recent);
+    check(admission.admit(100) == null, "a new order is admitted");
+    CompletableFuture<DispatchResult> waiting = admission.admit(100);
+    // Enough orders for several rotations of the window while order 100 is still being dispatched
+    for (int orderNumber = 101; orderNumber <= 100 + 5 * recent; orderNumber++) {
+      check(admission.admit(orderNumber) == null, "order " + orderNumber + " is admitted");
+      complete(admission, orderNumber, DispatchResult.assigned("Driver " + orderNumber));
+    }
+    check(!waiting.isDone(), "a pending order stays pending across rotations");
+    check(admission.admit(100) != null, "a pending order is still in the window after rotations");
+    complete(admission, 100, DispatchResult.assigned("Cal"));
+    check("Cal".equals(result(waiting).getDriverName()), "a duplicate waiting across rotations gets the result");
+
+    int before = lookups;
+    int last = 100 + 5 * recent;
+    check(("Driver " + last).equals(result(admission.admit(last)).getDriverName()), "a recent order is a duplicate");
+    check(lookups == before, "a recent order is found in the window, without the history");
+    check("Driver 101".equals(result(admission.admit(101)).getDriverName()), "an order rotated out is found in the history");
+    check(lookups == before + 1, "an order rotated out of the window is looked up in the history");
+  }
+
+  // More orders pending at once than the window holds, as in a burst of slow dispatches
+  private static void manyPending() throws Exception {
+    int recent = 8;
+    OrderAdmission admission = admission(recent);
+    List<CompletableFuture<DispatchResult>> waiting = new ArrayList<>();
+    for (int orderNumber = 200; orderNumber < 200 + 10 * recent; orderNumber++) {
+      check(admission.admit(orderNumber) == null, "pending order " + orderNumber + " is admitted");
+      waiting.add(admission.admit(orderNumber));
+    }
+    for (int i = 0; i < waiting.size(); i++) {
+      check(waiting.get(i) != null && !waiting.get(i).isDone(), "order " + (200 + i) + " is still pending");
+      complete(admission, 200 + i, DispatchResult.assigned("Driver " + (200 + i)));
+      check(("Driver " + (200 + i)).equals(result(waiting.get(i)).getDriverName()), "order " + (200 + i) + " hands on its result");
+    }
+  }
+
+  private static void saveAndLoad(Path file) throws Exception {
+    OrderAdmission saved = admission(16);
+    for (int orderNumber = 1000; orderNumber < 2000; orderNumber++) {
+      saved.admit(orderNumber);
+      complete(saved, orderNumber, DispatchResult.assigned("Dee"));
+    }
+    saved.save(file, 4096, CRC);
+
+    OrderAdmission loaded = admission(16);
+    check(loaded.load(file, end -> CRC, 8192) == 4096, "saved filters load, covering the saved data length");
+    int before = lookups;
+    check("Dee".equals(result(loaded.admit(1500)).getDriverName()), "a loaded filter sends a saved order to the history");
+    check(lookups == before + 1, "the saved order was looked up");
+
+    check(admission(16).load(file, end -> CRC + 1, 8192) == 0, "filters for a replaced store are not loaded");
+    check(admission(16).load(file, end -> CRC, 1024) == 0, "filters covering more data than the store holds are not loaded");
+    check(new OrderAdmission(16, FILTER_BYTES * 2, orderNumber -> null).load(file, end -> CRC, 8192) == 0,
+        "filters of another size are not loaded");
+    check(admission(16).load(file.resolveSibling("missing.bloom"), end -> CRC, 8192) == 0, "a missing file loads nothing");
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer bit = ByteBuffer.allocate(1);
+      long position = channel.size() / 2;
+      channel.read(bit, position);
+      bit.put(0, (byte) (bit.get(0) ^ 1));
+      channel.write(bit.rewind(), position);
+    }
+    OrderAdmission damaged = admission(16);
+    check(damaged.load(file, end -> CRC, 8192) == 0, "a damaged filter file is not loaded");
+    before = lookups;
+    for (int orderNumber = 1000; orderNumber < 2000; orderNumber++) {
+      damaged.admit(orderNumber);
+    }
+    check(lookups == before, "the filters of a damaged file are left empty");
+  }
+
+  private static DispatchResult result(CompletableFuture<DispatchResult> future) throws Exception {
+    check(future != null, "a duplicate returns a result");
+    return future.get(5, TimeUnit.SECONDS);
+  }
+
+  private static void check(boolean condition, String what) {
+    if (!condition) {
+      throw new AssertionError("Failed: " + what);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+//Journals 10M dispatch events, then reports how long recovery takes from the raw segments and
+//from a compacted checkpoint, and checks that both rebuild the same driver loads
+public class OrderJournalBenchmark {
+  private static final int DRIVERS = 100_000;
+  private static final int LOCATIONS = 1_000;
+
+  public static void main(String[] args) throws IOException {
+    int events = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    List<Driver> drivers = SyntheticData.drivers(DRIVERS, LOCATIONS, 42);
+    Path dir = Files.createTempDirectory("journal-bench");
+
+    long start = System.nanoTime();
+    try (OrderJournal journal = new OrderJournal(dir, 10, Long.MAX_VALUE)) {
+      for (int i = 0; i < events; i++) {
+        if (i % 50 == 0) {
+          journal.recordNoDriver(i);
+        } else {
+          journal.recordDispatch(i, drivers.get((int) ((i * 2654435761L) % DRIVERS)));
+        }
+      }
+    }
+    long written = System.nanoTime() - start;
+    System.out.printf("journalled %,d events (%,d bytes) in %.0f ms, %,.0f events/sec%n",
+        events, size(dir), written / 1e6, events * 1e9 / written);
+
+    OrderJournal.State replayed = null;
+    long replay = Long.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      start = System.nanoTime();
+      replayed = OrderJournal.recover(dir);
+      replay = Math.min(replay, System.nanoTime() - start);
+    }
+    System.out.printf("recovery from segments:   %8.0f ms%n", replay / 1e6);
+
+    // Opening a journal folds the earlier segments into the checkpoint before it starts syncing
+    new OrderJournal(dir, 10, Long.MAX_VALUE).close();
+    OrderJournal.State compacted = null;
+    long checkpoint = Long.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      start = System.nanoTime();
+      compacted = OrderJournal.recover(dir);
+      checkpoint = Math.min(checkpoint, System.nanoTime() - start);
+    }
+    System.out.printf("recovery from checkpoint: %8.0f ms (%,d bytes)%n", checkpoint / 1e6, size(dir));
+
+    if (replayed.getDispatched() != compacted.getDispatched() || replayed.getNoDriver() != compacted.getNoDriver()) {
+      throw new AssertionError("Checkpoint totals differ from the replayed segments");
+    }
+    for (Driver driver : drivers) {
+      if (replayed.getDispatches(driver.getName(), driver.getLocation()) != compacted.getDispatches(driver.getName(), driver.getLocation())) {
+        throw new AssertionError("Checkpoint differs for " + driver.getName());
+      }
+    }
+    System.out.printf("%,d dispatched, %,d without a driver%n", compacted.getDispatched(), compacted.getNoDriver());
+    delete(dir);
+  }
+
+  private static long size(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+}
@@ -0,0 +1,105 @@
+package quickfood;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*Load-test client for the HTTP order API. Start the server first, for example
+    java -jar core/target/quickfood-1.0-SNAPSHOT.jar --http 8080
+  then run
+    java -cp bench/target/benchmarks.jar quickfood.OrderLoadTest [url] [requests per level]
+  It sends orders at concurrency 1 to 64 and prints p50/p99 latency and requests/sec per level.
+  Restaurant locations are taken from driver-info.txt so that most orders find a driver.
+*/
+public class OrderLoadTest {
+  private static final String[] CITIES = {"Cape Town", "Durban", "Johannesburg", "Port Elizabeth", "Witbank", "Bloemfontein", "Springbok", "Paris"};
+  private static final int[] CONCURRENCY = {1, 2, 4, 8, 16, 32, 64};
+
+  public static void main(String[] args) throws Exception {
+    URI uri = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/orders");
+    int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+    HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    String[] bodies = bodies(requests);
+
+    run(client, uri, bodies, 4, false); // warm-up
+    System.out.printf("%12s %12s %12s %14s %8s%n", "concurrency", "p50 ms", "p99 ms", "requests/sec", "errors");
+    for (int concurrency : CONCURRENCY) {
+      run(client, uri, bodies, concurrency, true);
+    }
+  }
+
+  private static void run(HttpClient client, URI uri, String[] bodies, int concurrency, boolean report) throws InterruptedException {
+    long[] latencies = new long[bodies.length];
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger errors = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(concurrency);
+    List<Thread> workers = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int t = 0; t < concurrency; t++) {
+      Thread worker = new Thread(() -> {
+        int i;
+        while ((i = next.getAndIncrement()) < bodies.length) {
+          HttpRequest request = HttpRequest.newBuilder(uri)
+              .header("Content-Type", "application/x-www-form-urlencoded")
+              .POST(HttpRequest.BodyPublishers.ofString(bodies[i]))
+              .build();
+          long sent = System.nanoTime();
+          try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+              errors.incrementAndGet();
+            }
+          } catch (Exception e) {
+            errors.incrementAndGet();
+          }
+          latencies[i] = System.nanoTime() - sent;
+        }
+        done.countDown();
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+    if (report) {
+      Arrays.sort(latencies);
+      System.out.printf("%12d %12.2f %12.2f %,14.0f %8d%n", concurrency,
+          latencies[latencies.length / 2] / 1e6,
+          latencies[(int) (latencies.length * 0.99)] / 1e6,
+          bodies.length * 1e9 / elapsed,
+          errors.get());
+    }
+  }
+
+  private static String[] bodies(int count) {
+    String[][] customers = SyntheticData.customerFields(count, 50, 42);
+    String[] bodies = new String[count];
+    for (int i = 0; i < count; i++) {
+      String[] c = customers[i];
+      bodies[i] = form("orderNumber", String.valueOf(i + 1))
+          + "&" + form("name", c[0])
+          + "&" + form("contactNumber", c[1])
+          + "&" + form("address", c[2])
+          + "&" + form("location", c[3])
+          + "&" + form("email", c[4])
+          + "&" + form("restaurantName", "Pizza Palace")
+          + "&" + form("restaurantLocation", CITIES[i % CITIES.length])
+          + "&" + form("restaurantContactNumber", "0215550000")
+          + "&" + form("specialInstructions", "Ring the bell")
+          + "&" + form("meals", "Margherita:2:89.5;Cola:1:15");
+    }
+    return bodies;
+  }
+
+  private static String form(String name, String value) {
+    return name + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+}
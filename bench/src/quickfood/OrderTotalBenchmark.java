@@ -0,0 +1,77 @@
+package quickfood;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: totalling a batch of orders from boxed Meal lists in doubles and from OrderLines in cents
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderTotalBenchmark {
+  private static final int ORDERS = 10_000;
+
+  @Param({"4", "64"})
+  public int linesPerOrder;
+
+  private List<List<Meal>> mealLists;
+  private OrderLines[] orderLines;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    mealLists = new ArrayList<>(ORDERS);
+    orderLines = new OrderLines[ORDERS];
+    for (int i = 0; i < ORDERS; i++) {
+      List<Meal> meals = new ArrayList<>(linesPerOrder);
+      OrderLines lines = new OrderLines(linesPerOrder);
+      for (int j = 0; j < linesPerOrder; j++) {
+        int quantity = 1 + random.nextInt(3);
+        long priceCents = 500 + random.nextInt(20_000);
+        meals.add(new Meal("Meal", quantity, priceCents / 100.0));
+        lines.add("Meal", quantity, priceCents);
+      }
+      mealLists.add(meals);
+      orderLines[i] = lines;
+    }
+  }
+
+  @Benchmark
+  public double mealsInDoubles() {
+    double batchTotal = 0.0;
+    for (List<Meal> meals : mealLists) {
+      double totalAmount = 0.0;
+      for (Meal meal : meals) {
+        totalAmount += meal.getPrice() * meal.getQuantity();
+      }
+      batchTotal += totalAmount;
+    }
+    return batchTotal;
+  }
+
+  @Benchmark
+  public long linesInCents() {
+    long batchTotal = 0;
+    for (OrderLines lines : orderLines) {
+      batchTotal += lines.totalCents();
+    }
+    return batchTotal;
+  }
+}
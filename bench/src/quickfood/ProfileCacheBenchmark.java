@@ -0,0 +1,66 @@
+package quickfood;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//JMH: parsing and validating bulk order lines from the WorkloadGenerator stream, where repeat
+//customers are common, with the profile cache off (maxMB 0) and on. Each parameter runs in its own
+//fork, so the cap is set before ProfileCache is loaded. Run with -prof gc to see the allocation
+//saved, and the cache statistics are printed after each fork.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileCacheBenchmark {
+  private static final int ORDERS = 1 << 16;
+
+  @Param({"0", "4", "64"})
+  public String maxMB;
+
+  private String[] lines;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    System.setProperty("quickfood.profileCache.maxMB", maxMB);
+    Map<String, String> options = new HashMap<>();
+    options.put("customers", "200000");
+    WorkloadGenerator workload = new WorkloadGenerator(options);
+    lines = new String[ORDERS];
+    StringBuilder line = new StringBuilder(256);
+    for (int n = 0; n < ORDERS; n++) {
+      line.setLength(0);
+      workload.orderLine(n, line);
+      lines[n] = line.toString();
+    }
+  }
+
+  @Benchmark
+  public Order parseOrder() throws InvalidInputException {
+    return BulkOrderReader.parseOrder(lines[next++ & (ORDERS - 1)]);
+  }
+
+  @TearDown(Level.Trial)
+  public void report() {
+    System.out.println();
+    System.out.println(ProfileCache.CUSTOMERS);
+    System.out.println(ProfileCache.RESTAURANTS);
+  }
+}
@@ -0,0 +1,152 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+//Measures sharded dispatch: orders from a WorkloadGenerator stream claimed through
+//ShardedDispatcher with 1, 2, 4 and 8 shards, over the in-process and the loopback socket
+//transport, against one DriverRoster claimed directly. Claims are pipelined from one thread, with up
+//to WINDOW outstanding, so the shards work in parallel. Then, with the order stream skewed onto a few
+//cities, shows the share of claims each shard takes before and after the hottest location is
+//isolated on a shard of its own. Takes the WorkloadGenerator options; --orders sets the stream length.
+//Scaling with the shard count needs as many free cores as shards.
+public class ShardedDispatchBenchmark {
+  private static final int[] SHARDS = {1, 2, 4, 8};
+  private static final int WINDOW = 1024;
+  private static final int ROUNDS = 3; // Timed passes over the stream; the best is reported
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = WorkloadGenerator.options(args);
+    int orders = Integer.parseInt(options.getOrDefault("orders", "200000"));
+    Path file = Files.createTempFile("drivers", ".txt");
+    try {
+      WorkloadGenerator workload = new WorkloadGenerator(options);
+      workload.writeDrivers(file);
+      // Load the drivers first, so that the orders' locations are registered
+      DriverRoster roster = DriverRoster.of(DriverFileLoader.load(file.toString()));
+      int[] locations = locations(workload, orders);
+      System.out.printf("%,d drivers, %,d orders, %d cores%n",
+          roster.getDrivers().size(), orders, Runtime.getRuntime().availableProcessors());
+
+      System.out.printf("%-22s %,12.0f claims/s%n", "unsharded roster", best(() -> {
+        for (int locationId : locations) {
+          try {
+            roster.claim(locationId, 0);
+          } catch (DriverNotFoundException e) {
+            // Orders in cities without drivers
+          }
+        }
+      }, orders));
+      for (ShardedDispatcher.Transport transport : ShardedDispatcher.Transport.values()) {
+        for (int shards : SHARDS) {
+          try (ShardedDispatcher dispatcher = new ShardedDispatcher(DriverFileLoader.load(file.toString()), shards, transport)) {
+            double rate = best(() -> pipeline(dispatcher, locations), orders);
+            System.out.printf("%-22s %,12.0f claims/s, busiest shard %.0f%% of claims%n",
+                transport.name().toLowerCase(Locale.ROOT) + ", " + shards + " shard" + (shards == 1 ? "" : "s"), rate, 100 * busiest(dispatcher.claimCounts()));
+          }
+        }
+      }
+
+      options.put("citySkew", "1.6");
+      WorkloadGenerator skewed = new WorkloadGenerator(options);
+      skewed.writeDrivers(file);
+      List<Driver> drivers = DriverFileLoader.load(file.toString());
+      int[] hot = locations(skewed, orders);
+      try (ShardedDispatcher dispatcher = new ShardedDispatcher(drivers, 4, ShardedDispatcher.Transport.LOCAL)) {
+        double before = best(() -> pipeline(dispatcher, hot), orders);
+        System.out.printf("skewed, 4 shards: %,.0f claims/s, claims per shard %s%n", before, shares(dispatcher.claimCounts()));
+        pipeline(dispatcher, hot);
+        String isolated = dispatcher.rebalance(1.2);
+        double after = best(() -> pipeline(dispatcher, hot), orders);
+        System.out.printf("after isolating %s: %,.0f claims/s, claims per shard %s%n", isolated, after, shares(dispatcher.claimCounts()));
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  // The restaurant location of each order in the stream, as a LocationRegistry ID
+  private static int[] locations(WorkloadGenerator workload, int orders) throws InvalidInputException {
+    int[] locations = new int[orders];
+    StringBuilder line = new StringBuilder(256);
+    for (int n = 0; n < orders; n++) {
+      line.setLength(0);
+      workload.orderLine(n, line);
+      locations[n] = BulkOrderReader.parseOrder(line.toString()).getRestaurant().getLocationId();
+    }
+    return locations;
+  }
+
+  // Claims a driver for every order, keeping up to WINDOW claims in flight
+  private static void pipeline(ShardedDispatcher dispatcher, int[] locations) throws IOException {
+    List<CompletableFuture<Driver>> window = new ArrayList<>(WINDOW);
+    for (int i = 0; i < WINDOW; i++) {
+      window.add(null);
+    }
+    for (int n = 0; n < locations.length; n++) {
+      CompletableFuture<Driver> oldest = window.get(n % WINDOW);
+      if (oldest != null) {
+        ShardedDispatcher.await(oldest);
+      }
+      window.set(n % WINDOW, dispatcher.claimAsync(locations[n]));
+    }
+    for (CompletableFuture<Driver> claim : window) {
+      if (claim != null) {
+        ShardedDispatcher.await(claim);
+      }
+    }
+  }
+
+  private interface Run {
+    void run() throws IOException;
+  }
+
+  // Returns the best claims per second over ROUNDS passes, after one pass to warm up
+  private static double best(Run run, int orders) throws IOException {
+    run.run();
+    double best = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      run.run();
+      best = Math.max(best, orders / ((System.nanoTime() - start) / 1e9));
+    }
+    return best;
+  }
+
+  private static double[] totals(List<Map<String, Integer>> counts) {
+    double[] totals = new double[counts.size()];
+    double all = 0;
+    for (int shard = 0; shard < totals.length; shard++) {
+      for (int count : counts.get(shard).values()) {
+        totals[shard] += count;
+      }
+      all += totals[shard];
+    }
+    for (int shard = 0; shard < totals.length; shard++) {
+      totals[shard] /= Math.max(1, all);
+    }
+    return totals;
+  }
+
+  private static double busiest(List<Map<String, Integer>> counts) {
+    double busiest = 0;
+    for (double share : totals(counts)) {
+      busiest = Math.max(busiest, share);
+    }
+    return busiest;
+  }
+
+  private static String shares(List<Map<String, Integer>> counts) {
+    StringBuilder shares = new StringBuilder();
+    for (double share : totals(counts)) {
+      shares.append(shares.length() == 0 ? "" : " / ").append(Math.round(100 * share)).append('%');
+    }
+    return shares.toString();
+  }
+}
@@ -0,0 +1,256 @@
+package quickfood;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/*Soak test: pushes a WorkloadGenerator order stream through dispatch and invoicing for a fixed time
+  and reports, every interval and at the end, the orders per second, the heap left after garbage
+  collection, the time spent in collections and the share of orders that found no driver.
+    java -Xmx2g -cp bench/target/benchmarks.jar quickfood.SoakTest [--option value ...]
+  Besides the WorkloadGenerator options it takes:
+    --seconds 60        how long to run
+    --report 5          seconds between report lines
+    --threads 1         order threads
+    --rate 0            orders per second over all threads; 0 runs flat out
+    --deliverySeconds 30  expected delivery time, after which the delivery timer releases a load
+    --flush batch       invoice flush policy, as quickfood.invoice.flush
+    --dir <temp>        where the roster, invoice store and journal go; a temporary directory is deleted afterwards
+  Other quickfood.* system properties, such as quickfood.dispatch.mode, configure Main as usual.
+
+  Main is started as for a bulk run, with its driver file, invoice store and journal in the
+  directory, and each order line is parsed by BulkOrderReader and placed with Main.dispatchOrder,
+  so the soak covers admission, dispatch, journalling, the delivery timer and the invoice writer as
+  they run in production. Order lines are generated on the order threads, which costs about as much
+  as reading them from a file. An order from a city without drivers is rejected as it is parsed and
+  counted as unserved, like one that found no driver.
+
+  The GC columns add up the durations the collectors report. For stop-the-world collections, which
+  is every collection of the Serial and Parallel collectors and G1's young, mixed and full ones, that
+  is the pause. For the cycles of a concurrent collector such as ZGC it is the length of the whole
+  cycle, most of which runs alongside the order threads; use -Xlog:gc for its pauses.
+
+  The heap after GC is what the latest collection left, so after a young collection it includes old
+  objects that are already dead; a leak shows as a trend that keeps rising over a long run, once the
+  pending deliveries have levelled off after the first expected delivery time.
+*/
+public class SoakTest {
+  private static final int STEADY_SKIP = 2; // Report intervals left out of the steady-state rate while the JIT warms up
+
+  private static final LongAdder dispatched = new LongAdder();
+  private static final LongAdder noDriver = new LongAdder(); // Including orders rejected for the restaurant location
+  private static final LongAdder duplicates = new LongAdder();
+  private static final LongAdder rejected = new LongAdder();
+  private static final AtomicLong next = new AtomicLong();
+
+  // GC activity since the last report, filled in by the collectors' notifications
+  private static long gcCount;
+  private static long gcMillis;
+  private static long gcMaxMillis;
+  private static long heapAfterGc = -1;
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = WorkloadGenerator.options(args);
+    WorkloadGenerator workload = new WorkloadGenerator(options);
+    int seconds = Integer.parseInt(options.getOrDefault("seconds", "60"));
+    int report = Integer.parseInt(options.getOrDefault("report", "5"));
+    int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+    double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+    long deliveryMillis = Math.round(Double.parseDouble(options.getOrDefault("deliverySeconds", "30")) * 1000);
+    String flush = InvoiceWriter.FlushPolicy.valueOf(options.getOrDefault("flush", "batch").toUpperCase(Locale.ROOT)).name();
+    boolean temporary = !options.containsKey("dir");
+    Path directory = temporary ? Files.createTempDirectory("soak") : Files.createDirectories(Path.of(options.get("dir")));
+
+    Path driverFile = directory.resolve("driver-info.txt");
+    workload.writeDrivers(driverFile);
+    long drivers;
+    try (Stream<String> lines = Files.lines(driverFile)) {
+      drivers = lines.count();
+    }
+    System.out.printf("%,d drivers in %s; %.1f%% of orders are in cities without drivers%n",
+        drivers, directory, 100 * workload.uncoveredShare());
+    System.setProperty("quickfood.drivers.file", driverFile.toString());
+    System.setProperty("quickfood.locations.file", directory.resolve("locations.txt").toString());
+    System.setProperty("quickfood.invoice.dir", directory.resolve("invoices").toString());
+    System.setProperty("quickfood.invoice.flush", flush);
+    System.setProperty("quickfood.journal.dir", directory.resolve("journal").toString());
+    System.setProperty("quickfood.delivery.expectedMinutes", String.valueOf(deliveryMillis / 60_000.0));
+    System.setProperty("quickfood.delivery.tickMillis", "100");
+    listenForGc();
+
+    if (!Main.start()) {
+      if (temporary) {
+        delete(directory);
+      }
+      return;
+    }
+    try {
+      long start = System.nanoTime();
+      long end = start + TimeUnit.SECONDS.toNanos(seconds);
+      long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+      List<Thread> workers = new ArrayList<>();
+      AtomicLong failure = new AtomicLong();
+      for (int t = 0; t < threads; t++) {
+        Thread worker = new Thread(() -> {
+          StringBuilder line = new StringBuilder(256);
+          try {
+            while (System.nanoTime() < end) {
+              long n = next.getAndIncrement();
+              if (interval > 0) {
+                long due = start + n * interval;
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                  LockSupport.parkNanos(wait);
+                }
+              }
+              line.setLength(0);
+              workload.orderLine(n, line);
+              order(line.toString());
+            }
+          } catch (IOException e) {
+            System.err.println("Soak test stopped: " + e.getMessage());
+            failure.incrementAndGet();
+          }
+        }, "soak-" + t);
+        worker.start();
+        workers.add(worker);
+      }
+
+      System.out.printf("%8s %12s %10s %14s %8s %12s %12s%n", "seconds", "orders/s", "no driver", "heap after GC", "GCs", "GC ms", "longest GC ms");
+      List<Double> rates = new ArrayList<>();
+      long firstHeap = -1;
+      long lastHeap = -1;
+      long totalGcs = 0;
+      long totalGcMillis = 0;
+      long longestGc = 0;
+      long previousOrders = 0;
+      long previousNoDriver = 0;
+      long previousTime = start;
+      while (System.nanoTime() < end && failure.get() == 0) {
+        Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(report), Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+        long now = System.nanoTime();
+        long orders = dispatched.sum() + noDriver.sum() + duplicates.sum() + rejected.sum();
+        long missed = noDriver.sum();
+        long count;
+        long millis;
+        long max;
+        long heap;
+        synchronized (SoakTest.class) {
+          count = gcCount;
+          millis = gcMillis;
+          max = gcMaxMillis;
+          heap = heapAfterGc;
+          gcCount = 0;
+          gcMillis = 0;
+          gcMaxMillis = 0;
+        }
+        double ordersPerSecond = (orders - previousOrders) / ((now - previousTime) / 1e9);
+        rates.add(ordersPerSecond);
+        System.out.printf("%8.0f %,12.0f %9.2f%% %11.1f MB %8d %12d %12d%n", (now - start) / 1e9, ordersPerSecond,
+            100.0 * (missed - previousNoDriver) / Math.max(1, orders - previousOrders), heap / 1e6, count, millis, max);
+        if (heap >= 0) {
+          firstHeap = firstHeap < 0 ? heap : firstHeap;
+          lastHeap = heap;
+        }
+        totalGcs += count;
+        totalGcMillis += millis;
+        longestGc = Math.max(longestGc, max);
+        previousOrders = orders;
+        previousNoDriver = missed;
+        previousTime = now;
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      long orders = dispatched.sum() + noDriver.sum() + duplicates.sum() + rejected.sum();
+      List<Double> steady = new ArrayList<>(rates.subList(Math.min(STEADY_SKIP, Math.max(0, rates.size() - 1)), rates.size()));
+      Collections.sort(steady);
+      System.out.printf("%,d orders in %.0f s: %,.0f orders/s overall, %,.0f orders/s median and %,.0f minimum after warm-up%n",
+          orders, elapsed, orders / elapsed, steady.get(steady.size() / 2), steady.get(0));
+      System.out.printf("no driver %.2f%% (%,d), duplicates %,d, rejected %,d, %,d deliveries pending%n",
+          100.0 * noDriver.sum() / Math.max(1, orders), noDriver.sum(), duplicates.sum(), rejected.sum(), Main.pendingDeliveries());
+      System.out.printf("heap after GC %.1f MB first, %.1f MB last (%+.1f MB/min); %d GCs, %d ms in GC, longest %d ms%n",
+          firstHeap / 1e6, lastHeap / 1e6, (lastHeap - firstHeap) / 1e6 / (elapsed / 60), totalGcs, totalGcMillis, longestGc);
+    } finally {
+      Main.stop();
+      if (temporary) {
+        delete(directory);
+      }
+    }
+  }
+
+  // Places one order line the way a bulk run does
+  private static void order(String line) throws IOException {
+    Order order;
+    try {
+      order = BulkOrderReader.parseOrder(line);
+    } catch (InvalidInputException e) {
+      ("restaurantLocation".equals(e.getField()) ? noDriver : rejected).increment();
+      return;
+    }
+    DispatchResult result = Main.dispatchOrder(order);
+    (result.isDuplicate() ? duplicates : result.isDispatched() ? dispatched : noDriver).increment();
+  }
+
+  // Collects the time in each collection and the heap left after it from the collectors' notifications
+  private static void listenForGc() {
+    Set<String> heapPools = new HashSet<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        heapPools.add(pool.getName());
+      }
+    }
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+          return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+          if (heapPools.contains(pool.getKey())) {
+            used += pool.getValue().getUsed();
+          }
+        }
+        synchronized (SoakTest.class) {
+          gcCount++;
+          gcMillis += info.getGcInfo().getDuration();
+          gcMaxMillis = Math.max(gcMaxMillis, info.getGcInfo().getDuration());
+          heapAfterGc = used;
+        }
+      }, null, null);
+    }
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+}
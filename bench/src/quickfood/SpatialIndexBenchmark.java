@@ -0,0 +1,157 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+//Compares SpatialIndex with a brute-force scan for nearest-point and radius queries over 1M points
+//spread across South Africa, checking that both give the same answers, then times nearby dispatch
+//end to end: orders from locations without drivers claiming through DriverRoster
+public class SpatialIndexBenchmark {
+  private static final int POINTS = 1_000_000;
+  private static final int QUERIES = 10_000;
+  private static final int SCANS = 20; // The brute-force scan is slow enough that a few runs show its cost
+  private static final double RADIUS_KM = 5;
+  private static final int LOCATIONS = 20_000;
+  private static final int DRIVERS = 1_000_000;
+
+  public static void main(String[] args) throws IOException, DriverNotFoundException {
+    int points = args.length > 0 ? Integer.parseInt(args[0]) : POINTS;
+    Random random = new Random(42);
+    int[] ids = new int[points];
+    double[] latitudes = new double[points];
+    double[] longitudes = new double[points];
+    for (int i = 0; i < points; i++) {
+      ids[i] = i;
+      latitudes[i] = latitude(random);
+      longitudes[i] = longitude(random);
+    }
+    long start = System.nanoTime();
+    SpatialIndex index = new SpatialIndex(ids, latitudes, longitudes);
+    System.out.printf("built index of %,d points in %.0f ms%n", index.size(), (System.nanoTime() - start) / 1e6);
+
+    double[] queryLatitudes = new double[QUERIES];
+    double[] queryLongitudes = new double[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      queryLatitudes[i] = latitude(random);
+      queryLongitudes[i] = longitude(random);
+    }
+
+    for (int i = 0; i < SCANS; i++) {
+      int expected = scanNearest(latitudes, longitudes, queryLatitudes[i], queryLongitudes[i]);
+      int found = index.nearest(queryLatitudes[i], queryLongitudes[i], Double.MAX_VALUE);
+      double a = SpatialIndex.distanceKm(queryLatitudes[i], queryLongitudes[i], latitudes[expected], longitudes[expected]);
+      double b = SpatialIndex.distanceKm(queryLatitudes[i], queryLongitudes[i], latitudes[found], longitudes[found]);
+      if (Math.abs(a - b) > 1e-9) {
+        throw new AssertionError("Nearest point differs for query " + i);
+      }
+      int[] count = new int[1];
+      index.within(queryLatitudes[i], queryLongitudes[i], RADIUS_KM, (id, km) -> count[0]++);
+      if (count[0] != scanWithin(latitudes, longitudes, queryLatitudes[i], queryLongitudes[i], RADIUS_KM)) {
+        throw new AssertionError("Points within radius differ for query " + i);
+      }
+    }
+
+    for (int run = 0; run < 3; run++) {
+      start = System.nanoTime();
+      long sum = 0;
+      for (int i = 0; i < SCANS; i++) {
+        sum += scanNearest(latitudes, longitudes, queryLatitudes[i], queryLongitudes[i]);
+      }
+      report("brute force nearest", System.nanoTime() - start, SCANS, sum);
+
+      start = System.nanoTime();
+      sum = 0;
+      for (int i = 0; i < QUERIES; i++) {
+        sum += index.nearest(queryLatitudes[i], queryLongitudes[i], Double.MAX_VALUE);
+      }
+      report("k-d tree nearest", System.nanoTime() - start, QUERIES, sum);
+
+      start = System.nanoTime();
+      sum = 0;
+      for (int i = 0; i < SCANS; i++) {
+        sum += scanWithin(latitudes, longitudes, queryLatitudes[i], queryLongitudes[i], RADIUS_KM);
+      }
+      report("brute force within " + RADIUS_KM + " km", System.nanoTime() - start, SCANS, sum);
+
+      start = System.nanoTime();
+      long[] found = new long[1];
+      for (int i = 0; i < QUERIES; i++) {
+        index.within(queryLatitudes[i], queryLongitudes[i], RADIUS_KM, (id, km) -> found[0]++);
+      }
+      report("k-d tree within " + RADIUS_KM + " km", System.nanoTime() - start, QUERIES, found[0]);
+    }
+
+    dispatchNearby(random);
+  }
+
+  // Half the locations have drivers; every order comes from one of the other half
+  private static void dispatchNearby(Random random) throws IOException, DriverNotFoundException {
+    Path file = Files.createTempFile("locations", ".txt");
+    try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+      for (int i = 0; i < LOCATIONS; i++) {
+        writer.write(SyntheticData.location(i) + ", " + latitude(random) + ", " + longitude(random));
+        writer.newLine();
+      }
+    }
+    LocationCoordinates coordinates = LocationCoordinates.load(file);
+    Files.delete(file);
+    List<Driver> drivers = SyntheticData.drivers(DRIVERS, LOCATIONS / 2, 42);
+    DriverRoster roster = DriverRoster.of(drivers, coordinates);
+    int[] orders = new int[QUERIES * 10];
+    for (int i = 0; i < orders.length; i++) {
+      orders[i] = LocationRegistry.lookup(SyntheticData.location(LOCATIONS / 2 + random.nextInt(LOCATIONS / 2)));
+    }
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      int missed = 0;
+      for (int location : orders) {
+        try {
+          roster.claim(location, 50);
+        } catch (DriverNotFoundException e) {
+          missed++;
+        }
+      }
+      report("nearby claim, " + DRIVERS / 1000 + "k drivers", System.nanoTime() - start, orders.length, missed);
+    }
+  }
+
+  private static void report(String name, long nanos, int queries, long check) {
+    System.out.printf("%-28s %12.2f us/query (%d)%n", name, nanos / 1e3 / queries, check);
+  }
+
+  private static int scanNearest(double[] latitudes, double[] longitudes, double latitude, double longitude) {
+    int best = -1;
+    double bestKm = Double.MAX_VALUE;
+    for (int i = 0; i < latitudes.length; i++) {
+      double km = SpatialIndex.distanceKm(latitude, longitude, latitudes[i], longitudes[i]);
+      if (km < bestKm) {
+        bestKm = km;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private static int scanWithin(double[] latitudes, double[] longitudes, double latitude, double longitude, double radiusKm) {
+    int count = 0;
+    for (int i = 0; i < latitudes.length; i++) {
+      if (SpatialIndex.distanceKm(latitude, longitude, latitudes[i], longitudes[i]) <= radiusKm) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // South Africa's bounding box
+  private static double latitude(Random random) {
+    return -34.8 + random.nextDouble() * 12.7;
+  }
+
+  private static double longitude(Random random) {
+    return 16.5 + random.nextDouble() * 16.4;
+  }
+}
@@ -0,0 +1,150 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*Startup benchmark: measures cold start to first order, from launching a JVM to Main placing its
+  first bulk order, with the driver roster read from text or from its binary snapshot, and with and
+  without an AppCDS archive of the classes the order path loads.
+    java -cp bench/target/benchmarks.jar quickfood.StartupBenchmark [--option value ...]
+  Besides the WorkloadGenerator options (--drivers sets the roster size) it takes:
+    --runs 5            launches per configuration; the median is reported
+    --dir <temp>        where the roster, snapshot, archive and orders go; a temporary directory is deleted afterwards
+    --archive <file>    only make the AppCDS archive, by a training run, and write it there
+
+  The training run is Main --bulk over a few thousand orders started with
+  -XX:ArchiveClassesAtExit, which archives every class loaded by the end of the run. Deploy the
+  archive with the jar it was made from and start Main with -XX:SharedArchiveFile=<archive>; a JVM
+  given an archive that does not match its classpath or version ignores it with a warning.
+
+  Each launch runs Main over one order line, with the journal and invoices of earlier launches
+  removed, and reports the time Main records for the first order, so JVM exit is left out. The
+  file cache is warm after the first launch, as it is when instances are added on a host that
+  already runs one.
+*/
+public class StartupBenchmark {
+  private static final int TRAINING_ORDERS = 5_000;
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = WorkloadGenerator.options(args);
+    WorkloadGenerator workload = new WorkloadGenerator(options);
+    int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+    boolean temporary = !options.containsKey("dir");
+    Path directory = temporary ? Files.createTempDirectory("startup") : Files.createDirectories(Path.of(options.get("dir")));
+    String classpath = Path.of(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    try {
+      Path roster = directory.resolve("driver-info.txt");
+      workload.writeDrivers(roster);
+      Path training = directory.resolve("training.csv");
+      workload.writeOrders(training, TRAINING_ORDERS);
+      Path archive = options.containsKey("archive") ? Path.of(options.get("archive")).toAbsolutePath() : directory.resolve("quickfood.jsa");
+      train(directory, classpath, archive);
+      System.out.printf("AppCDS archive %s, %.1f MB, from %s%n", archive, Files.size(archive) / 1e6, classpath);
+      if (options.containsKey("archive")) {
+        return;
+      }
+      System.out.printf("%,d drivers, %.1f MB driver file%n", Files.readAllLines(roster).size(), Files.size(roster) / 1e6);
+
+      Path order = directory.resolve("order.csv");
+      try (BufferedWriter writer = Files.newBufferedWriter(order)) {
+        StringBuilder line = new StringBuilder();
+        workload.orderLine(0, line);
+        writer.write(line.toString());
+        writer.newLine();
+      }
+      System.out.printf("%-22s %16s %14s%n", "", "first order ms", "load drivers ms");
+      measure(directory, classpath, "text", runs, "-Dquickfood.drivers.snapshot=false");
+      measure(directory, classpath, "snapshot", runs, "-Dquickfood.drivers.snapshot=true");
+      measure(directory, classpath, "text + AppCDS", runs, "-Dquickfood.drivers.snapshot=false", "-XX:SharedArchiveFile=" + archive);
+      measure(directory, classpath, "snapshot + AppCDS", runs, "-Dquickfood.drivers.snapshot=true", "-XX:SharedArchiveFile=" + archive);
+    } finally {
+      if (temporary) {
+        delete(directory);
+      }
+    }
+  }
+
+  // Runs Main over the training orders and archives the classes it loaded
+  private static void train(Path directory, String classpath, Path archive) throws IOException, InterruptedException {
+    clean(directory);
+    int exit = launch(directory, classpath, ProcessBuilder.Redirect.DISCARD, "-XX:ArchiveClassesAtExit=" + archive, "--bulk", "training.csv");
+    if (exit != 0 || !Files.exists(archive)) {
+      throw new IOException("Training run failed with exit code " + exit);
+    }
+  }
+
+  private static void measure(Path directory, String classpath, String label, int runs, String... jvmOptions)
+      throws IOException, InterruptedException {
+    long[] firstOrder = new long[runs];
+    double[] loadDrivers = new double[runs];
+    for (int i = -1; i < runs; i++) { // The first launch warms the file cache and writes the snapshot
+      clean(directory);
+      List<String> arguments = new ArrayList<>(Arrays.asList(jvmOptions));
+      arguments.add("-Dquickfood.metrics.file=metrics.txt");
+      arguments.addAll(List.of("--bulk", "order.csv"));
+      long launched = System.currentTimeMillis();
+      int exit = launch(directory, classpath, ProcessBuilder.Redirect.INHERIT, arguments.toArray(new String[0]));
+      if (exit != 0) {
+        throw new IOException(label + " run failed with exit code " + exit);
+      }
+      if (i < 0) {
+        continue;
+      }
+      for (String line : Files.readAllLines(directory.resolve("metrics.txt"))) {
+        if (line.startsWith("orders.firstAtMillis ")) {
+          firstOrder[i] = Long.parseLong(line.substring(line.indexOf(' ') + 1)) - launched;
+        } else if (line.startsWith("latency.loadDrivers ")) {
+          String mean = line.substring(line.indexOf("mean=") + 5);
+          loadDrivers[i] = Long.parseLong(mean.substring(0, mean.indexOf("ns"))) / 1e6;
+        }
+      }
+    }
+    Arrays.sort(firstOrder);
+    Arrays.sort(loadDrivers);
+    System.out.printf("%-22s %16d %14.1f%n", label, firstOrder[runs / 2], loadDrivers[runs / 2]);
+  }
+
+  // Removes what an earlier launch left in the working directory, keeping the roster and its snapshot
+  private static void clean(Path directory) throws IOException {
+    for (String name : List.of("journal", "invoices", "metrics.txt")) {
+      Path path = directory.resolve(name);
+      if (Files.exists(path)) {
+        delete(path);
+      }
+    }
+  }
+
+  // Runs Main in a new JVM, passing the leading arguments that start with '-' to the JVM
+  private static int launch(Path directory, String classpath, ProcessBuilder.Redirect errors, String... arguments)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(classpath);
+    int main = 0;
+    while (main < arguments.length && arguments[main].startsWith("-") && !arguments[main].equals("--bulk")) {
+      command.add(arguments[main++]);
+    }
+    command.add("quickfood.Main");
+    command.addAll(Arrays.asList(arguments).subList(main, arguments.length));
+    Process process = new ProcessBuilder(command).directory(directory.toFile())
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(errors).start();
+    return process.waitFor();
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+}
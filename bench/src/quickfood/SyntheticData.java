@@ -0,0 +1,137 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//Seeded generators for benchmark data; the same arguments always produce the same data
+public class SyntheticData {
+  static final String[] FIRST_NAMES = {"Jane", "Sipho", "Julie", "Karol", "Thandi", "Pieter", "Aisha", "Lerato"};
+  static final String[] LAST_NAMES = {"Doe", "Nkosi", "Carty", "Dunn", "Mokoena", "Botha", "Khan", "Dlamini"};
+  static final String[] MEALS = {"Margherita", "Bunny Chow", "Cola", "Boerewors Roll", "Salad", "Burger"};
+  static final String[] RESTAURANTS = {"Pizza Palace", "Curry Corner", "Burger Barn", "The Grill", "Sushi Bar"};
+
+  /**
+   * Returns the name of a synthetic location. Names use letters only so that they pass validation.
+   * @param index the location number.
+   * @return the location name, e.g. "City A" for 0 and "City Ac" for 28.
+   */
+  public static String location(int index) {
+    StringBuilder name = new StringBuilder();
+    do {
+      name.insert(0, (char) ('a' + index % 26));
+      index = index / 26 - 1;
+    } while (index >= 0);
+    name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+    return "City " + name;
+  }
+
+  /**
+   * Generates a roster of drivers spread uniformly over the given number of locations.
+   * @param count the number of drivers.
+   * @param locations the number of distinct locations.
+   * @param seed the random seed.
+   * @return the drivers in roster order.
+   */
+  public static List<Driver> drivers(int count, int locations, long seed) {
+    Random random = new Random(seed);
+    List<Driver> drivers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      drivers.add(new Driver("Driver " + i, location(random.nextInt(locations)), random.nextInt(20)));
+    }
+    return drivers;
+  }
+
+  /**
+   * Generates the restaurant locations of a stream of orders, in lower case as a user might type them.
+   * @param count the number of orders.
+   * @param locations the number of distinct locations.
+   * @param seed the random seed.
+   * @return one location per order.
+   */
+  public static String[] orderLocations(int count, int locations, long seed) {
+    Random random = new Random(seed);
+    String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = location(random.nextInt(locations)).toLowerCase();
+    }
+    return result;
+  }
+
+  /**
+   * Writes a roster in the "name, location, load" format of driver-info.txt.
+   * @param file the file to write.
+   * @param lines the number of drivers to write.
+   * @param locations the number of distinct locations.
+   * @param seed the random seed.
+   * @throws IOException if an error occurs while writing the file.
+   */
+  public static void writeRoster(Path file, int lines, int locations, long seed) throws IOException {
+    Random random = new Random(seed);
+    try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+      for (int i = 0; i < lines; i++) {
+        writer.write(name(random) + " " + i + ", " + location(random.nextInt(locations)) + ", " + random.nextInt(20));
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Generates valid customer fields: name, contact number, address, location and email.
+   * @param count the number of customers.
+   * @param locations the number of distinct locations.
+   * @param seed the random seed.
+   * @return one array of five fields per customer.
+   */
+  public static String[][] customerFields(int count, int locations, long seed) {
+    Random random = new Random(seed);
+    String[][] customers = new String[count][];
+    for (int i = 0; i < count; i++) {
+      String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+      String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+      customers[i] = new String[] {
+        first + " " + last,
+        "08" + (10_000_000 + random.nextInt(90_000_000)),
+        (1 + random.nextInt(200)) + " Long Street",
+        location(random.nextInt(locations)),
+        first.toLowerCase() + "." + last.toLowerCase() + i + "@example.com"
+      };
+    }
+    return customers;
+  }
+
+  /**
+   * Generates complete orders with one to four meals each.
+   * @param count the number of orders.
+   * @param locations the number of distinct locations.
+   * @param seed the random seed.
+   * @return the orders, numbered from 1.
+   */
+  public static Order[] orders(int count, int locations, long seed) {
+    Random random = new Random(seed);
+    String[][] customers = customerFields(count, locations, seed);
+    Order[] orders = new Order[count];
+    for (int i = 0; i < count; i++) {
+      String[] c = customers[i];
+      Customer customer = Customer.fromValidatedFields(i + 1, c[0], c[1], c[2], c[3], c[4]);
+      Restaurant restaurant = new Restaurant(RESTAURANTS[random.nextInt(RESTAURANTS.length)], location(random.nextInt(locations)), "021555" + random.nextInt(10_000));
+      int mealCount = 1 + random.nextInt(4);
+      OrderLines lines = new OrderLines(mealCount);
+      for (int m = 0; m < mealCount; m++) {
+        int quantity = 1 + random.nextInt(3);
+        long priceCents = 500 + random.nextInt(20_000);
+        lines.add(MEALS[random.nextInt(MEALS.length)], quantity, priceCents);
+      }
+      orders[i] = new Order(customer, restaurant, lines, "Ring the bell");
+    }
+    return orders;
+  }
+
+  private static String name(Random random) {
+    return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+  }
+}
@@ -0,0 +1,215 @@
+package quickfood;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/*Seeded generator of production-sized workloads: a driver-info.txt roster and a stream of bulk
+  order lines. The same options always produce the same files, byte for byte. Run it as
+    java -cp bench/target/benchmarks.jar quickfood.WorkloadGenerator --out dir [--option value ...]
+  to write dir/driver-info.txt and dir/orders.csv for Main --bulk, or use it from SoakTest.
+
+  Options and defaults:
+    --seed 42           random seed
+    --cities 500        locations, "City A", "City B", ...; demand falls off with rank as a Zipf law
+    --citySkew 1.0      Zipf exponent of demand per city; 0 spreads orders evenly
+    --coverage 0.95     share of cities, busiest first, that have drivers; orders elsewhere find none
+    --drivers 100000    drivers, shared among the covered cities in proportion to their demand
+    --maxLoad 20        initial driver loads are uniform from 0 to maxLoad - 1
+    --customers 2000000 distinct customers; each lives in a city drawn from the same Zipf law
+    --customerSkew 2.0  how strongly orders favour repeat customers; 1 picks customers uniformly
+    --localShare 0.9    share of orders placed at a restaurant in the customer's own city
+    --maxMeals 4        meals per order are uniform from 1 to maxMeals
+    --orders 1000000    order lines written by main
+
+  Customers and orders are not stored: customer i and order n are each generated from a random
+  stream seeded by the seed and their number, so millions of customers cost no memory and any
+  thread can produce any order of the stream.
+*/
+public class WorkloadGenerator {
+  private static final long CUSTOMER_STREAM = 0x5DEECE66DL;
+  private static final long ORDER_STREAM = 0xB5AD4ECEDA1CE2A9L;
+
+  private final long seed;
+  private final int cities;
+  private final double[] demand; // Cumulative Zipf weights of the cities, by rank
+  private final int covered;
+  private final int drivers;
+  private final int maxLoad;
+  private final long customers;
+  private final double customerSkew;
+  private final double localShare;
+  private final int maxMeals;
+
+  /**
+   * Creates a generator from command line options, using the defaults above for those not given.
+   * @param options the options by name, without the leading dashes.
+   */
+  public WorkloadGenerator(Map<String, String> options) {
+    this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+    this.cities = Integer.parseInt(options.getOrDefault("cities", "500"));
+    double citySkew = Double.parseDouble(options.getOrDefault("citySkew", "1.0"));
+    this.covered = (int) Math.ceil(cities * Double.parseDouble(options.getOrDefault("coverage", "0.95")));
+    this.drivers = Integer.parseInt(options.getOrDefault("drivers", "100000"));
+    this.maxLoad = Integer.parseInt(options.getOrDefault("maxLoad", "20"));
+    this.customers = Long.parseLong(options.getOrDefault("customers", "2000000"));
+    this.customerSkew = Double.parseDouble(options.getOrDefault("customerSkew", "2.0"));
+    this.localShare = Double.parseDouble(options.getOrDefault("localShare", "0.9"));
+    this.maxMeals = Integer.parseInt(options.getOrDefault("maxMeals", "4"));
+    if (cities < 1 || covered > cities || drivers < covered || maxLoad < 1 || customers < 1 || maxMeals < 1) {
+      throw new IllegalArgumentException("Need at least one city, customer and meal, and a driver per covered city");
+    }
+    demand = new double[cities];
+    double total = 0;
+    for (int rank = 0; rank < cities; rank++) {
+      total += Math.pow(rank + 1, -citySkew);
+      demand[rank] = total;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = options(args);
+    if (!options.containsKey("out")) {
+      System.err.println("Usage: WorkloadGenerator --out <directory> [--option value ...]");
+      return;
+    }
+    WorkloadGenerator generator = new WorkloadGenerator(options);
+    Path directory = Files.createDirectories(Path.of(options.get("out")));
+    long orders = Long.parseLong(options.getOrDefault("orders", "1000000"));
+    long start = System.nanoTime();
+    generator.writeDrivers(directory.resolve("driver-info.txt"));
+    generator.writeOrders(directory.resolve("orders.csv"), orders);
+    System.out.printf("Wrote %,d drivers and %,d orders to %s in %.1f s; %.1f%% of orders are in cities without drivers%n",
+        generator.drivers, orders, directory, (System.nanoTime() - start) / 1e9, 100 * generator.uncoveredShare());
+  }
+
+  /**
+   * Parses "--name value" pairs.
+   * @param args the command line.
+   * @return the values by name, without the leading dashes.
+   */
+  public static Map<String, String> options(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--") || i + 1 == args.length) {
+        throw new IllegalArgumentException("Expected --name value but got '" + args[i] + "'");
+      }
+      options.put(args[i].substring(2), args[++i]);
+    }
+    return options;
+  }
+
+  /**
+   * Writes the roster in the "name, location, load" format of driver-info.txt. Each covered city
+   * gets at least one driver and otherwise a share of the drivers in proportion to its demand.
+   * @param file the file to write.
+   * @throws IOException if an error occurs while writing the file.
+   */
+  public void writeDrivers(Path file) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed);
+    int[] counts = new int[covered];
+    Arrays.fill(counts, 1);
+    int assigned = covered;
+    for (int rank = 0; rank < covered; rank++) {
+      int share = (int) ((drivers - covered) * weight(rank) / demand[covered - 1]);
+      counts[rank] += share;
+      assigned += share;
+    }
+    counts[0] += drivers - assigned; // Rounding leftovers go to the busiest city
+    try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+      int number = 0;
+      for (int rank = 0; rank < covered; rank++) {
+        String city = SyntheticData.location(rank);
+        for (int i = 0; i < counts[rank]; i++) {
+          writer.write(pick(random, SyntheticData.FIRST_NAMES) + " " + pick(random, SyntheticData.LAST_NAMES) + " " + number++
+              + ", " + city + ", " + random.nextInt(maxLoad));
+          writer.newLine();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the first orders of the stream as a bulk order file.
+   * @param file the file to write.
+   * @param count the number of orders.
+   * @throws IOException if an error occurs while writing the file.
+   */
+  public void writeOrders(Path file, long count) throws IOException {
+    StringBuilder line = new StringBuilder(256);
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (long n = 0; n < count; n++) {
+        line.setLength(0);
+        orderLine(n, line);
+        writer.append(line);
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Appends order n of the stream as a bulk order line, numbered n + 1.
+   * @param n the position of the order in the stream, from 0.
+   * @param line the builder to append to.
+   */
+  public void orderLine(long n, StringBuilder line) {
+    SplittableRandom random = new SplittableRandom(mix(seed ^ ORDER_STREAM, n));
+    // u^skew crowds the draws towards the low customer numbers, which then order again and again
+    long customer = Math.min(customers - 1, (long) (customers * Math.pow(random.nextDouble(), customerSkew)));
+    SplittableRandom person = new SplittableRandom(mix(seed ^ CUSTOMER_STREAM, customer));
+    String first = pick(person, SyntheticData.FIRST_NAMES);
+    String last = pick(person, SyntheticData.LAST_NAMES);
+    int home = city(person);
+    int restaurant = random.nextDouble() < localShare ? home : city(random);
+    int chain = random.nextInt(SyntheticData.RESTAURANTS.length);
+    line.append((int) (n + 1)).append(',')
+        .append(first).append(' ').append(last).append(',')
+        .append("08").append(10_000_000 + person.nextInt(90_000_000)).append(',')
+        .append(1 + person.nextInt(200)).append(" Long Street,")
+        .append(SyntheticData.location(home)).append(',')
+        .append(first.toLowerCase()).append('.').append(last.toLowerCase()).append(customer).append("@example.com,")
+        .append(SyntheticData.RESTAURANTS[chain]).append(',')
+        .append(SyntheticData.location(restaurant)).append(',')
+        .append("021").append(1_000_000 + Math.floorMod(mix(chain, restaurant), 9_000_000)).append(',') // Fixed per branch
+        .append("Ring the bell,");
+    int meals = 1 + random.nextInt(maxMeals);
+    for (int m = 0; m < meals; m++) {
+      int cents = 500 + random.nextInt(20_000);
+      line.append(m > 0 ? ";" : "").append(pick(random, SyntheticData.MEALS)).append(':').append(1 + random.nextInt(3)).append(':')
+          .append(cents / 100).append('.').append(cents % 100 < 10 ? "0" : "").append(cents % 100);
+    }
+  }
+
+  // Returns the share of orders whose restaurant is in a city without drivers
+  public double uncoveredShare() {
+    return covered == cities ? 0 : 1 - demand[covered - 1] / demand[cities - 1];
+  }
+
+  private double weight(int rank) {
+    return rank == 0 ? demand[0] : demand[rank] - demand[rank - 1];
+  }
+
+  // Draws a city rank by demand
+  private int city(SplittableRandom random) {
+    int rank = Arrays.binarySearch(demand, random.nextDouble() * demand[cities - 1]);
+    return Math.min(cities - 1, rank >= 0 ? rank : -rank - 1);
+  }
+
+  private static String pick(SplittableRandom random, String[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  // Stafford's variant 13 of the MurmurHash3 finalizer, so that neighbouring numbers get unrelated streams
+  private static long mix(long seed, long n) {
+    long z = seed + n * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
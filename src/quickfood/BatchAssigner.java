@@ -0,0 +1,210 @@
+package quickfood;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*BatchAssigner decides which location's drivers take each order of a batch, balancing load.
+  An order at a location with drivers must go to them. An order at a location without drivers may
+  go to any location with drivers within the dispatch radius, and that choice is what a batch can
+  improve: greedy dispatch sends it to the least loaded nearby location at the time, not knowing
+  that the next orders in the surge are bound to that same location.
+
+  Within a location the drivers are interchangeable, so each location is modelled as the sequence
+  of loads its least loaded driver has as orders are added one at a time. The flexible orders are
+  placed greedily and then moved along augmenting paths (order o1 moves from A to B, o2 from B to C,
+  ...) while that lowers the highest load, until no path improves. Each unit of load then sits as
+  low as it can, which minimizes the maximum driver load and the sum of squared loads together; the
+  total load is the same whatever the assignment.
+*/
+final class BatchAssigner {
+  private BatchAssigner() {
+  }
+
+  /**
+   * Chooses a location for every order in a batch.
+   * @param roster the roster the orders will be claimed from.
+   * @param locationIds the LocationRegistry ID of the restaurant location of each order.
+   * @param radiusKm how far away drivers may be for an order at a location without drivers.
+   * @return the location to claim a driver from for each order, or LocationRegistry.UNKNOWN if none.
+   */
+  static int[] assign(DriverRoster roster, int[] locationIds, double radiusKm) {
+    DriverIndex index = roster.getIndex();
+    int n = locationIds.length;
+    int[] assigned = new int[n];
+    int[][] candidates = new int[n][];
+    Map<Integer, Location> locations = new HashMap<>();
+
+    // Orders at served locations are fixed; the others collect the served locations nearby
+    List<Integer> flexible = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      int id = locationIds[i];
+      assigned[i] = LocationRegistry.UNKNOWN;
+      if (index.peek(id) != null) {
+        Location location = locations.computeIfAbsent(id, Location::new);
+        location.bound++;
+        location.count++;
+        assigned[i] = id;
+        continue;
+      }
+      candidates[i] = nearby(roster, index, id, radiusKm);
+      for (int candidate : candidates[i]) {
+        locations.computeIfAbsent(candidate, Location::new).bound++;
+      }
+      if (candidates[i].length > 0) {
+        flexible.add(i);
+      }
+    }
+    for (Location location : locations.values()) {
+      location.start(index.lowestLoads(location.id, location.bound));
+    }
+
+    // Greedy start: each flexible order to the candidate whose next driver is least loaded, nearest first on ties
+    for (int i : flexible) {
+      Location best = null;
+      for (int candidate : candidates[i]) {
+        Location location = locations.get(candidate);
+        if (best == null || location.next() < best.next()) {
+          best = location;
+        }
+      }
+      best.count++;
+      best.orders.add(i);
+      assigned[i] = best.id;
+    }
+
+    // Move orders off the most loaded locations until no augmenting path helps
+    boolean improved = !flexible.isEmpty();
+    while (improved) {
+      improved = false;
+      List<Location> sources = new ArrayList<>();
+      for (Location location : locations.values()) {
+        if (!location.orders.isEmpty()) {
+          sources.add(location);
+        }
+      }
+      sources.sort((a, b) -> Integer.compare(b.top(), a.top()));
+      for (Location source : sources) {
+        if (augment(source, locations, candidates, assigned)) {
+          improved = true;
+          break;
+        }
+      }
+    }
+    return assigned;
+  }
+
+  // Served locations within the radius, nearest first
+  private static int[] nearby(DriverRoster roster, DriverIndex index, int locationId, double radiusKm) {
+    List<double[]> found = new ArrayList<>();
+    roster.nearby(locationId, radiusKm, (id, km) -> {
+      if (index.peek(id) != null) {
+        found.add(new double[] {km, id});
+      }
+    });
+    found.sort((a, b) -> Double.compare(a[0], b[0]));
+    int[] ids = new int[found.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = (int) found.get(i)[1];
+    }
+    return ids;
+  }
+
+  /**
+   * Looks for a chain of moves that takes one order off the source and adds one to a location whose
+   * next driver would end up less loaded than the source's last one, and applies it.
+   * @return whether a chain was found.
+   */
+  private static boolean augment(Location source, Map<Integer, Location> locations, int[][] candidates, int[] assigned) {
+    int limit = source.top() - 1;
+    Map<Location, Integer> via = new HashMap<>(); // The order that moves into each reached location
+    Map<Location, Location> from = new HashMap<>();
+    ArrayDeque<Location> queue = new ArrayDeque<>();
+    via.put(source, -1);
+    queue.add(source);
+    while (!queue.isEmpty()) {
+      Location location = queue.poll();
+      for (int order : location.orders) {
+        for (int candidate : candidates[order]) {
+          Location target = locations.get(candidate);
+          if (via.containsKey(target)) {
+            continue;
+          }
+          via.put(target, order);
+          from.put(target, location);
+          if (target.next() < limit) {
+            source.count--;
+            target.count++;
+            for (Location to = target; to != source; to = from.get(to)) {
+              Integer moved = via.get(to);
+              from.get(to).orders.remove(moved);
+              to.orders.add(moved);
+              assigned[moved] = to.id;
+            }
+            return true;
+          }
+          queue.add(target);
+        }
+      }
+    }
+    return false;
+  }
+
+  // A served location: the loads its drivers would have as orders are added there one at a time
+  private static final class Location {
+    final int id;
+    final List<Integer> orders = new ArrayList<>(); // Flexible orders assigned here
+    int bound; // Most orders the batch can assign here
+    int count; // Orders assigned here
+    private int[] loads; // Min-heap of the lowest driver loads
+    private int[] added; // added[k] is the load of the driver that takes the (k + 1)th order
+    private int known;
+
+    Location(int id) {
+      this.id = id;
+    }
+
+    void start(int[] lowest) {
+      loads = lowest; // Ascending order is a valid heap
+      added = new int[bound];
+    }
+
+    // The load of the driver that would take one more order
+    int next() {
+      return added(count);
+    }
+
+    // The load of the driver that took the last order, after taking it
+    int top() {
+      return added(count - 1) + 1;
+    }
+
+    private int added(int k) {
+      while (known <= k) {
+        added[known++] = loads[0]++;
+        siftDown();
+      }
+      return added[k];
+    }
+
+    private void siftDown() {
+      int i = 0;
+      while (true) {
+        int left = 2 * i + 1;
+        if (left >= loads.length) {
+          return;
+        }
+        int smallest = left + 1 < loads.length && loads[left + 1] < loads[left] ? left + 1 : left;
+        if (loads[smallest] >= loads[i]) {
+          return;
+        }
+        int t = loads[i];
+        loads[i] = loads[smallest];
+        loads[smallest] = t;
+        i = smallest;
+      }
+    }
+  }
+}
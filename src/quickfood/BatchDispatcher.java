@@ -0,0 +1,214 @@
+package quickfood;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+//BatchDispatcher collects orders for a short window and assigns drivers to the whole batch at once
+//on a background thread, using BatchAssigner to spread the load, instead of claiming greedily per order.
+//Each order waits for its batch, so this trades up to one window of latency for more even loads.
+//Every submitted order's future completes: a batch that fails fails its orders, not the thread,
+//and orders still queued when the thread stops fail too.
+public class BatchDispatcher implements AutoCloseable {
+
+  // Records the outcome of a dispatched order: journals it and writes its invoice
+  public interface Completion {
+    void complete(Order order, Driver driver) throws IOException;
+  }
+
+  // An order waiting for its batch
+  private static final class Pending {
+    final Order order;
+    final CompletableFuture<Driver> result = new CompletableFuture<>();
+
+    Pending(Order order) {
+      this.order = order;
+    }
+  }
+
+  // Queued by close(), compared by identity
+  private static final Pending CLOSE = new Pending(null);
+
+  private final BlockingQueue<Pending> queue;
+  private final Supplier<DriverRoster> roster;
+  private final double radiusKm;
+  private final long windowNanos;
+  private final int maxOrders;
+  private final Completion completion;
+  private final Thread thread;
+  // Held to read by submit() from its check of closed until its order is queued, and to write by close()
+  private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+  private volatile boolean closed;
+  private volatile boolean stopped; // Set when the background thread exits, before it drains the queue
+
+  /**
+   * Starts the background dispatcher.
+   * @param roster supplies the current roster when a batch is assigned.
+   * @param radiusKm how far away drivers may be for an order at a location without drivers.
+   * @param windowMillis the longest time the first order of a batch waits for more orders.
+   * @param maxOrders the number of orders that closes a batch before the window ends.
+   * @param completion records each order once a driver has been assigned, or none could be.
+   */
+  public BatchDispatcher(Supplier<DriverRoster> roster, double radiusKm, long windowMillis, int maxOrders, Completion completion) {
+    this.queue = new ArrayBlockingQueue<>(4 * maxOrders);
+    this.roster = roster;
+    this.radiusKm = radiusKm;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxOrders = maxOrders;
+    this.completion = completion;
+    this.thread = new Thread(this::run, "batch-dispatcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues an order for the next batch. Blocks while four batches are already waiting.
+   * @param order the order to dispatch.
+   * @return completes with the assigned driver, or null if no driver is available, once the order
+   *     has been recorded; completes exceptionally if recording it failed.
+   * @throws IOException if the dispatcher is closed.
+   */
+  public CompletableFuture<Driver> submit(Order order) throws IOException {
+    Pending pending = new Pending(order);
+    closing.readLock().lock();
+    try {
+      if (closed) {
+        throw new IOException("Batch dispatcher is closed");
+      }
+      queue.put(pending);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while queueing order");
+    } finally {
+      closing.readLock().unlock();
+    }
+    if (stopped && queue.remove(pending)) {
+      // Queued after the thread drained the queue on its way out
+      pending.result.completeExceptionally(new IOException("Batch dispatcher has stopped"));
+    }
+    return pending.result;
+  }
+
+  /**
+   * Waits for the result of a submitted order.
+   * @param result the future returned by submit, or one derived from it.
+   * @return the result: for submit, the assigned driver, or null if no driver is available.
+   * @throws IOException if recording the order failed.
+   */
+  public static <T> T await(CompletableFuture<T> result) throws IOException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for dispatch");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+  }
+
+  /**
+   * Dispatches every queued order and stops the background thread.
+   * Calling close more than once has no further effect.
+   * @throws IOException if interrupted while waiting for the last batch.
+   */
+  @Override
+  public void close() throws IOException {
+    closing.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true; // Every order queued before this is ahead of CLOSE
+    } finally {
+      closing.writeLock().unlock();
+    }
+    try {
+      queue.put(CLOSE);
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing batch dispatcher");
+    }
+  }
+
+  // Background loop: a batch starts with the first order and ends after the window or maxOrders orders
+  private void run() {
+    List<Pending> batch = new ArrayList<>();
+    try {
+      while (true) {
+        Pending first = queue.take();
+        if (first == CLOSE) {
+          return;
+        }
+        batch.add(first);
+        boolean last = false;
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxOrders) {
+          long wait = deadline - System.nanoTime();
+          Pending pending = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+          if (pending == null) {
+            break;
+          }
+          if (pending == CLOSE) {
+            last = true;
+            break;
+          }
+          batch.add(pending);
+        }
+        dispatch(batch);
+        batch.clear();
+        if (last) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      fail(batch, new InterruptedIOException("Batch dispatcher interrupted"));
+    } finally {
+      stopped = true;
+      List<Pending> left = new ArrayList<>();
+      queue.drainTo(left);
+      fail(left, new IOException("Batch dispatcher has stopped"));
+    }
+  }
+
+  private void dispatch(List<Pending> batch) {
+    try {
+      int[] locationIds = new int[batch.size()];
+      for (int i = 0; i < locationIds.length; i++) {
+        locationIds[i] = batch.get(i).order.getRestaurant().getLocationId();
+      }
+      Driver[] assigned = roster.get().claimBatch(locationIds, radiusKm);
+      for (int i = 0; i < assigned.length; i++) {
+        Pending pending = batch.get(i);
+        Driver driver = assigned[i];
+        try {
+          completion.complete(pending.order, driver);
+          pending.result.complete(driver);
+        } catch (IOException | RuntimeException e) {
+          pending.result.completeExceptionally(e);
+        }
+      }
+    } catch (Throwable e) {
+      // Whatever broke the batch fails the orders not yet completed and leaves the thread running
+      fail(batch, e);
+    }
+  }
+
+  // Completes every order not completed yet with the failure
+  private static void fail(List<Pending> pendings, Throwable failure) {
+    for (Pending pending : pendings) {
+      if (pending != CLOSE) {
+        pending.result.completeExceptionally(failure);
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package quickfood;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/*BulkOrderReader replays orders from a CSV file without prompting.
+  Each non-blank line that does not start with '#' holds one order:
+    orderNumber,customerName,contactNumber,address,location,email,
+    restaurantName,restaurantLocation,restaurantContactNumber,specialInstructions,meals
+  where meals is a ';' separated list of name:quantity:price entries, for example
+    1001,Jane Doe,0821234567,12 Long Street,Cape Town,jane@example.com,Pizza Palace,Cape Town,0215550000,Ring the bell,Margherita:2:89.5;Cola:1:15
+  The file is read one line at a time, so memory use does not grow with its size. A line whose
+  restaurant location no driver serves, or has ever served, is rejected like any other invalid line.
+*/
+public class BulkOrderReader {
+  static final int FIELD_COUNT = 11;
+  private static final String COMMENT = "#";
+
+  /**
+   * Reads every order in the file, dispatches it and writes its invoice.
+   * Malformed lines are reported with their line number and skipped.
+   * @param filename the name of the file containing the orders.
+   * @throws IOException if an error occurs while reading the orders or writing an invoice.
+   */
+  public static void processFile(String filename) throws IOException {
+    int[] counts = new int[3]; // Dispatched, no driver available and duplicate orders
+    int rejected = 0;
+    ArrayDeque<CompletableFuture<DispatchResult>> pending = new ArrayDeque<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isBlank() || line.startsWith(COMMENT)) {
+          continue;
+        }
+        Order order;
+        try {
+          order = parseOrder(line);
+        } catch (InvalidInputException e) {
+          Metrics.validationFailed(e.getField());
+          System.err.println("Line " + lineNumber + ": " + e.getMessage());
+          rejected++;
+          continue;
+        }
+        // Orders are not waited for one by one, so that in batch mode a batch can fill up
+        pending.add(Main.dispatchOrderAsync(order));
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+          count(BatchDispatcher.await(pending.poll()), counts);
+        }
+      }
+    }
+    while (!pending.isEmpty()) {
+      count(BatchDispatcher.await(pending.poll()), counts);
+    }
+    System.out.println("Orders dispatched: " + counts[0] + ", no driver available: " + counts[1]
+        + ", duplicates: " + counts[2] + ", rejected: " + rejected);
+  }
+
+  // A duplicate is counted on its own, not by the result it repeats, which was counted when it was first placed
+  private static void count(DispatchResult result, int[] counts) {
+    counts[result.isDuplicate() ? 2 : result.isDispatched() ? 0 : 1]++;
+  }
+
+  /**
+   * Parses and validates a single order line.
+   * @param line the line to parse.
+   * @return the order described by the line.
+   * @throws InvalidInputException if the line is malformed or a field is invalid.
+   */
+  public static Order parseOrder(String line) throws InvalidInputException {
+    return parseFields(line.split(",", -1));
+  }
+
+  /**
+   * Validates the fields of one order, given in the column order of the CSV format.
+   * Fields are trimmed in place.
+   * @param fields the order fields.
+   * @return the order described by the fields.
+   * @throws InvalidInputException if there are not 11 fields, a field is invalid, or the restaurant
+   *     location is not known to LocationRegistry.
+   */
+  public static Order parseFields(String[] fields) throws InvalidInputException {
+    if (fields.length != FIELD_COUNT) {
+      throw new InvalidInputException("Expected " + FIELD_COUNT + " fields but found " + fields.length + ".");
+    }
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = fields[i].trim();
+    }
+
+    int orderNumber = parseInt(fields[0], "orderNumber", "order number");
+    // Repeat customers and restaurants come from the profile cache, already validated
+    Customer customer = ProfileCache.customer(orderNumber, fields[1], fields[2], fields[3], fields[4], fields[5]);
+    if (customer == null) {
+      customer = new Customer(orderNumber, fields[1], fields[2], fields[3], fields[4], fields[5]);
+      ProfileCache.remember(customer);
+    }
+
+    Restaurant restaurant = ProfileCache.restaurant(fields[6], fields[7], fields[8]);
+    if (restaurant == null) {
+      if (!FieldValidator.isLetters(fields[6])) {
+        throw new InvalidInputException("restaurantName", "Invalid restaurant name. Please enter letters only.");
+      }
+      if (!FieldValidator.isLetters(fields[7])) {
+        throw new InvalidInputException("restaurantLocation", "Invalid restaurant location. Please enter letters only.");
+      }
+      if (!FieldValidator.isDigits(fields[8])) {
+        throw new InvalidInputException("restaurantContactNumber", "Invalid restaurant contact number. Please enter numbers only.");
+      }
+      if (LocationRegistry.lookup(fields[7]) == LocationRegistry.UNKNOWN) {
+        // Known locations are never forgotten, so a cached restaurant needs no check
+        throw new InvalidInputException("restaurantLocation", "No drivers serve restaurant location '" + fields[7] + "'.");
+      }
+      restaurant = new Restaurant(fields[6], fields[7], fields[8]);
+      ProfileCache.remember(restaurant);
+    }
+
+    if (!FieldValidator.isLetters(fields[9])) {
+      throw new InvalidInputException("specialInstructions", "Invalid special instructions. Please enter letters only.");
+    }
+
+    OrderLines lines = new OrderLines();
+    if (!fields[10].isEmpty()) {
+      for (String entry : fields[10].split(";")) {
+        String[] parts = entry.split(":", -1);
+        if (parts.length != 3) {
+          throw new InvalidInputException("meals", "Invalid meal '" + entry + "'. Expected name:quantity:price.");
+        }
+        String mealName = parts[0].trim();
+        if (!FieldValidator.isLetters(mealName)) {
+          throw new InvalidInputException("meals", "Invalid meal name. Please enter letters only.");
+        }
+        int quantity = parseInt(parts[1].trim(), "meals", "quantity");
+        double price = parseDouble(parts[2].trim(), "meals", "price");
+        lines.add(mealName, quantity, price);
+      }
+    }
+
+    return new Order(customer, restaurant, lines, fields[9]);
+  }
+
+  private static int parseInt(String value, String field, String description) throws InvalidInputException {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new InvalidInputException(field, "Invalid " + description + ". Please enter a valid integer.");
+    }
+  }
+
+  private static double parseDouble(String value, String field, String description) throws InvalidInputException {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new InvalidInputException(field, "Invalid " + description + ". Please enter a valid number.");
+    }
+  }
+}
@@ -1,85 +1,106 @@
 package quickfood;
 
-//Customer class to store customer information
-public class Customer {
-  private int orderNumber;
-  private String name;
-  private String contactNumber;
-  private String address;
-  private String location;
-  private String email;
+//Customer class to store customer information; it cannot be modified, and withOrderNumber() gives the copy for another order
+public final class Customer {
+  private final int orderNumber;
+  private final String name;
+  private final String contactNumber;
+  private final String address;
+  private final String location;
+  private int locationId; // Derived from location; only ever moves from UNKNOWN to the registered ID
+  private final String email;
 
  // Constructor to initialize a Customer object
   public Customer(int orderNumber, String name, String contactNumber, String address, String location, String email) throws InvalidInputException {
-    if (!name.matches("[a-zA-Z ]+")) {
-      throw new InvalidInputException("Invalid name. Please enter letters only.");
+    long start = Metrics.startSampled();
+    if (!FieldValidator.isLetters(name)) {
+      throw new InvalidInputException("name", "Invalid name. Please enter letters only.");
     }
-    if (!contactNumber.matches("\\d+")) {
-      throw new InvalidInputException("Invalid contact number. Please enter numbers only.");
+    if (!FieldValidator.isDigits(contactNumber)) {
+      throw new InvalidInputException("contactNumber", "Invalid contact number. Please enter numbers only.");
     }
-    if (!address.matches("[a-zA-Z0-9 ]+")) {
-      throw new InvalidInputException("Invalid address. Please enter letters and numbers only.");
+    if (!FieldValidator.isAlphanumeric(address)) {
+      throw new InvalidInputException("address", "Invalid address. Please enter letters and numbers only.");
     }
-    if (!location.matches("[a-zA-Z ]+")) {
-      throw new InvalidInputException("Invalid location. Please enter letters only.");
+    if (!FieldValidator.isLetters(location)) {
+      throw new InvalidInputException("location", "Invalid location. Please enter letters only.");
     }
-    if (!email.matches("^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,6}$")) {
-      throw new InvalidInputException("Invalid email. Please enter a valid email address.");
+    if (!FieldValidator.isEmail(email)) {
+      throw new InvalidInputException("email", "Invalid email. Please enter a valid email address.");
     }
     this.orderNumber = orderNumber;
     this.name = name;
     this.contactNumber = contactNumber;
     this.address = address;
     this.location = location;
+    this.locationId = LocationRegistry.lookup(location);
     this.email = email;
+    Metrics.record(Metrics.CUSTOMER, start);
   }
 
- // Getters and setters for Customer attributes
+  // Constructor for fields that have already been validated; the flag only selects this overload
+  private Customer(int orderNumber, String name, String contactNumber, String address, String location, String email, boolean validated) {
+    this.orderNumber = orderNumber;
+    this.name = name;
+    this.contactNumber = contactNumber;
+    this.address = address;
+    this.location = location;
+    this.locationId = LocationRegistry.lookup(location);
+    this.email = email;
+  }
+
+  // Creates a Customer from fields already checked with FieldValidator as they were entered,
+  // so each field is validated only once per order
+  static Customer fromValidatedFields(int orderNumber, String name, String contactNumber, String address, String location, String email) {
+    return new Customer(orderNumber, name, contactNumber, address, location, email, true);
+  }
+
+  // Copies a customer for another order, sharing the field values
+  private Customer(Customer profile, int orderNumber) {
+    this.orderNumber = orderNumber;
+    this.name = profile.name;
+    this.contactNumber = profile.contactNumber;
+    this.address = profile.address;
+    this.location = profile.location;
+    this.locationId = profile.locationId;
+    this.email = profile.email;
+  }
+
+  // Returns a copy of this customer for another order; used by ProfileCache
+  Customer withOrderNumber(int orderNumber) {
+    return new Customer(this, orderNumber);
+  }
+
+ // Getters for Customer attributes
  public int getOrderNumber() {
    return orderNumber;
  }
 
- public void setOrderNumber(int orderNumber) {
-   this.orderNumber = orderNumber;
- }
-
  public String getName() {
    return name;
  }
 
- public void setName(String name) {
-   this.name = name;
- }
-
  public String getContactNumber() {
    return contactNumber;
  }
 
- public void setContactNumber(String contactNumber) {
-   this.contactNumber = contactNumber;
- }
-
  public String getAddress() {
    return address;
  }
 
- public void setAddress(String address) {
-   this.address = address;
- }
-
  public String getLocation() {
    return location;
  }
 
- public void setLocation(String location) {
-   this.location = location;
+ // Returns the ID of the location, or LocationRegistry.UNKNOWN if no driver is registered there
+ public int getLocationId() {
+   if (locationId == LocationRegistry.UNKNOWN) {
+     locationId = LocationRegistry.lookup(location); // Drivers may have been loaded there since
+   }
+   return locationId;
  }
 
  public String getEmail() {
    return email;
  }
-
- public void setEmail(String email) {
-   this.email = email;
- }
 }
\ No newline at end of file
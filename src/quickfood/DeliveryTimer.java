@@ -0,0 +1,275 @@
+package quickfood;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/*DeliveryTimer releases a driver's load once an order's expected delivery time has passed without
+  the delivery being reported. It is a hashed timer wheel: time is cut into ticks, and each pending
+  delivery sits in a doubly linked list in the wheel bucket of its deadline tick modulo the wheel
+  size, so scheduling and cancelling are O(1) however many deliveries are pending. A background
+  thread expires the entries of each bucket as its tick comes round; entries due in a later turn of
+  the wheel stay where they are.
+
+  Entries live in parallel arrays indexed by slot, with freed slots reused, instead of one object
+  per timer: a pending delivery costs 32 bytes, and millions of them leave the garbage collector
+  nothing to trace but the drivers. Cancelling by order number goes through a table of hash chains
+  over the same slots. Order numbers need not be unique; each cancel takes one delivery of the number.
+*/
+public class DeliveryTimer implements AutoCloseable {
+
+  // Called on the timer thread, outside its lock, for each delivery whose expected time has passed;
+  // an exception it throws is reported and the timer carries on with the next delivery
+  public interface Expiry {
+    void expired(int orderNumber, Driver driver);
+  }
+
+  private static final int NONE = -1;
+  private static final int UNINDEXED = -2; // Chain link of entries that cannot be cancelled
+  private static final int MAX_EXPIRED = 4096; // Expired per pass, so schedule and cancel never wait long
+
+  private final long tickNanos;
+  private final long startNanos = System.nanoTime();
+  private final int[] wheel; // First slot in each bucket, or NONE
+  private final Expiry expiry;
+  private final Thread thread;
+  private final int[] expiredOrders = new int[MAX_EXPIRED];
+  private final Driver[] expiredDrivers = new Driver[MAX_EXPIRED];
+
+  private long[] deadlines; // Tick at which each entry expires
+  private int[] orderNumbers;
+  private Driver[] drivers; // Null for free slots
+  private int[] next; // Next slot in the bucket, or the next free slot
+  private int[] previous;
+  private int[] chained; // Next slot in the order number's hash chain, NONE, or UNINDEXED
+  private int[] table; // First slot in each hash chain, or NONE
+  private int free = NONE;
+  private int used; // Slots handed out at least once
+  private int size;
+  private long tick; // The next tick to expire
+  private boolean closed;
+
+  /**
+   * Starts the background timer thread.
+   * @param tickMillis the resolution of the timer; deliveries expire up to one tick late, never early.
+   * @param wheelSize the number of buckets, rounded up to a power of two; ticks times buckets is
+   *     the span beyond which entries are passed over on each turn.
+   * @param expiry called for each delivery that expires.
+   */
+  public DeliveryTimer(long tickMillis, int wheelSize, Expiry expiry) {
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    this.wheel = new int[Integer.highestOneBit(Math.max(1, wheelSize) * 2 - 1)];
+    Arrays.fill(wheel, NONE);
+    this.expiry = expiry;
+    allocate(1024);
+    this.thread = new Thread(this::run, "delivery-timer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Schedules the release of a driver's load for an order that has just been dispatched.
+   * @param orderNumber the order number, by which the delivery can be cancelled.
+   * @param driver the driver the order was dispatched to.
+   * @param delayMillis the expected delivery time.
+   */
+  public void schedule(int orderNumber, Driver driver, long delayMillis) {
+    add(orderNumber, driver, delayMillis, true);
+  }
+
+  /**
+   * Schedules the release of a driver's load for an order whose number is not known, such as one
+   * restored from the order journal at startup. It cannot be cancelled, and expires with order number 0.
+   * @param driver the driver the order was dispatched to.
+   * @param delayMillis the expected delivery time.
+   */
+  public void scheduleRecovered(Driver driver, long delayMillis) {
+    add(0, driver, delayMillis, false);
+  }
+
+  private void add(int orderNumber, Driver driver, long delayMillis, boolean indexed) {
+    Objects.requireNonNull(driver);
+    // Rounded up, so a delivery never expires before its time
+    long due = (System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos;
+    synchronized (this) {
+      if (free == NONE && used == drivers.length) {
+        allocate(drivers.length * 2);
+      }
+      int slot;
+      if (free != NONE) {
+        slot = free;
+        free = next[slot];
+      } else {
+        slot = used++;
+      }
+      deadlines[slot] = Math.max(due, tick);
+      orderNumbers[slot] = orderNumber;
+      drivers[slot] = driver;
+      int bucket = (int) deadlines[slot] & (wheel.length - 1);
+      previous[slot] = NONE;
+      next[slot] = wheel[bucket];
+      if (wheel[bucket] != NONE) {
+        previous[wheel[bucket]] = slot;
+      }
+      wheel[bucket] = slot;
+      if (indexed) {
+        int chain = hash(orderNumber);
+        chained[slot] = table[chain];
+        table[chain] = slot;
+      } else {
+        chained[slot] = UNINDEXED;
+      }
+      size++;
+    }
+  }
+
+  /**
+   * Cancels the pending delivery of an order, when it is reported delivered.
+   * @param orderNumber the order number.
+   * @return the driver the order was dispatched to, or null if no delivery of the order is pending.
+   */
+  public synchronized Driver cancel(int orderNumber) {
+    int slot = table[hash(orderNumber)];
+    while (slot != NONE && orderNumbers[slot] != orderNumber) {
+      slot = chained[slot];
+    }
+    if (slot == NONE) {
+      return null;
+    }
+    Driver driver = drivers[slot];
+    remove(slot);
+    return driver;
+  }
+
+  // Returns the number of deliveries waiting to expire
+  public synchronized int pending() {
+    return size;
+  }
+
+  /**
+   * Stops the timer thread. Deliveries still pending are dropped without expiring.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Background loop: sleeps until the next tick, unlinks what is due under the lock and reports it outside
+  private void run() {
+    try {
+      while (true) {
+        int count;
+        synchronized (this) {
+          long wait;
+          while (!closed && (wait = startNanos + tick * tickNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+          }
+          if (closed) {
+            return;
+          }
+          count = expire((System.nanoTime() - startNanos) / tickNanos);
+        }
+        for (int i = 0; i < count; i++) {
+          try {
+            expiry.expired(expiredOrders[i], expiredDrivers[i]);
+          } catch (RuntimeException e) {
+            System.err.println("Error releasing order " + expiredOrders[i] + " after its delivery time: " + e);
+          }
+          expiredDrivers[i] = null;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Unlinks up to MAX_EXPIRED entries due by a tick into the expired arrays.
+   * Advances the next tick past every bucket it finishes; a bucket left part way is visited again.
+   */
+  private int expire(long latest) {
+    int count = 0;
+    // Once the timer has fallen a whole turn behind, one pass over the wheel covers every bucket
+    for (long t = Math.max(tick, latest - wheel.length + 1); t <= latest; t++) {
+      int slot = wheel[(int) t & (wheel.length - 1)];
+      while (slot != NONE) {
+        int following = next[slot];
+        if (deadlines[slot] <= latest) {
+          if (count == MAX_EXPIRED) {
+            tick = t;
+            return count;
+          }
+          expiredOrders[count] = orderNumbers[slot];
+          expiredDrivers[count++] = drivers[slot];
+          remove(slot);
+        }
+        slot = following;
+      }
+    }
+    tick = latest + 1;
+    return count;
+  }
+
+  // Unlinks an entry from its bucket and its hash chain and frees its slot
+  private void remove(int slot) {
+    if (previous[slot] != NONE) {
+      next[previous[slot]] = next[slot];
+    } else {
+      wheel[(int) deadlines[slot] & (wheel.length - 1)] = next[slot];
+    }
+    if (next[slot] != NONE) {
+      previous[next[slot]] = previous[slot];
+    }
+    if (chained[slot] != UNINDEXED) {
+      int chain = hash(orderNumbers[slot]);
+      if (table[chain] == slot) {
+        table[chain] = chained[slot];
+      } else {
+        int before = table[chain];
+        while (chained[before] != slot) {
+          before = chained[before];
+        }
+        chained[before] = chained[slot];
+      }
+    }
+    drivers[slot] = null;
+    next[slot] = free;
+    free = slot;
+    size--;
+  }
+
+  // Grows the slot arrays and rebuilds the hash chains, keeping one chain per slot
+  private void allocate(int capacity) {
+    deadlines = deadlines == null ? new long[capacity] : Arrays.copyOf(deadlines, capacity);
+    orderNumbers = orderNumbers == null ? new int[capacity] : Arrays.copyOf(orderNumbers, capacity);
+    drivers = drivers == null ? new Driver[capacity] : Arrays.copyOf(drivers, capacity);
+    next = next == null ? new int[capacity] : Arrays.copyOf(next, capacity);
+    previous = previous == null ? new int[capacity] : Arrays.copyOf(previous, capacity);
+    chained = chained == null ? new int[capacity] : Arrays.copyOf(chained, capacity);
+    table = new int[capacity];
+    Arrays.fill(table, NONE);
+    for (int slot = used - 1; slot >= 0; slot--) {
+      if (drivers[slot] != null && chained[slot] != UNINDEXED) {
+        int chain = hash(orderNumbers[slot]);
+        chained[slot] = table[chain];
+        table[chain] = slot;
+      }
+    }
+  }
+
+  private int hash(int orderNumber) {
+    int hash = orderNumber * 0x9e3779b9;
+    return (hash ^ (hash >>> 16)) & (table.length - 1);
+  }
+}
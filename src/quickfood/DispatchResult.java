@@ -0,0 +1,50 @@
+package quickfood;
+
+//DispatchResult is what placing an order came to: the name of the driver assigned, if there was one,
+//and whether the order was a duplicate that took the result of the first order with its number.
+//It holds no Driver, so a result read back from an invoice looks the same as one just dispatched.
+public final class DispatchResult {
+  static final DispatchResult NO_DRIVER = new DispatchResult(null, false);
+  private static final DispatchResult NO_DRIVER_DUPLICATE = new DispatchResult(null, true);
+
+  private final String driverName;
+  private final boolean duplicate;
+
+  private DispatchResult(String driverName, boolean duplicate) {
+    this.driverName = driverName;
+    this.duplicate = duplicate;
+  }
+
+  // Returns the result of an order assigned to a driver, or NO_DRIVER for null
+  static DispatchResult of(Driver driver) {
+    return driver == null ? NO_DRIVER : assigned(driver.getName());
+  }
+
+  // Returns the result of an order assigned to the named driver
+  static DispatchResult assigned(String driverName) {
+    return new DispatchResult(driverName, false);
+  }
+
+  // Returns this result as the answer to a duplicate of its order
+  DispatchResult asDuplicate() {
+    if (duplicate) {
+      return this;
+    }
+    return driverName == null ? NO_DRIVER_DUPLICATE : new DispatchResult(driverName, true);
+  }
+
+  // Returns whether a driver was assigned
+  public boolean isDispatched() {
+    return driverName != null;
+  }
+
+  // Returns the name of the driver assigned, or null if no driver was available
+  public String getDriverName() {
+    return driverName;
+  }
+
+  // Returns whether the order was not dispatched because its number had been placed before
+  public boolean isDuplicate() {
+    return duplicate;
+  }
+}
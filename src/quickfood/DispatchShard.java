@@ -0,0 +1,230 @@
+package quickfood;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*DispatchShard is one dispatch node: it owns the drivers of the locations ShardMap gives it, in a
+  DriverIndex of its own, and answers requests from ShardedDispatcher one at a time, in the order
+  they arrive. The shard keeps its own Driver objects, as a separate process would; drivers are
+  known to the coordinator by their number in the full roster, which is also their position in the
+  index, so ties on load go the same way whichever shard holds them. Drivers joining or leaving
+  only touch the heaps of their locations.
+
+  Requests and replies are plain values, passed as they are by the in-process transport and written
+  by serve() and ShardLink in a small binary format for the socket transport: a request is the
+  operation, a request ID and its fields, and a reply is the request ID, a count and that many ints,
+  then a count and that many names.
+*/
+final class DispatchShard {
+  static final byte CLAIM = 1;   // location -> driver number and new load, or -1
+  static final byte RELEASE = 2; // driver number -> 1 if the load went down, and the new load
+  static final byte TAKE = 3;    // location -> the number and load of each driver there, which leave the shard
+  static final byte GIVE = 4;    // driver number, name, location and load -> the driver joins the shard
+  static final byte STATS = 5;   // -> claims per location since the last STATS, names and counts
+  static final byte CLOSE = 6;
+  private static final String[] NO_NAMES = new String[0];
+
+  private final Map<Integer, Driver> drivers = new HashMap<>(); // By number
+  private final Map<Driver, Integer> numbers = new IdentityHashMap<>();
+  private final Map<Integer, int[]> claims = new HashMap<>(); // Per location ID since the last STATS
+  private final DriverIndex index = new DriverIndex();
+
+  // A request to a shard; reply completes once the shard has handled it
+  static final class Request {
+    final byte operation;
+    final String location;
+    final int driver;
+    final String name;
+    final int load;
+    final CompletableFuture<Reply> reply = new CompletableFuture<>();
+
+    Request(byte operation, String location, int driver, String name, int load) {
+      this.operation = operation;
+      this.location = location;
+      this.driver = driver;
+      this.name = name;
+      this.load = load;
+    }
+  }
+
+  static final class Reply {
+    final int[] values;
+    final String[] names;
+
+    Reply(int[] values, String[] names) {
+      this.values = values;
+      this.names = names;
+    }
+  }
+
+  /**
+   * Handles one request. Not thread-safe: a shard is driven by one thread, like a single-threaded node.
+   * @param request the request.
+   * @return the reply.
+   */
+  Reply handle(Request request) {
+    switch (request.operation) {
+      case CLAIM:
+        return claim(request.location);
+      case RELEASE: {
+        Driver driver = drivers.get(request.driver);
+        if (driver == null) {
+          return new Reply(new int[] {0, 0}, NO_NAMES);
+        }
+        boolean released = index.release(driver);
+        return new Reply(new int[] {released ? 1 : 0, driver.getLoad()}, NO_NAMES);
+      }
+      case TAKE:
+        return take(request.location);
+      case GIVE: {
+        Driver driver = new Driver(request.name, request.location, request.load);
+        drivers.put(request.driver, driver);
+        numbers.put(driver, request.driver);
+        index.add(driver, request.driver);
+        return new Reply(new int[0], NO_NAMES);
+      }
+      case STATS: {
+        int[] counts = new int[claims.size()];
+        String[] names = new String[claims.size()];
+        int i = 0;
+        for (Map.Entry<Integer, int[]> entry : claims.entrySet()) {
+          names[i] = LocationRegistry.name(entry.getKey());
+          counts[i++] = entry.getValue()[0];
+        }
+        claims.clear();
+        return new Reply(counts, names);
+      }
+      default:
+        throw new IllegalArgumentException("Unknown shard operation " + request.operation);
+    }
+  }
+
+  private Reply claim(String location) {
+    int locationId = LocationRegistry.lookup(location);
+    try {
+      Driver driver = index.claim(locationId);
+      claims.computeIfAbsent(locationId, id -> new int[1])[0]++;
+      return new Reply(new int[] {numbers.get(driver), driver.getLoad()}, NO_NAMES);
+    } catch (DriverNotFoundException e) {
+      return new Reply(new int[] {-1, 0}, NO_NAMES);
+    }
+  }
+
+  private Reply take(String location) {
+    int locationId = LocationRegistry.lookup(location);
+    List<Driver> leaving = index.removeLocation(locationId);
+    int[] values = new int[2 * leaving.size()];
+    for (int i = 0; i < leaving.size(); i++) {
+      Driver driver = leaving.get(i);
+      int number = numbers.remove(driver);
+      drivers.remove(number);
+      values[2 * i] = number;
+      values[2 * i + 1] = driver.getLoad();
+    }
+    claims.remove(locationId);
+    return new Reply(values, NO_NAMES);
+  }
+
+  /**
+   * Serves requests from one connection until it is closed, for the socket transport.
+   * Replies are flushed whenever no further request is waiting, so a pipelined stream of requests
+   * is answered in batches.
+   * @param server the listening socket; the first connection is served, then both are closed.
+   * @throws IOException if the connection fails.
+   */
+  void serve(ServerSocket server) throws IOException {
+    try (ServerSocket listening = server; Socket socket = listening.accept()) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+      while (true) {
+        byte operation;
+        try {
+          operation = in.readByte();
+        } catch (EOFException e) {
+          return;
+        }
+        int id = in.readInt();
+        if (operation == CLOSE) {
+          out.flush();
+          return;
+        }
+        Request request = readRequest(operation, in);
+        Reply reply = handle(request);
+        out.writeInt(id);
+        out.writeInt(reply.values.length);
+        for (int value : reply.values) {
+          out.writeInt(value);
+        }
+        out.writeInt(reply.names.length);
+        for (String name : reply.names) {
+          out.writeUTF(name);
+        }
+        if (in.available() == 0) {
+          out.flush();
+        }
+      }
+    }
+  }
+
+  private static Request readRequest(byte operation, DataInputStream in) throws IOException {
+    switch (operation) {
+      case CLAIM:
+      case TAKE:
+        return new Request(operation, in.readUTF(), 0, null, 0);
+      case RELEASE:
+        return new Request(operation, null, in.readInt(), null, 0);
+      case GIVE:
+        return new Request(operation, in.readUTF(), in.readInt(), in.readUTF(), in.readInt());
+      default:
+        return new Request(operation, null, 0, null, 0);
+    }
+  }
+
+  // Writes a request in the format readRequest reads
+  static void writeRequest(Request request, int id, DataOutputStream out) throws IOException {
+    out.writeByte(request.operation);
+    out.writeInt(id);
+    switch (request.operation) {
+      case CLAIM:
+      case TAKE:
+        out.writeUTF(request.location);
+        break;
+      case RELEASE:
+        out.writeInt(request.driver);
+        break;
+      case GIVE:
+        out.writeUTF(request.location);
+        out.writeInt(request.driver);
+        out.writeUTF(request.name);
+        out.writeInt(request.load);
+        break;
+      default:
+        break;
+    }
+  }
+
+  // Reads the rest of a reply as serve() writes it, after its request ID
+  static Reply readReply(DataInputStream in) throws IOException {
+    int[] values = new int[in.readInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readInt();
+    }
+    String[] names = new String[in.readInt()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = in.readUTF();
+    }
+    return new Reply(values, names.length == 0 ? NO_NAMES : names);
+  }
+}
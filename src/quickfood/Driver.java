@@ -1,16 +1,20 @@
 package quickfood;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 //Driver class to store driver information
 public class Driver {
   private String name;
-  private String location;
-  private int load;
+  private int locationId; // From LocationRegistry; the name is kept there once per location
+  private final AtomicInteger load; // Updated atomically so concurrent dispatch never loses an order
+  int heapSlot = -1; // Position in its DriverIndex heap; a hint that lets release find it without a search
+  Driver replacement; // This driver's copy in the roster that replaced theirs; set by DriverRoster.reload
 
  // Constructor to initialize a Driver object
  public Driver(String name, String location, int load) {
    this.name = name;
-   this.location = location;
-   this.load = load;
+   this.locationId = LocationRegistry.register(location);
+   this.load = new AtomicInteger(load);
  }
 
  // Getters and setters for Driver attributes
@@ -22,19 +26,41 @@ public class Driver {
    this.name = name;
  }
 
+ // Returns the location as it was first registered, which may differ from this driver's line in case or spacing
  public String getLocation() {
-   return location;
+   return LocationRegistry.name(locationId);
  }
 
  public void setLocation(String location) {
-   this.location = location;
+   this.locationId = LocationRegistry.register(location);
+ }
+
+ public int getLocationId() {
+   return locationId;
  }
 
  public int getLoad() {
-   return load;
+   return load.get();
  }
 
  public void setLoad(int load) {
-   this.load = load;
+   this.load.set(load);
+ }
+
+ // Atomically adds one order to the driver's load and returns the new load
+ public int incrementLoad() {
+   return load.incrementAndGet();
+ }
+
+ // Atomically removes one order from the driver's load unless it is already 0; returns whether it did
+ public boolean decrementLoad() {
+   int current;
+   do {
+     current = load.get();
+     if (current == 0) {
+       return false;
+     }
+   } while (!load.compareAndSet(current, current - 1));
+   return true;
  }
 }
@@ -0,0 +1,263 @@
+package quickfood;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*DriverFileLoader reads the driver file by memory-mapping it and parsing line-aligned chunks
+  in parallel on the common fork-join pool. Lines are parsed straight from the mapped bytes,
+  so no String or String[] is created for a line until it is known to hold a driver.
+  The result matches reading the file with BufferedReader and line.split(","): lines end at
+  \n, \r or \r\n, surrounding whitespace is trimmed from each field, and lines that do not
+  split into exactly 3 fields are skipped.
+*/
+public class DriverFileLoader {
+  private static final int MIN_CHUNK_SIZE = 1 << 20;
+  private static final long MAX_CHUNK_SIZE = 1L << 30; // A mapping cannot exceed 2GB
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  /**
+   * Loads every driver in the file, in file order.
+   * @param filename the name of the file containing driver information.
+   * @return the drivers in the order they appear in the file.
+   * @throws IOException if an error occurs while reading the file.
+   * @throws NumberFormatException if the load of a driver is not a valid integer.
+   */
+  public static List<Driver> load(String filename) throws IOException {
+    Charset charset = Charset.defaultCharset(); // Same encoding FileReader used
+    if (!isAsciiCompatible(charset)) {
+      return loadText(filename);
+    }
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size == 0) {
+        return new ArrayList<>();
+      }
+      long[] bounds = chunkBounds(channel, size);
+      List<ChunkTask> tasks = new ArrayList<>(bounds.length - 1);
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+        tasks.add(new ChunkTask(chunk, charset));
+      }
+      List<List<Driver>> parts = new AllChunksTask(tasks).invoke();
+      int total = 0;
+      for (List<Driver> part : parts) {
+        total += part.size();
+      }
+      List<Driver> drivers = new ArrayList<>(total);
+      for (List<Driver> part : parts) {
+        drivers.addAll(part);
+      }
+      return drivers;
+    }
+  }
+
+  // Splits the file into chunks that each end just after a '\n' (or at the end of the file)
+  private static long[] chunkBounds(FileChannel channel, long size) throws IOException {
+    int threads = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    long target = Math.max(MIN_CHUNK_SIZE, size / ((long) threads * CHUNKS_PER_THREAD));
+    target = Math.min(target, MAX_CHUNK_SIZE);
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    ByteBuffer window = ByteBuffer.allocate(4096);
+    long position = 0;
+    while (position < size) {
+      long next = position + target;
+      if (next >= size) {
+        next = size;
+      } else {
+        next = afterNextNewline(channel, next, size, window);
+        if (next - position > Integer.MAX_VALUE) {
+          throw new IOException("Line in driver file is too long to map");
+        }
+      }
+      bounds.add(next);
+      position = next;
+    }
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  private static long afterNextNewline(FileChannel channel, long from, long size, ByteBuffer window) throws IOException {
+    long position = from;
+    while (position < size) {
+      window.clear();
+      int read = channel.read(window, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (window.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  private static boolean isAsciiCompatible(Charset charset) {
+    return charset.equals(StandardCharsets.UTF_8)
+        || charset.equals(StandardCharsets.US_ASCII)
+        || charset.equals(StandardCharsets.ISO_8859_1);
+  }
+
+  // Sequential fallback for encodings whose bytes cannot be scanned for ',' and '\n' directly
+  private static List<Driver> loadText(String filename) throws IOException {
+    List<Driver> drivers = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(",");
+        if (parts.length == 3) {
+          drivers.add(new Driver(parts[0].trim(), parts[1].trim(), Integer.parseInt(parts[2].trim())));
+        }
+      }
+    }
+    return drivers;
+  }
+
+  // Runs every chunk in parallel and returns their drivers in chunk order
+  private static final class AllChunksTask extends RecursiveTask<List<List<Driver>>> {
+    private static final long serialVersionUID = 1L;
+    private final List<ChunkTask> tasks;
+
+    AllChunksTask(List<ChunkTask> tasks) {
+      this.tasks = tasks;
+    }
+
+    @Override
+    protected List<List<Driver>> compute() {
+      invokeAll(tasks);
+      List<List<Driver>> parts = new ArrayList<>(tasks.size());
+      for (ChunkTask task : tasks) {
+        parts.add(task.join());
+      }
+      return parts;
+    }
+  }
+
+  // Parses the drivers in one line-aligned chunk of the file
+  private static final class ChunkTask extends RecursiveTask<List<Driver>> {
+    private static final long serialVersionUID = 1L;
+    private final transient ByteBuffer bytes;
+    private final transient Charset charset;
+
+    ChunkTask(ByteBuffer bytes, Charset charset) {
+      this.bytes = bytes;
+      this.charset = charset;
+    }
+
+    @Override
+    protected List<Driver> compute() {
+      List<Driver> drivers = new ArrayList<>();
+      int limit = bytes.limit();
+      int lineStart = 0;
+      int i = 0;
+      while (i < limit) {
+        byte b = bytes.get(i);
+        if (b == '\n' || b == '\r') {
+          parseLine(lineStart, i, drivers);
+          if (b == '\r' && i + 1 < limit && bytes.get(i + 1) == '\n') {
+            i++;
+          }
+          lineStart = i + 1;
+        }
+        i++;
+      }
+      if (lineStart < limit) {
+        parseLine(lineStart, limit, drivers);
+      }
+      return drivers;
+    }
+
+    // Accepts "name,location,load" followed by nothing but commas, which split(",") drops
+    private void parseLine(int start, int end, List<Driver> drivers) {
+      int firstComma = indexOfComma(start, end);
+      if (firstComma < 0) {
+        return;
+      }
+      int secondComma = indexOfComma(firstComma + 1, end);
+      if (secondComma < 0) {
+        return;
+      }
+      int thirdComma = indexOfComma(secondComma + 1, end);
+      int loadEnd = thirdComma < 0 ? end : thirdComma;
+      if (loadEnd == secondComma + 1) {
+        return; // Empty third field is dropped by split, leaving 2 fields
+      }
+      for (int j = loadEnd; j < end; j++) {
+        if (bytes.get(j) != ',') {
+          return; // A fourth non-empty field
+        }
+      }
+      String name = field(start, firstComma);
+      String location = field(firstComma + 1, secondComma);
+      drivers.add(new Driver(name, location, parseLoad(secondComma + 1, loadEnd)));
+    }
+
+    private int indexOfComma(int from, int end) {
+      for (int j = from; j < end; j++) {
+        if (bytes.get(j) == ',') {
+          return j;
+        }
+      }
+      return -1;
+    }
+
+    // Decodes a field without the whitespace that String.trim() would remove
+    private String field(int start, int end) {
+      while (start < end && (bytes.get(start) & 0xff) <= ' ') {
+        start++;
+      }
+      while (end > start && (bytes.get(end - 1) & 0xff) <= ' ') {
+        end--;
+      }
+      byte[] text = new byte[end - start];
+      bytes.get(start, text);
+      return new String(text, charset);
+    }
+
+    // Parses plain decimal loads from the bytes; anything unusual goes through Integer.parseInt
+    private int parseLoad(int start, int end) {
+      while (start < end && (bytes.get(start) & 0xff) <= ' ') {
+        start++;
+      }
+      while (end > start && (bytes.get(end - 1) & 0xff) <= ' ') {
+        end--;
+      }
+      int j = start;
+      boolean negative = false;
+      if (j < end && (bytes.get(j) == '-' || bytes.get(j) == '+')) {
+        negative = bytes.get(j) == '-';
+        j++;
+      }
+      if (j == end || end - j > 9) {
+        return Integer.parseInt(field(start, end));
+      }
+      int value = 0;
+      for (; j < end; j++) {
+        int digit = bytes.get(j) - '0';
+        if (digit < 0 || digit > 9) {
+          return Integer.parseInt(field(start, end));
+        }
+        value = value * 10 + digit;
+      }
+      return negative ? -value : value;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+//DriverFileWatcher watches the driver file and runs a reload in the background whenever it changes.
+//Editors often write a file in several steps, so the reload waits until the file has been quiet
+//for a short settle time.
+public class DriverFileWatcher implements AutoCloseable {
+  private static final long SETTLE_MILLIS = 200;
+
+  private final Path file;
+  private final Runnable onChange;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  /**
+   * Starts watching the specified file.
+   * @param file the file to watch.
+   * @param onChange what to run, on the watcher thread, after the file changed.
+   * @throws IOException if the directory of the file cannot be watched.
+   */
+  public DriverFileWatcher(Path file, Runnable onChange) throws IOException {
+    this.file = file.toAbsolutePath();
+    this.onChange = onChange;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.file.getParent().register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::run, "driver-file-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean changed = drain(key);
+        // Keep collecting events until the file has settled
+        while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          changed |= drain(key);
+        }
+        if (changed) {
+          onChange.run();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Watcher closed
+    }
+  }
+
+  // Returns whether any of the key's events concern the watched file
+  private boolean drain(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+}
@@ -0,0 +1,305 @@
+package quickfood;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//DriverIndex groups drivers by location so dispatch does not have to scan the whole roster.
+//Heaps are kept in an array indexed by LocationRegistry ID, so finding a location's drivers is an
+//array read. It is safe to use from several threads: each location has its own lock, so orders for
+//different locations never contend. Driver loads must only be changed through the index.
+public class DriverIndex {
+  private volatile LocationHeap[] locations = new LocationHeap[0];
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger added = new AtomicInteger(); // Roster position of the next driver added without one
+
+  /**
+   * Adds a driver to the heap of its location.
+   * Drivers added earlier win ties on load, matching the order of the roster file.
+   * @param driver the driver to index.
+   */
+  public void add(Driver driver) {
+    add(driver, added.getAndIncrement());
+  }
+
+  /**
+   * Adds a driver to the heap of its location at a given roster position.
+   * @param driver the driver to index.
+   * @param position the driver's position in the roster file; lower positions win ties on load.
+   */
+  void add(Driver driver, int position) {
+    heapFor(driver.getLocationId()).add(driver, position);
+    size.incrementAndGet();
+  }
+
+  /**
+   * Removes every driver at a location from the index. A claim or release running at the location
+   * meanwhile may still reach the removed drivers, so the caller must hold those back.
+   * @param locationId the ID of the location.
+   * @return the drivers removed; empty if there were none.
+   */
+  synchronized List<Driver> removeLocation(int locationId) {
+    LocationHeap heap = heap(locationId);
+    if (heap == null) {
+      return List.of();
+    }
+    LocationHeap[] heaps = locations.clone();
+    heaps[locationId] = null;
+    locations = heaps;
+    List<Driver> removed = heap.drivers();
+    size.addAndGet(-removed.size());
+    return removed;
+  }
+
+  // Returns the heap for a location, creating it and growing the array if needed
+  private synchronized LocationHeap heapFor(int locationId) {
+    LocationHeap[] heaps = locations;
+    if (locationId >= heaps.length) {
+      heaps = Arrays.copyOf(heaps, Math.max(locationId + 1, LocationRegistry.size()));
+    }
+    if (heaps[locationId] == null) {
+      heaps[locationId] = new LocationHeap();
+    }
+    locations = heaps; // Publish the new heap along with the array
+    return heaps[locationId];
+  }
+
+  /**
+   * Picks the least loaded driver at the specified location and increments their load.
+   * @param locationId the ID of the location to search for a driver.
+   * @return the driver with the least load at the specified location.
+   * @throws DriverNotFoundException if no driver is found at the specified location.
+   */
+  public Driver claim(int locationId) throws DriverNotFoundException {
+    LocationHeap heap = heap(locationId);
+    if (heap == null) {
+      throw new DriverNotFoundException("Sorry! Our drivers are too far away from you to be able to deliver to your location.");
+    }
+    return heap.claim();
+  }
+
+  /**
+   * Picks the least loaded driver at the specified location and increments their load.
+   * @param location the location to search for a driver.
+   * @return the driver with the least load at the specified location.
+   * @throws DriverNotFoundException if no driver is found at the specified location.
+   */
+  public Driver claim(String location) throws DriverNotFoundException {
+    return claim(LocationRegistry.lookup(location));
+  }
+
+  /**
+   * Returns the least loaded driver at the specified location without changing their load.
+   * @param locationId the ID of the location to search for a driver.
+   * @return the driver with the least load, or null if there is no driver at the location.
+   */
+  public Driver peek(int locationId) {
+    LocationHeap heap = heap(locationId);
+    return heap == null ? null : heap.peek();
+  }
+
+  /**
+   * Returns the least loaded driver at the specified location without changing their load.
+   * @param location the location to search for a driver.
+   * @return the driver with the least load, or null if there is no driver at the location.
+   */
+  public Driver peek(String location) {
+    return peek(LocationRegistry.lookup(location));
+  }
+
+  /**
+   * Removes one order from a driver's load, when a delivery is completed, and moves the driver up
+   * their location's heap to match. A driver who is not in this index, because the roster has been
+   * reloaded without them, just has their load reduced.
+   * @param driver the driver.
+   * @return whether the load was reduced; false if it was already 0.
+   */
+  public boolean release(Driver driver) {
+    LocationHeap heap = heap(driver.getLocationId());
+    if (heap != null) {
+      int released = heap.release(driver);
+      if (released >= 0) {
+        return released > 0;
+      }
+    }
+    return driver.decrementLoad();
+  }
+
+  /**
+   * Returns the lowest driver loads at a location, which is all a batch of claims there can touch.
+   * @param locationId the ID of the location.
+   * @param max the largest number of loads to return.
+   * @return up to max loads in ascending order; empty if there is no driver at the location.
+   */
+  public int[] lowestLoads(int locationId, int max) {
+    LocationHeap heap = heap(locationId);
+    return heap == null ? new int[0] : heap.lowestLoads(max);
+  }
+
+  private LocationHeap heap(int locationId) {
+    LocationHeap[] heaps = locations;
+    return locationId >= 0 && locationId < heaps.length ? heaps[locationId] : null;
+  }
+
+  // Returns the number of indexed drivers
+  public int size() {
+    return size.get();
+  }
+
+  // Binary min-heap of the drivers at one location, ordered by load and then by roster position
+  private static final class LocationHeap {
+    private Driver[] drivers = new Driver[4];
+    private int[] positions = new int[4];
+    private int count;
+
+    synchronized void add(Driver driver, int position) {
+      if (count == drivers.length) {
+        drivers = Arrays.copyOf(drivers, count * 2);
+        positions = Arrays.copyOf(positions, count * 2);
+      }
+      drivers[count] = driver;
+      positions[count] = position;
+      driver.heapSlot = count;
+      siftUp(count++);
+    }
+
+    synchronized Driver peek() {
+      return drivers[0];
+    }
+
+    synchronized List<Driver> drivers() {
+      return Arrays.asList(Arrays.copyOf(drivers, count));
+    }
+
+    // Returns 1 if the driver's load was reduced, 0 if it was already 0, and -1 if the driver is not in this heap
+    synchronized int release(Driver driver) {
+      int slot = driver.heapSlot;
+      if (slot < 0 || slot >= count || drivers[slot] != driver) {
+        // No hint, or a stale one: the driver was never indexed, or was dropped by a reload and the slot is someone else's
+        slot = -1;
+        for (int i = 0; i < count && slot < 0; i++) {
+          if (drivers[i] == driver) {
+            slot = i;
+          }
+        }
+        if (slot < 0) {
+          return -1;
+        }
+      }
+      if (!driver.decrementLoad()) {
+        return 0;
+      }
+      siftUp(slot);
+      return 1;
+    }
+
+    synchronized Driver claim() {
+      Driver driver = drivers[0];
+      driver.incrementLoad(); // Increment the load of the chosen driver
+      siftDown(0);
+      return driver;
+    }
+
+    // Best-first walk of the heap: a frontier of heap positions, itself kept as a heap by load
+    synchronized int[] lowestLoads(int max) {
+      int[] loads = new int[Math.min(max, count)];
+      int[] frontier = new int[loads.length + 1];
+      int size = 0;
+      if (loads.length > 0) {
+        frontier[size++] = 0;
+      }
+      for (int i = 0; i < loads.length; i++) {
+        int top = frontier[0];
+        loads[i] = drivers[top].getLoad();
+        frontier[0] = frontier[--size];
+        frontierDown(frontier, size);
+        for (int child = 2 * top + 1; child <= 2 * top + 2 && child < count; child++) {
+          frontier[size] = child;
+          frontierUp(frontier, size++);
+        }
+      }
+      return loads;
+    }
+
+    private void frontierUp(int[] frontier, int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (drivers[frontier[i]].getLoad() >= drivers[frontier[parent]].getLoad()) {
+          break;
+        }
+        int t = frontier[i];
+        frontier[i] = frontier[parent];
+        frontier[parent] = t;
+        i = parent;
+      }
+    }
+
+    private void frontierDown(int[] frontier, int size) {
+      int i = 0;
+      while (true) {
+        int left = 2 * i + 1;
+        if (left >= size) {
+          break;
+        }
+        int smallest = left;
+        if (left + 1 < size && drivers[frontier[left + 1]].getLoad() < drivers[frontier[left]].getLoad()) {
+          smallest = left + 1;
+        }
+        if (drivers[frontier[smallest]].getLoad() >= drivers[frontier[i]].getLoad()) {
+          break;
+        }
+        int t = frontier[i];
+        frontier[i] = frontier[smallest];
+        frontier[smallest] = t;
+        i = smallest;
+      }
+    }
+
+    private boolean less(int a, int b) {
+      int loadA = drivers[a].getLoad();
+      int loadB = drivers[b].getLoad();
+      return loadA < loadB || (loadA == loadB && positions[a] < positions[b]);
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!less(i, parent)) {
+          break;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int left = 2 * i + 1;
+        if (left >= count) {
+          break;
+        }
+        int smallest = left;
+        int right = left + 1;
+        if (right < count && less(right, left)) {
+          smallest = right;
+        }
+        if (!less(smallest, i)) {
+          break;
+        }
+        swap(i, smallest);
+        i = smallest;
+      }
+    }
+
+    private void swap(int a, int b) {
+      Driver driver = drivers[a];
+      drivers[a] = drivers[b];
+      drivers[b] = driver;
+      drivers[a].heapSlot = a;
+      drivers[b].heapSlot = b;
+      int position = positions[a];
+      positions[a] = positions[b];
+      positions[b] = position;
+    }
+  }
+}
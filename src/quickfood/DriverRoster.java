@@ -0,0 +1,241 @@
+package quickfood;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//DriverRoster is an immutable snapshot of the loaded drivers together with their dispatch index.
+//A reload builds a complete new snapshot with its own Driver objects and publishes it in one step,
+//so dispatch always sees either the old roster or the new one, never a half-loaded one. Claims and
+//releases made through a roster that has been replaced are passed on to the roster replacing it,
+//so none is lost whichever roster a caller still holds. When location coordinates are
+//known the roster also keeps a spatial index of the locations that have drivers, so an order from a
+//location without drivers can go to a driver nearby.
+public final class DriverRoster {
+  private final List<Driver> drivers;
+  private final DriverIndex index;
+  private final LocationCoordinates coordinates;
+  private final SpatialIndex served;
+  // Shared by a roster and every roster reloaded from it: claims take it to read, a reload to write
+  private final ReentrantReadWriteLock generations;
+  private DriverRoster successor; // The roster that replaced this one; guarded by generations
+
+  private DriverRoster(List<Driver> drivers, LocationCoordinates coordinates, ReentrantReadWriteLock generations) {
+    this.drivers = Collections.unmodifiableList(drivers);
+    this.index = new DriverIndex();
+    this.coordinates = coordinates;
+    this.generations = generations;
+    BitSet locations = new BitSet();
+    for (Driver driver : drivers) {
+      index.add(driver);
+      if (coordinates.has(driver.getLocationId())) {
+        locations.set(driver.getLocationId());
+      }
+    }
+    int[] ids = locations.stream().toArray();
+    double[] latitudes = new double[ids.length];
+    double[] longitudes = new double[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      latitudes[i] = coordinates.getLatitude(ids[i]);
+      longitudes[i] = coordinates.getLongitude(ids[i]);
+    }
+    this.served = new SpatialIndex(ids, latitudes, longitudes);
+  }
+
+  /**
+   * Creates a roster from freshly loaded drivers, without nearby dispatch.
+   * @param drivers the drivers in roster order.
+   * @return the roster.
+   */
+  public static DriverRoster of(List<Driver> drivers) {
+    return of(drivers, LocationCoordinates.none());
+  }
+
+  /**
+   * Creates a roster from freshly loaded drivers.
+   * @param drivers the drivers in roster order.
+   * @param coordinates the positions of known locations, used to find drivers nearby.
+   * @return the roster.
+   */
+  public static DriverRoster of(List<Driver> drivers, LocationCoordinates coordinates) {
+    return new DriverRoster(new ArrayList<>(drivers), coordinates, new ReentrantReadWriteLock());
+  }
+
+  /**
+   * Creates the roster that replaces this one after the driver file changed.
+   * Drivers with the same name and location in both rosters carry over the load they have built up
+   * since startup; the load written in the file only applies to new drivers. Claims wait while the
+   * new roster is built, so the loads it starts from are final, and from then on claims and releases
+   * on this roster go to the new one.
+   * @param loaded the drivers read from the changed file, in roster order.
+   * @return the new roster.
+   */
+  public DriverRoster reload(List<Driver> loaded) {
+    generations.writeLock().lock();
+    try {
+      DriverRoster latest = latest();
+      Map<String, ArrayDeque<Driver>> current = new HashMap<>();
+      for (Driver driver : latest.drivers) {
+        current.computeIfAbsent(key(driver), key -> new ArrayDeque<>()).add(driver);
+      }
+      List<Driver> merged = new ArrayList<>(loaded.size());
+      for (Driver driver : loaded) {
+        ArrayDeque<Driver> matches = current.get(key(driver));
+        Driver existing = matches == null ? null : matches.poll();
+        if (existing == null) {
+          merged.add(driver);
+        } else {
+          Driver copy = new Driver(existing.getName(), existing.getLocation(), existing.getLoad());
+          existing.replacement = copy;
+          merged.add(copy);
+        }
+      }
+      latest.successor = new DriverRoster(merged, coordinates, generations);
+      return latest.successor;
+    } finally {
+      generations.writeLock().unlock();
+    }
+  }
+
+  // Returns the roster that has replaced this one, directly or through later reloads, or this one
+  private DriverRoster latest() {
+    DriverRoster latest = this;
+    while (latest.successor != null) {
+      latest = latest.successor;
+    }
+    return latest;
+  }
+
+  /**
+   * Picks the least loaded driver at a location and increments their load. If there is no driver
+   * at the location, the least loaded driver at any location within the radius is picked instead,
+   * the nearer location winning ties on load.
+   * @param locationId the LocationRegistry ID of the location to search for a driver.
+   * @param radiusKm how far away a driver may be when there is none at the location; 0 for none.
+   * @return the driver picked.
+   * @throws DriverNotFoundException if there is no driver at the location or within the radius.
+   */
+  public Driver claim(int locationId, double radiusKm) throws DriverNotFoundException {
+    generations.readLock().lock();
+    try {
+      return latest().claimHere(locationId, radiusKm);
+    } finally {
+      generations.readLock().unlock();
+    }
+  }
+
+  private Driver claimHere(int locationId, double radiusKm) throws DriverNotFoundException {
+    try {
+      return index.claim(locationId);
+    } catch (DriverNotFoundException e) {
+      Nearby nearby = new Nearby();
+      nearby(locationId, radiusKm, nearby);
+      if (nearby.locationId == LocationRegistry.UNKNOWN) {
+        throw e;
+      }
+      return index.claim(nearby.locationId);
+    }
+  }
+
+  /**
+   * Assigns drivers to a batch of orders with BatchAssigner and claims them.
+   * @param locationIds the LocationRegistry ID of the restaurant location of each order.
+   * @param radiusKm how far away drivers may be for an order at a location without drivers.
+   * @return the driver claimed for each order, or null where there is no driver within the radius.
+   */
+  public Driver[] claimBatch(int[] locationIds, double radiusKm) {
+    generations.readLock().lock();
+    try {
+      DriverRoster latest = latest();
+      int[] assigned = BatchAssigner.assign(latest, locationIds, radiusKm);
+      Driver[] claimed = new Driver[assigned.length];
+      for (int i = 0; i < assigned.length; i++) {
+        if (assigned[i] != LocationRegistry.UNKNOWN) {
+          try {
+            claimed[i] = latest.index.claim(assigned[i]);
+          } catch (DriverNotFoundException e) {
+            claimed[i] = null; // Cannot happen: the batch was assigned on this roster and a reload has to wait
+          }
+        }
+      }
+      return claimed;
+    } finally {
+      generations.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes one order from a driver's load once a delivery is done, keeping the index in order.
+   * A driver claimed before a reload is released from the roster that replaced theirs.
+   * @param driver the driver who made the delivery.
+   * @return whether the load was reduced; false if it was already 0.
+   */
+  public boolean release(Driver driver) {
+    generations.readLock().lock();
+    try {
+      Driver current = driver;
+      while (current.replacement != null) {
+        current = current.replacement;
+      }
+      return latest().index.release(current);
+    } finally {
+      generations.readLock().unlock();
+    }
+  }
+
+  /**
+   * Visits the locations with drivers within a distance of a location.
+   * @param locationId the LocationRegistry ID of the location.
+   * @param radiusKm the distance; nothing is visited when it is 0 or the location's position is unknown.
+   * @param visitor receives each location ID and its distance.
+   */
+  void nearby(int locationId, double radiusKm, SpatialIndex.Visitor visitor) {
+    if (radiusKm > 0 && coordinates.has(locationId)) {
+      served.within(coordinates.getLatitude(locationId), coordinates.getLongitude(locationId), radiusKm, visitor);
+    }
+  }
+
+  // Keeps the location whose least loaded driver has the lowest load, then the nearest
+  private final class Nearby implements SpatialIndex.Visitor {
+    int locationId = LocationRegistry.UNKNOWN;
+    private int load = Integer.MAX_VALUE;
+    private double distanceKm = Double.MAX_VALUE;
+
+    @Override
+    public void visit(int id, double km) {
+      Driver driver = index.peek(id);
+      if (driver == null) {
+        return;
+      }
+      int candidate = driver.getLoad();
+      if (candidate < load || (candidate == load && km < distanceKm)) {
+        locationId = id;
+        load = candidate;
+        distanceKm = km;
+      }
+    }
+  }
+
+  // Returns the drivers of this roster in roster order, even once it has been replaced; the list cannot be modified
+  public List<Driver> getDrivers() {
+    return drivers;
+  }
+
+  public DriverIndex getIndex() {
+    return index;
+  }
+
+  private static String key(Driver driver) {
+    return key(driver.getName(), driver.getLocation());
+  }
+
+  // Identifies a driver across reloads and restarts by name and normalized location
+  static String key(String name, String location) {
+    return name + '\n' + LocationRegistry.normalize(location);
+  }
+}
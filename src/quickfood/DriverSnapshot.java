@@ -0,0 +1,163 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*DriverSnapshot is a compact binary copy of the driver file, so that a new process can map it and
+  build its drivers without parsing text. It is written whenever the text file has been parsed, and
+  records the size and modification time the text file had then; a snapshot whose file has changed
+  since, or that is damaged, is ignored and the text file is read instead.
+
+  The snapshot holds the loads written in the driver file, not the loads at the time it was written:
+  the order journal raises the file's loads by the orders still outstanding, and would count them
+  twice on top of current loads.
+
+  Layout, little-endian: int magic "QFDS", int version, long text file size, long text file
+  modification time in nanoseconds, int location count, int driver count, then each location as a
+  short length and UTF-8 bytes, then each driver as an int location index, an int load and its name
+  as a short length and UTF-8 bytes, and last an int CRC32 of everything before it.
+*/
+public final class DriverSnapshot {
+  private static final int MAGIC = 0x51464453; // "QFDS"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 32;
+  private static final String SUFFIX = ".snapshot";
+
+  private DriverSnapshot() {
+  }
+
+  // Returns where the snapshot of a driver file is kept: next to it, with .snapshot appended
+  public static Path pathFor(Path driverFile) {
+    return driverFile.resolveSibling(driverFile.getFileName() + SUFFIX);
+  }
+
+  /**
+   * Reads the drivers from a snapshot, if it is intact and matches the driver file as it is now.
+   * @param snapshot the snapshot file.
+   * @param driverFile the text driver file the snapshot was made from.
+   * @return the drivers in file order, or null if there is no usable snapshot.
+   * @throws IOException if the driver file cannot be examined.
+   */
+  public static List<Driver> load(Path snapshot, Path driverFile) throws IOException {
+    BasicFileAttributes text = Files.readAttributes(driverFile, BasicFileAttributes.class);
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES + 4 || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      bytes.order(ByteOrder.LITTLE_ENDIAN);
+      if (bytes.getInt(0) != MAGIC || bytes.getInt(4) != VERSION || bytes.getLong(8) != text.size()
+          || bytes.getLong(16) != text.lastModifiedTime().to(TimeUnit.NANOSECONDS)) {
+        return null;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes.duplicate().limit((int) size - 4));
+      if ((int) crc.getValue() != bytes.getInt((int) size - 4)) {
+        return null;
+      }
+      return decode(bytes.position(24).limit((int) size - 4));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private static List<Driver> decode(ByteBuffer bytes) {
+    String[] locations = new String[bytes.getInt()];
+    int count = bytes.getInt();
+    byte[] scratch = new byte[0xffff];
+    for (int i = 0; i < locations.length; i++) {
+      locations[i] = string(bytes, scratch);
+    }
+    List<Driver> drivers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String location = locations[bytes.getInt()]; // The same String for every driver there, so registering it is one lookup
+      int load = bytes.getInt();
+      drivers.add(new Driver(string(bytes, scratch), location, load));
+    }
+    return drivers;
+  }
+
+  // Reads a length-prefixed UTF-8 string through a scratch array
+  private static String string(ByteBuffer bytes, byte[] scratch) {
+    int length = bytes.getShort() & 0xffff;
+    bytes.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes a snapshot of drivers just read from the driver file, replacing any earlier snapshot in
+   * one step.
+   * @param snapshot the snapshot file.
+   * @param size the size of the driver file, taken before it was read.
+   * @param modified the modification time of the driver file in nanoseconds, taken before it was read.
+   * @param drivers the drivers read, still with the loads written in the driver file.
+   * @throws IOException if the snapshot cannot be written.
+   */
+  public static void write(Path snapshot, long size, long modified, List<Driver> drivers) throws IOException {
+    Map<Integer, Integer> indexes = new HashMap<>();
+    List<byte[]> locations = new ArrayList<>();
+    byte[][] names = new byte[drivers.size()][];
+    long bytes = HEADER_BYTES + 4;
+    for (int i = 0; i < names.length; i++) {
+      Driver driver = drivers.get(i);
+      if (!indexes.containsKey(driver.getLocationId())) {
+        indexes.put(driver.getLocationId(), locations.size());
+        byte[] location = utf8(driver.getLocation());
+        locations.add(location);
+        bytes += 2 + location.length;
+      }
+      names[i] = utf8(driver.getName());
+      bytes += 10 + names[i].length;
+    }
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IOException("Too many drivers for a snapshot");
+    }
+    ByteBuffer out = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+    out.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified).putInt(locations.size()).putInt(names.length);
+    for (byte[] location : locations) {
+      out.putShort((short) location.length).put(location);
+    }
+    for (int i = 0; i < names.length; i++) {
+      out.putInt(indexes.get(drivers.get(i).getLocationId())).putInt(drivers.get(i).getLoad()).putShort((short) names[i].length).put(names[i]);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(out.array(), 0, out.position());
+    out.putInt((int) crc.getValue());
+    out.flip();
+
+    Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+      channel.force(true);
+    }
+    Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static byte[] utf8(String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0xffff) {
+      throw new IOException("Name too long for a snapshot: " + value.substring(0, 40) + "...");
+    }
+    return bytes;
+  }
+}
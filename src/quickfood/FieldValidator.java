@@ -0,0 +1,101 @@
+package quickfood;
+
+/*FieldValidator checks order fields by scanning their characters once, instead of running
+  String.matches, which compiles a regular expression on every call. Each check accepts exactly
+  what the pattern named in its comment accepts, and none of them allocate.
+*/
+public class FieldValidator {
+
+  // [a-zA-Z ]+
+  public static boolean isLetters(String value) {
+    int length = value.length();
+    if (length == 0) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (!isLetter(c) && c != ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // \d+
+  public static boolean isDigits(String value) {
+    int length = value.length();
+    if (length == 0) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (!isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // [a-zA-Z0-9 ]+
+  public static boolean isAlphanumeric(String value) {
+    int length = value.length();
+    if (length == 0) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (!isLetter(c) && !isDigit(c) && c != ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\.[a-zA-Z]{2,6}$
+    The domain cannot contain '@' and the top-level part cannot contain '.', so the address is valid
+    when the local part runs up to the first '@' and the top-level part follows the last '.'.
+  */
+  public static boolean isEmail(String value) {
+    int length = value.length();
+    int at = -1;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '@') {
+        at = i;
+        break;
+      }
+      if (!isLetter(c) && !isDigit(c) && c != '.' && c != '_' && c != '%' && c != '+' && c != '-') {
+        return false;
+      }
+    }
+    if (at < 1) {
+      return false;
+    }
+    int lastDot = -1;
+    for (int i = at + 1; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '.') {
+        lastDot = i;
+      } else if (!isLetter(c) && !isDigit(c) && c != '-') {
+        return false;
+      }
+    }
+    int topLevelLength = length - lastDot - 1;
+    if (lastDot < at + 2 || topLevelLength < 2 || topLevelLength > 6) {
+      return false;
+    }
+    for (int i = lastDot + 1; i < length; i++) {
+      if (!isLetter(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
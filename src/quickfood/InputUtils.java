@@ -15,7 +15,7 @@ public class InputUtils {
     while (true) {
       System.out.print(prompt);
       String input = scanner.nextLine();
-      if (input.matches("[a-zA-Z ]+")) {
+      if (FieldValidator.isLetters(input)) {
         return input;
       } else {
         System.out.println("Invalid input. Please enter letters only.");
@@ -23,6 +23,24 @@ public class InputUtils {
     }
   }
 
+  /**
+   * Prompts the user to enter a location that dispatch knows, consisting of letters and spaces only.
+   * @param scanner the Scanner object to read input from the user.
+   * @param prompt the prompt message to display to the user.
+   * @return a valid location input registered with LocationRegistry.
+   * @throws InvalidInputException if the input does not match the expected pattern.
+   */
+  public static String getLocationInput(Scanner scanner, String prompt) throws InvalidInputException {
+    while (true) {
+      String input = getStringInput(scanner, prompt);
+      if (LocationRegistry.lookup(input) != LocationRegistry.UNKNOWN) {
+        return input;
+      } else {
+        System.out.println("No drivers serve '" + input.trim() + "'. Please enter a location we deliver from.");
+      }
+    }
+  }
+
   /**
    * Prompts the user to enter a contact number consisting of digits only.
    * @param scanner the Scanner object to read input from the user.
@@ -34,7 +52,7 @@ public class InputUtils {
     while (true) {
       System.out.print(prompt);
       String input = scanner.nextLine();
-      if (input.matches("\\d+")) {
+      if (FieldValidator.isDigits(input)) {
         return input;
       } else {
         System.out.println("Invalid input. Please enter numbers only.");
@@ -53,7 +71,7 @@ public class InputUtils {
     while (true) {
       System.out.print(prompt);
       String input = scanner.nextLine();
-      if (input.matches("[a-zA-Z0-9 ]+")) {
+      if (FieldValidator.isAlphanumeric(input)) {
         return input;
       } else {
         System.out.println("Invalid input. Please enter letters and numbers only.");
@@ -110,7 +128,7 @@ public class InputUtils {
     while (true) {
       System.out.print(prompt);
       String input = scanner.nextLine();
-      if (input.matches("^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,6}$")) {
+      if (FieldValidator.isEmail(input)) {
         return input;
       } else {
         System.out.println("Invalid input. Please enter a valid email address.");
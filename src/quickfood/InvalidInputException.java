@@ -9,8 +9,21 @@ public class InvalidInputException extends Exception {
   */
   private static final long serialVersionUID = 1L; // This ensures version compatibility during deserialization.
 
+  private final String field;
+
   //Constructs a new InvalidInputException with the specified detail message.
   public InvalidInputException(String message) {
+    this(null, message);
+  }
+
+  //Constructs a new InvalidInputException for an invalid field, named as in the bulk and HTTP formats.
+  public InvalidInputException(String field, String message) {
     super(message);
+    this.field = field;
+  }
+
+  // Returns the name of the invalid field, or null if the input as a whole was malformed
+  public String getField() {
+    return field;
   }
 }
\ No newline at end of file
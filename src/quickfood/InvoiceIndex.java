@@ -0,0 +1,272 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*InvoiceIndex is an on-disk hash table from a 64-bit key to the offset of the newest invoice record
+  with that key, memory-mapped so that a lookup touches one or two slots however large the store is.
+  Older records with the same key are reached through the back pointers stored in the records.
+
+  The file starts with a header (magic, whether it was closed cleanly, slot count, entry count and
+  the length of the data file the index covers), followed by the slots: a key and the record offset
+  plus one, zero marking an empty slot. Slots are probed linearly and the table doubles once it is
+  half full. Slots are addressed with 64-bit positions and the file is mapped in 1GB segments, since
+  one mapping cannot exceed 2GB, so the table has no size limit but the disk.
+
+  A new or rehashed table is written next to the index and renamed over it, so the file is never
+  truncated under a reader. An index opened read-only by openReadOnly() is never written, so a query
+  cannot disturb the process that owns the store; it is either as it was last closed, or shared
+  with a writer that has it open, whose indexed length is only raised once the slots below it are in.
+  Keys are written into a slot before their values, so a lookup never follows a half-written slot.
+*/
+final class InvoiceIndex implements AutoCloseable {
+  private static final int MAGIC = 0x51464959; // "QFIY"; the older "QFIX" layout had 32-bit slot counts
+  private static final int HEADER_BYTES = 32;
+  private static final int SLOT_BYTES = 16;
+  private static final long INITIAL_SLOTS = 1 << 12;
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  private final Path file;
+  private FileChannel channel;
+  private MappedByteBuffer[] segments;
+  private long slots;
+  private long size;
+  private final boolean closedCleanly;
+  private final boolean readOnly;
+
+  /**
+   * Opens the index file, creating an empty index if it is missing or not a valid index.
+   * @param file the index file.
+   * @throws IOException if the file cannot be opened.
+   */
+  InvoiceIndex(Path file) throws IOException {
+    this.file = file;
+    open();
+    if (segments[0].getInt(0) != MAGIC || segments[0].getLong(8) != slots) {
+      close();
+      create(file, INITIAL_SLOTS);
+      open();
+    }
+    this.size = segments[0].getLong(16);
+    // Pages of a mapped file reach the disk in any order, so only a clean close vouches for every slot
+    this.closedCleanly = segments[0].getInt(4) == 1;
+    this.readOnly = false;
+    segments[0].putInt(4, 0);
+    segments[0].force();
+  }
+
+  private InvoiceIndex(Path file, FileChannel channel, MappedByteBuffer[] segments) {
+    this.file = file;
+    this.channel = channel;
+    this.segments = segments;
+    this.slots = segments[0].getLong(8);
+    this.size = segments[0].getLong(16);
+    this.closedCleanly = true;
+    this.readOnly = true;
+  }
+
+  /**
+   * Opens an index for lookups only, without writing anything to it.
+   * @param file the index file.
+   * @param writerOpen whether a live writer has the index open, so that it is shared through the page
+   *     cache rather than read as closed, and is good up to its indexed length without a clean close.
+   * @return the index, or null if the file is missing, not a valid index or, unless writerOpen, was not closed cleanly.
+   * @throws IOException if the file cannot be read.
+   */
+  static InvoiceIndex openReadOnly(Path file, boolean writerOpen) throws IOException {
+    if (!Files.exists(file) || Files.size(file) < HEADER_BYTES) {
+      return null;
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    long length = channel.size();
+    MappedByteBuffer[] segments = map(channel, FileChannel.MapMode.READ_ONLY, length);
+    long slots = segments[0].getLong(8);
+    if (segments[0].getInt(0) != MAGIC || (!writerOpen && segments[0].getInt(4) != 1) || slots <= 0 || Long.bitCount(slots) != 1
+        || slots > (length - HEADER_BYTES) / SLOT_BYTES) {
+      channel.close();
+      return null;
+    }
+    return new InvoiceIndex(file, channel, segments);
+  }
+
+  private void open() throws IOException {
+    if (!Files.exists(file) || Files.size(file) < HEADER_BYTES) {
+      create(file, INITIAL_SLOTS);
+    }
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long length = channel.size();
+    slots = Long.highestOneBit(Math.max(1, (length - HEADER_BYTES) / SLOT_BYTES));
+    segments = map(channel, FileChannel.MapMode.READ_WRITE, length);
+  }
+
+  // Maps the file in segments of up to 1GB; a slot never straddles two, as segments and slots are 16-byte aligned
+  private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long length) throws IOException {
+    MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+    for (int i = 0; i < segments.length; i++) {
+      long start = (long) i << SEGMENT_SHIFT;
+      segments[i] = channel.map(mode, start, Math.min(SEGMENT_MASK + 1, length - start));
+    }
+    return segments;
+  }
+
+  // Writes an empty index with the given number of slots, next to the file and then renamed over it
+  private static void create(Path file, long slots) throws IOException {
+    Path empty = file.resolveSibling(file.getFileName() + ".new");
+    try (FileChannel channel = FileChannel.open(empty, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC).putLong(8, slots), 0);
+      // Writing the last slot sizes the file; the slots before it read as zero
+      channel.write(ByteBuffer.allocate(SLOT_BYTES), HEADER_BYTES + (slots - 1) * SLOT_BYTES);
+      channel.force(true);
+    }
+    Files.move(empty, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Returns the offset of the newest record with the key.
+   * @param key the key.
+   * @return the record offset, or -1 if no record has the key.
+   */
+  long get(long key) {
+    long mask = slots - 1;
+    for (long slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+      long at = HEADER_BYTES + slot * SLOT_BYTES;
+      long value = getLong(segments, at + 8);
+      if (value == 0) {
+        return -1;
+      }
+      if (getLong(segments, at) == key) {
+        return value - 1;
+      }
+    }
+  }
+
+  /**
+   * Makes room for the given number of new keys, so that putting them cannot fail.
+   * @param keys the number of keys about to be put.
+   * @throws IOException if the index has to grow and the larger file cannot be written.
+   */
+  void reserve(int keys) throws IOException {
+    while ((size + keys) * 2 > slots) {
+      grow();
+    }
+  }
+
+  /**
+   * Points the key at a record, replacing the record it pointed at before.
+   * @param key the key.
+   * @param offset the offset of the record in the data file.
+   * @throws IOException if the index has to grow and the larger file cannot be written.
+   */
+  void put(long key, long offset) throws IOException {
+    if (insert(segments, slots, key, offset + 1)) {
+      size++;
+      segments[0].putLong(16, size);
+      if (size * 2 > slots) {
+        grow();
+      }
+    }
+  }
+
+  // Returns whether the key was new
+  private static boolean insert(MappedByteBuffer[] segments, long slots, long key, long value) {
+    long mask = slots - 1;
+    for (long slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+      long at = HEADER_BYTES + slot * SLOT_BYTES;
+      long existing = getLong(segments, at + 8);
+      if (existing == 0 || getLong(segments, at) == key) {
+        // The key goes in before the value, so a reader that finds the value finds its key
+        putLong(segments, at, key);
+        putLong(segments, at + 8, value);
+        return existing == 0;
+      }
+    }
+  }
+
+  // Rehashes into a file twice the size, written next to the index and renamed over it when complete
+  private void grow() throws IOException {
+    Path larger = file.resolveSibling(file.getFileName() + ".tmp");
+    long newSlots = slots * 2;
+    create(larger, newSlots);
+    try (FileChannel target = FileChannel.open(larger, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer[] newSegments = map(target, FileChannel.MapMode.READ_WRITE, target.size());
+      for (long slot = 0; slot < slots; slot++) {
+        long at = HEADER_BYTES + slot * SLOT_BYTES;
+        long value = getLong(segments, at + 8);
+        if (value != 0) {
+          insert(newSegments, newSlots, getLong(segments, at), value);
+        }
+      }
+      newSegments[0].putLong(16, size);
+      newSegments[0].putLong(24, getIndexedLength());
+      for (MappedByteBuffer segment : newSegments) {
+        segment.force();
+      }
+    }
+    channel.close();
+    Files.move(larger, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    open();
+  }
+
+  private static long getLong(MappedByteBuffer[] segments, long at) {
+    return segments[(int) (at >>> SEGMENT_SHIFT)].getLong((int) (at & SEGMENT_MASK));
+  }
+
+  private static void putLong(MappedByteBuffer[] segments, long at, long value) {
+    segments[(int) (at >>> SEGMENT_SHIFT)].putLong((int) (at & SEGMENT_MASK), value);
+  }
+
+  private static long slot(long key, long mask) {
+    long hash = key * 0x9e3779b97f4a7c15L;
+    return (hash ^ (hash >>> 32)) & mask;
+  }
+
+  // Returns the length of the data file whose records are all in the index
+  long getIndexedLength() {
+    return segments[0].getLong(24);
+  }
+
+  void setIndexedLength(long length) {
+    segments[0].putLong(24, length);
+  }
+
+  // Returns the number of distinct keys
+  long size() {
+    return size;
+  }
+
+  // Returns whether the index was closed cleanly last time; if not, it has to be rebuilt from the data
+  boolean wasClosedCleanly() {
+    return closedCleanly;
+  }
+
+  // Empties the index so it can be rebuilt from the data file
+  void clear() throws IOException {
+    channel.close();
+    create(file, INITIAL_SLOTS);
+    open();
+    size = 0;
+  }
+
+  // Writes the index to disk and marks it as closed cleanly
+  @Override
+  public void close() throws IOException {
+    if (readOnly) {
+      channel.close();
+      return;
+    }
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+    segments[0].putInt(4, 1);
+    segments[0].force();
+    channel.close();
+  }
+}
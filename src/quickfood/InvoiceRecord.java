@@ -0,0 +1,279 @@
+package quickfood;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*InvoiceRecord holds the fields an invoice is rendered from, so invoices can be stored in compact
+  binary form and turned into text only when someone reads them. render() produces exactly the text
+  that was previously appended to invoice.txt.
+*/
+public final class InvoiceRecord {
+  private static final byte DELIVERY = 0;
+  private static final byte UNAVAILABLE = 1;
+  private static final String SEPARATOR = "--------------------------------------------------------";
+
+  private final boolean delivery;
+  private final int orderNumber;
+  private final String customerName;
+  private final String customerAddress;
+  private final String customerLocation;
+  private final String customerEmail;
+  private final String restaurantName;
+  private final String restaurantLocation;
+  private final String driverName;
+  private final String[] mealNames;
+  private final int[] quantities;
+  private final long[] priceCents;
+  private final double totalAmount;
+  private final String specialInstructions;
+
+  private InvoiceRecord(boolean delivery, int orderNumber, String customerName, String customerAddress,
+      String customerLocation, String customerEmail, String restaurantName, String restaurantLocation,
+      String driverName, String[] mealNames, int[] quantities, long[] priceCents, double totalAmount,
+      String specialInstructions) {
+    this.delivery = delivery;
+    this.orderNumber = orderNumber;
+    this.customerName = customerName;
+    this.customerAddress = customerAddress;
+    this.customerLocation = customerLocation;
+    this.customerEmail = customerEmail;
+    this.restaurantName = restaurantName;
+    this.restaurantLocation = restaurantLocation;
+    this.driverName = driverName;
+    this.mealNames = mealNames;
+    this.quantities = quantities;
+    this.priceCents = priceCents;
+    this.totalAmount = totalAmount;
+    this.specialInstructions = specialInstructions;
+  }
+
+  /**
+   * Creates the invoice for an order that was assigned to a driver.
+   * @param order the order.
+   * @param driver the driver assigned to the order.
+   * @return the invoice record.
+   */
+  public static InvoiceRecord of(Order order, Driver driver) {
+    Customer customer = order.getCustomer();
+    OrderLines lines = order.getLines();
+    String[] names = new String[lines.size()];
+    int[] quantities = new int[lines.size()];
+    long[] cents = new long[lines.size()];
+    for (int i = 0; i < lines.size(); i++) {
+      names[i] = lines.getName(i);
+      quantities[i] = lines.getQuantity(i);
+      cents[i] = lines.getPriceCents(i);
+    }
+    return new InvoiceRecord(true, customer.getOrderNumber(), customer.getName(), customer.getAddress(),
+        customer.getLocation(), customer.getEmail(), order.getRestaurant().getName(),
+        order.getRestaurant().getLocation(), driver.getName(), names, quantities, cents,
+        order.getTotalAmount(), order.getSpecialInstructions());
+  }
+
+  /**
+   * Creates the invoice telling a customer that delivery is not available.
+   * @param customer the customer.
+   * @return the invoice record.
+   */
+  public static InvoiceRecord unavailable(Customer customer) {
+    return new InvoiceRecord(false, customer.getOrderNumber(), customer.getName(), customer.getAddress(),
+        customer.getLocation(), customer.getEmail(), null, null, null, null, null, null, 0, null);
+  }
+
+  // Returns whether a driver was assigned, as opposed to delivery being unavailable
+  public boolean isDelivery() {
+    return delivery;
+  }
+
+  public int getOrderNumber() {
+    return orderNumber;
+  }
+
+  public String getCustomerEmail() {
+    return customerEmail;
+  }
+
+  // Returns the name of the driver assigned, or null if delivery was unavailable
+  public String getDriverName() {
+    return driverName;
+  }
+
+  public String getRestaurantLocation() {
+    return restaurantLocation;
+  }
+
+  /**
+   * Renders the invoice text, one field per line.
+   * @return the invoice text, including the trailing separator line.
+   */
+  public String render() {
+    StringBuilder invoice = new StringBuilder(delivery ? 512 : 256);
+    line(invoice, "Invoice:");
+    line(invoice, "Customer Name: " + customerName);
+    line(invoice, "Order Number: " + orderNumber);
+    line(invoice, "Customer Address: " + customerAddress);
+    line(invoice, "Customer Location: " + customerLocation);
+    line(invoice, "Customer Email: " + customerEmail);
+    if (!delivery) {
+      line(invoice, "Sorry! Our drivers are too far away from you to be able to deliver to your location.");
+      line(invoice, SEPARATOR);
+      return invoice.toString();
+    }
+    line(invoice, "Restaurant Name: " + restaurantName);
+    line(invoice, "Restaurant Location: " + restaurantLocation);
+    line(invoice, "Driver Name: " + driverName);
+    line(invoice, "Order Details:");
+    for (int i = 0; i < mealNames.length; i++) {
+      line(invoice, "Meal: " + mealNames[i] + ", Quantity: " + quantities[i] + ", Price: $" + priceCents[i] / 100.0);
+    }
+    line(invoice, "Total Amount: $" + totalAmount);
+    line(invoice, "Special Instructions: " + specialInstructions);
+    line(invoice, SEPARATOR);
+    return invoice.toString();
+  }
+
+  // Appends a line using the platform line separator, as BufferedWriter.newLine() did
+  private static void line(StringBuilder invoice, String text) {
+    invoice.append(text).append(System.lineSeparator());
+  }
+
+  // Returns an upper bound on the number of bytes encode() writes
+  int maxEncodedSize() {
+    int size = 5 + maxSize(customerName) + maxSize(customerAddress) + maxSize(customerLocation) + maxSize(customerEmail);
+    if (delivery) {
+      size += maxSize(restaurantName) + maxSize(restaurantLocation) + maxSize(driverName)
+          + maxSize(specialInstructions) + 4 + 8;
+      for (String name : mealNames) {
+        size += maxSize(name) + 4 + 8;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Writes the record in binary form.
+   * @param out the buffer to write to; it must have room for maxEncodedSize() bytes.
+   */
+  void encode(ByteBuffer out) {
+    out.put(delivery ? DELIVERY : UNAVAILABLE);
+    out.putInt(orderNumber);
+    putString(out, customerName);
+    putString(out, customerAddress);
+    putString(out, customerLocation);
+    putString(out, customerEmail);
+    if (delivery) {
+      putString(out, restaurantName);
+      putString(out, restaurantLocation);
+      putString(out, driverName);
+      out.putInt(mealNames.length);
+      for (int i = 0; i < mealNames.length; i++) {
+        putString(out, mealNames[i]);
+        out.putInt(quantities[i]);
+        out.putLong(priceCents[i]);
+      }
+      out.putLong(Double.doubleToRawLongBits(totalAmount));
+      putString(out, specialInstructions);
+    }
+  }
+
+  /**
+   * Reads a record written by encode().
+   * @param in the buffer positioned at the start of the record.
+   * @return the record.
+   */
+  static InvoiceRecord decode(ByteBuffer in) {
+    boolean delivery = in.get() == DELIVERY;
+    int orderNumber = in.getInt();
+    String customerName = getString(in);
+    String customerAddress = getString(in);
+    String customerLocation = getString(in);
+    String customerEmail = getString(in);
+    if (!delivery) {
+      return new InvoiceRecord(false, orderNumber, customerName, customerAddress, customerLocation,
+          customerEmail, null, null, null, null, null, null, 0, null);
+    }
+    String restaurantName = getString(in);
+    String restaurantLocation = getString(in);
+    String driverName = getString(in);
+    int count = in.getInt();
+    String[] names = new String[count];
+    int[] quantities = new int[count];
+    long[] cents = new long[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = getString(in);
+      quantities[i] = in.getInt();
+      cents[i] = in.getLong();
+    }
+    double totalAmount = Double.longBitsToDouble(in.getLong());
+    String specialInstructions = getString(in);
+    return new InvoiceRecord(true, orderNumber, customerName, customerAddress, customerLocation, customerEmail,
+        restaurantName, restaurantLocation, driverName, names, quantities, cents, totalAmount, specialInstructions);
+  }
+
+  /**
+   * Adds a record written by encode() to report totals, decoding only the fields they need.
+   * @param in the buffer positioned at the start of the record; any kind of buffer, including a mapped one.
+   * @param totals the totals to add to.
+   * @param scratch a buffer for decoding strings, at least as long as the longest string.
+   */
+  static void tally(ByteBuffer in, InvoiceReport.Totals totals, byte[] scratch) {
+    boolean delivery = in.get() == DELIVERY;
+    in.getInt(); // Order number
+    skipString(in); // Customer name
+    skipString(in); // Address
+    String location = readString(in, scratch);
+    if (!delivery) {
+      totals.unavailable(location);
+      return;
+    }
+    skipString(in); // Email
+    String restaurant = readString(in, scratch);
+    String restaurantLocation = readString(in, scratch);
+    String driver = readString(in, scratch);
+    int count = in.getInt();
+    for (int i = 0; i < count; i++) {
+      skipString(in);
+      in.position(in.position() + 12); // Quantity and price
+    }
+    totals.delivered(location, restaurant, restaurantLocation, driver, Math.round(Double.longBitsToDouble(in.getLong()) * 100));
+  }
+
+  private static void skipString(ByteBuffer in) {
+    int length = in.getInt();
+    in.position(in.position() + Math.max(0, length));
+  }
+
+  private static String readString(ByteBuffer in, byte[] scratch) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+    in.get(bytes, 0, length);
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  // A null string is stored with length -1 so that it renders as "null", as string concatenation did
+  private static int maxSize(String value) {
+    return 4 + (value == null ? 0 : 3 * value.length());
+  }
+
+  private static void putString(ByteBuffer out, String value) {
+    if (value == null) {
+      out.putInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.putInt(bytes.length).put(bytes);
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+}
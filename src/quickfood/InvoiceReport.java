@@ -0,0 +1,380 @@
+package quickfood;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+/*InvoiceReport totals the invoice store for reporting: revenue and orders per restaurant,
+  deliveries per driver, and per customer location the share of orders for which no driver was
+  available. It reads the store's data file directly, so it can run while orders are being taken.
+
+  The data file is memory-mapped in windows of up to 1GB, and each window cut at even offsets into
+  chunks that are checked against their CRCs and tallied in parallel on the common fork-join pool.
+  A chunk finds its first record itself, by scanning forward for a frame whose length is in range,
+  whose back links point before it and whose CRC matches, so no serial pass over the records is
+  needed. The partial totals are merged in file order, and a chunk that does not start where the one
+  before it ended, because the scan was fooled by bytes inside a record, is tallied again from there.
+  Only the fields the totals need are decoded.
+
+  An incremental run starts from a checkpoint of the totals and the data length they cover, and
+  reads only the records appended since. The checkpoint also keeps the CRC of the last record it
+  covers; if the data file is shorter or that record no longer matches, the store was replaced and
+  the whole file is read again. Reading stops at a partly written record at the end of the file, which
+  the next run picks up once it is complete.
+*/
+public final class InvoiceReport {
+  private static final int CHECKPOINT_MAGIC = 0x51464952; // "QFIR"
+  private static final long MAX_WINDOW = 1L << 30; // A mapping cannot exceed 2GB
+  private static final int MIN_CHUNK = 1 << 20;
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private InvoiceReport() {
+  }
+
+  // Totals over a range of invoices; mergeable, so each chunk can be tallied on its own
+  public static final class Totals {
+    private final Map<String, long[]> restaurants = new HashMap<>(); // "name, location" -> orders, cents
+    private final Map<String, long[]> drivers = new HashMap<>();     // Name -> deliveries
+    private final Map<String, long[]> locations = new HashMap<>();   // Customer location -> orders, no driver
+    private long invoices;
+    private long length;  // Data file bytes covered
+    private int lastCrc;  // CRC of the last record covered
+
+    void delivered(String location, String restaurant, String restaurantLocation, String driver, long cents) {
+      invoices++;
+      long[] sales = restaurants.computeIfAbsent(restaurant + ", " + restaurantLocation, key -> new long[2]);
+      sales[0]++;
+      sales[1] += cents;
+      drivers.computeIfAbsent(driver, key -> new long[1])[0]++;
+      locations.computeIfAbsent(location, key -> new long[2])[0]++;
+    }
+
+    void unavailable(String location) {
+      invoices++;
+      long[] orders = locations.computeIfAbsent(location, key -> new long[2]);
+      orders[0]++;
+      orders[1]++;
+    }
+
+    // Adds another range's totals to these
+    void merge(Totals other) {
+      invoices += other.invoices;
+      add(restaurants, other.restaurants);
+      add(drivers, other.drivers);
+      add(locations, other.locations);
+    }
+
+    private static void add(Map<String, long[]> into, Map<String, long[]> from) {
+      for (Map.Entry<String, long[]> entry : from.entrySet()) {
+        long[] counts = into.get(entry.getKey());
+        if (counts == null) {
+          into.put(entry.getKey(), entry.getValue().clone());
+        } else {
+          for (int i = 0; i < counts.length; i++) {
+            counts[i] += entry.getValue()[i];
+          }
+        }
+      }
+    }
+
+    public long getInvoices() {
+      return invoices;
+    }
+
+    // Returns the number of bytes of invoice data these totals cover
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * Prints the report, each section sorted by name.
+     * @param out where to print it.
+     */
+    public void print(PrintStream out) {
+      out.println("Invoices: " + invoices);
+      out.println("Revenue per restaurant:");
+      new TreeMap<>(restaurants).forEach((restaurant, sales) -> out.printf(Locale.ROOT, "  %s: %d orders, $%d.%02d%n",
+          restaurant, sales[0], sales[1] / 100, Math.abs(sales[1] % 100)));
+      out.println("Deliveries per driver:");
+      new TreeMap<>(drivers).forEach((driver, count) -> out.println("  " + driver + ": " + count[0]));
+      out.println("No driver available, per customer location:");
+      new TreeMap<>(locations).forEach((location, orders) -> out.printf(Locale.ROOT, "  %s: %d of %d orders (%.1f%%)%n",
+          location, orders[1], orders[0], 100.0 * orders[1] / orders[0]));
+    }
+  }
+
+  /**
+   * Totals the invoices in a store directory, carrying on from a checkpoint if one is given and
+   * still matches the data, and then writing the checkpoint for the next run.
+   * @param directory the invoice store directory.
+   * @param checkpoint the checkpoint file, or null to read the whole store without one.
+   * @return the totals over every complete invoice in the store.
+   * @throws IOException if the data cannot be read, holds a corrupt record, or the checkpoint cannot be written.
+   */
+  public static Totals run(Path directory, Path checkpoint) throws IOException {
+    Path data = directory.resolve(InvoiceStore.DATA_FILE);
+    try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+      long size = channel.size();
+      Totals totals = checkpoint == null ? null : readCheckpoint(checkpoint);
+      if (totals != null && (totals.length > size || (totals.length > 0 && lastCrc(channel, totals.length) != totals.lastCrc))) {
+        totals = null; // The store was replaced since the checkpoint
+      }
+      if (totals == null) {
+        totals = new Totals();
+      }
+      tally(channel, totals, size);
+      if (checkpoint != null) {
+        writeCheckpoint(checkpoint, totals);
+      }
+      return totals;
+    } catch (NoSuchFileException e) {
+      return new Totals();
+    }
+  }
+
+  // Tallies the records from totals.length to the end of the last complete record before size
+  private static void tally(FileChannel channel, Totals totals, long size) throws IOException {
+    int threads = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    while (totals.length + InvoiceStore.FRAME_BYTES <= size) {
+      long start = totals.length;
+      long windowEnd = Math.min(size, start + MAX_WINDOW);
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowEnd - start);
+      int limit = window.limit();
+      int chunkBytes = (int) Math.max(MIN_CHUNK, limit / ((long) threads * CHUNKS_PER_THREAD));
+
+      // Cut the window at even offsets; every chunk but the first finds its own first record
+      List<ChunkTask> tasks = new ArrayList<>();
+      for (int from = 0; from < limit; from += chunkBytes) {
+        tasks.add(new ChunkTask(window, start, from, (int) Math.min(limit, (long) from + chunkBytes), from == 0));
+      }
+
+      // Each chunk must start where the one before it ended; one that guessed wrong is tallied again from there
+      int end = 0;
+      boolean stopped = false;
+      for (ChunkTask task : ForkJoinPool.commonPool().invoke(new AllChunksTask(tasks))) {
+        if (end >= task.until) {
+          continue; // A record starting in an earlier chunk covers this one
+        }
+        if (task.first != end) {
+          task = new ChunkTask(window, start, end, task.until, true);
+          task.compute();
+        }
+        if (task.corruptAt >= 0) {
+          // Only the last record may fail its check, if it was still being written
+          int next = (int) (task.corruptAt - start) + InvoiceStore.FRAME_BYTES + window.getInt((int) (task.corruptAt - start));
+          if (task.badLength || windowEnd != size
+              || (next + InvoiceStore.FRAME_BYTES <= limit && (long) next + InvoiceStore.FRAME_BYTES + window.getInt(next) <= limit)) {
+            throw new IOException("Corrupt invoice record at offset " + task.corruptAt);
+          }
+          totals.merge(task.totals);
+          end = (int) (task.corruptAt - start);
+          stopped = true;
+          break;
+        }
+        totals.merge(task.totals);
+        end = task.end;
+        if (end < task.until) {
+          break; // The next record does not fit in the window
+        }
+      }
+      if (end == 0) {
+        if (windowEnd == size) {
+          return; // Only a partly written record is left
+        }
+        throw new IOException("Invoice record at offset " + start + " is too large to map");
+      }
+      totals.lastCrc = window.getInt(end - 4);
+      totals.length = start + end;
+      if (stopped) {
+        return;
+      }
+    }
+  }
+
+  // Runs every chunk in parallel and returns them in file order
+  private static final class AllChunksTask extends RecursiveTask<List<ChunkTask>> {
+    private static final long serialVersionUID = 1L;
+    private final List<ChunkTask> tasks;
+
+    AllChunksTask(List<ChunkTask> tasks) {
+      this.tasks = tasks;
+    }
+
+    @Override
+    protected List<ChunkTask> compute() {
+      invokeAll(tasks);
+      return tasks;
+    }
+  }
+
+  // Checks and tallies the whole records that start in one chunk of a mapped window
+  private static final class ChunkTask extends RecursiveTask<Totals> {
+    private static final long serialVersionUID = 1L;
+    private final transient ByteBuffer window;
+    private final long position; // Of the window in the data file
+    private final int from;      // Offsets in the window of the chunk
+    private final int until;
+    private final boolean aligned; // Whether a record is known to start at from
+    private final transient Totals totals = new Totals();
+    private int first = -1;        // Offset in the window of the first record tallied, or -1 if none was found
+    private int end;               // Offset in the window after the last record tallied
+    private long corruptAt = -1;   // Offset in the data file of a record that failed its check
+    private boolean badLength;     // Whether that record's length was out of range
+
+    ChunkTask(ByteBuffer window, long position, int from, int until, boolean aligned) {
+      this.window = window;
+      this.position = position;
+      this.from = from;
+      this.until = until;
+      this.aligned = aligned;
+    }
+
+    @Override
+    protected Totals compute() {
+      CRC32 crc = new CRC32();
+      first = aligned ? from : find(crc);
+      if (first < 0) {
+        return totals;
+      }
+      byte[] scratch = new byte[1024];
+      int limit = window.limit();
+      int offset = first;
+      while (offset < until && offset + InvoiceStore.FRAME_BYTES <= limit) {
+        int length = window.getInt(offset);
+        if (length < InvoiceStore.LINK_BYTES || length > InvoiceStore.MAX_RECORD) {
+          corruptAt = position + offset;
+          badLength = true;
+          break;
+        }
+        if (offset + InvoiceStore.FRAME_BYTES + length > limit) {
+          break; // Partly written, or continued in the next window
+        }
+        int payload = offset + 4;
+        if (!crcMatches(crc, payload, length)) {
+          corruptAt = position + offset;
+          break;
+        }
+        InvoiceRecord.tally(window.duplicate().position(payload + InvoiceStore.LINK_BYTES).limit(payload + length), totals, scratch);
+        offset += InvoiceStore.FRAME_BYTES + length;
+      }
+      end = offset;
+      return totals;
+    }
+
+    // Returns the offset of the first frame starting in the chunk with a length in range, back links
+    // to earlier offsets and a matching CRC, or -1 if there is none; the record before it was torn or
+    // runs on past the chunk
+    private int find(CRC32 crc) {
+      int limit = window.limit();
+      for (int offset = from; offset < until && offset + InvoiceStore.FRAME_BYTES + InvoiceStore.LINK_BYTES <= limit; offset++) {
+        int length = window.getInt(offset);
+        if (length < InvoiceStore.LINK_BYTES || length > InvoiceStore.MAX_RECORD || offset + InvoiceStore.FRAME_BYTES + length > limit) {
+          continue;
+        }
+        long here = position + offset;
+        long order = window.getLong(offset + 4);
+        long email = window.getLong(offset + 12);
+        if (order < -1 || order >= here || email < -1 || email >= here) {
+          continue;
+        }
+        if (crcMatches(crc, offset + 4, length)) {
+          return offset;
+        }
+      }
+      return -1;
+    }
+
+    private boolean crcMatches(CRC32 crc, int payload, int length) {
+      crc.reset();
+      crc.update(window.duplicate().position(payload).limit(payload + length));
+      return (int) crc.getValue() == window.getInt(payload + length);
+    }
+  }
+
+  // Reads the CRC stored at the end of the record that ends at the given length of the data file
+  private static int lastCrc(FileChannel channel, long length) throws IOException {
+    ByteBuffer crc = ByteBuffer.allocate(4);
+    while (crc.hasRemaining()) {
+      if (channel.read(crc, length - 4 + crc.position()) < 0) {
+        return 0;
+      }
+    }
+    return crc.getInt(0);
+  }
+
+  private static Totals readCheckpoint(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      if (in.readInt() != CHECKPOINT_MAGIC) {
+        throw new IOException("Not an invoice report checkpoint: " + path);
+      }
+      Totals totals = new Totals();
+      totals.length = in.readLong();
+      totals.lastCrc = in.readInt();
+      totals.invoices = in.readLong();
+      readCounts(in, totals.restaurants, 2);
+      readCounts(in, totals.drivers, 1);
+      readCounts(in, totals.locations, 2);
+      return totals;
+    }
+  }
+
+  private static void readCounts(DataInputStream in, Map<String, long[]> counts, int width) throws IOException {
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      String key = in.readUTF();
+      long[] values = new long[width];
+      for (int j = 0; j < width; j++) {
+        values[j] = in.readLong();
+      }
+      counts.put(key, values);
+    }
+  }
+
+  // Writes the checkpoint to a temporary file and renames it over the old one in a single step
+  private static void writeCheckpoint(Path path, Totals totals) throws IOException {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeLong(totals.length);
+      out.writeInt(totals.lastCrc);
+      out.writeLong(totals.invoices);
+      writeCounts(out, totals.restaurants);
+      writeCounts(out, totals.drivers);
+      writeCounts(out, totals.locations);
+    }
+    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void writeCounts(DataOutputStream out, Map<String, long[]> counts) throws IOException {
+    out.writeInt(counts.size());
+    for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+      out.writeUTF(entry.getKey());
+      for (long value : entry.getValue()) {
+        out.writeLong(value);
+      }
+    }
+  }
+}
@@ -0,0 +1,537 @@
+package quickfood;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/*InvoiceStore keeps invoices as compact binary records in an append-only data file, with on-disk
+  indexes by order number and by customer email, so a lookup does not have to scan the file.
+  Records are rendered as text only when they are read; exportText() writes the whole store in the
+  format of the old invoice.txt.
+
+  Each record in invoices.dat is framed as an int length, the payload and a CRC32 of the payload.
+  The payload starts with the offsets of the previous record with the same order number and the
+  previous record with the same email (-1 for none), followed by the encoded InvoiceRecord. An index
+  maps a key to the newest record, and the back pointers lead to the older ones.
+
+  Data is written before the indexes point at it, and only the data file is forced to disk while the
+  store is open. The indexes are written out when the store is closed; if it was not closed cleanly,
+  a torn record at the end of the data file is cut off and both indexes are rebuilt from the data.
+
+  The process that writes the store holds an exclusive lock on the first byte of invoices.lock for
+  as long as it has the store open, and on the second until it has recovered the indexes. Queries
+  open a read-only view with openReadOnly(), which never truncates, rebuilds or marks anything.
+  While no writer runs, the view holds a shared lock, so a writer starting meanwhile waits for it,
+  and uses the indexes if they were closed cleanly. While a recovered writer runs, the view shares the writer's indexes through the page cache. The writer records in each index the
+  data length it covers only after every record up to there is in it, so the view trusts the
+  indexes up to that length and scans only the records appended since, up to the last complete one.
+  Nothing needs forcing to disk for this: a live writer's mapped pages are what the view reads. A
+  view scans the whole file only if an index is missing or was left unclean by a writer that died.
+*/
+public class InvoiceStore implements AutoCloseable {
+  static final String DATA_FILE = "invoices.dat";
+  private static final String ORDER_INDEX = "invoices.order.idx";
+  private static final String EMAIL_INDEX = "invoices.email.idx";
+  private static final String LOCK_FILE = "invoices.lock";
+  private static final long SESSION_LOCK = 0;  // Byte of the lock file a writer holds while the store is open
+  private static final long RECOVERY_LOCK = 1; // And until its indexes are recovered
+  static final int FRAME_BYTES = 8;
+  static final int LINK_BYTES = 16;
+  static final int MAX_RECORD = 1 << 24;
+  private static final int EXPORT_BLOCK = 1 << 20;
+
+  private final FileChannel data; // Null for a read-only view of a store that has no data file
+  private final InvoiceIndex byOrder; // Null for a read-only view that has to scan
+  private final InvoiceIndex byEmail;
+  private final FileChannel lockFile;
+  private final boolean readOnly;
+  private final CRC32 crc = new CRC32();
+  private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private long length;
+  private long indexed; // Records before this are in the indexes; a view scans those after it
+
+  /**
+   * Opens the store in the given directory for writing, creating it if needed. Waits while another
+   * process has the store open.
+   * @param directory the directory holding the data and index files.
+   * @throws IOException if the files cannot be opened or recovered.
+   */
+  public InvoiceStore(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    this.readOnly = false;
+    this.lockFile = FileChannel.open(directory.resolve(LOCK_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      lockFile.lock(SESSION_LOCK, 1, false); // Released when lockFile is closed
+      FileLock recovering = lockFile.lock(RECOVERY_LOCK, 1, false);
+      this.data = FileChannel.open(directory.resolve(DATA_FILE),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.byOrder = new InvoiceIndex(directory.resolve(ORDER_INDEX));
+      this.byEmail = new InvoiceIndex(directory.resolve(EMAIL_INDEX));
+      recover();
+      recovering.release(); // From here on the indexes are as good as their published lengths
+    } catch (IOException | RuntimeException e) {
+      lockFile.close();
+      throw e;
+    }
+  }
+
+  // A read-only view; lockFile is null if the directory does not exist, locked is whether no writer
+  // runs, and live whether one runs and has recovered, so that its open indexes can be used
+  private InvoiceStore(Path directory, FileChannel lockFile, boolean locked, boolean live) throws IOException {
+    this.readOnly = true;
+    this.lockFile = lockFile;
+    Path dataFile = directory.resolve(DATA_FILE);
+    this.data = Files.exists(dataFile) ? FileChannel.open(dataFile, StandardOpenOption.READ) : null;
+    long fileLength = data == null ? 0 : data.size();
+    InvoiceIndex order = locked || live ? InvoiceIndex.openReadOnly(directory.resolve(ORDER_INDEX), live) : null;
+    InvoiceIndex email = locked || live ? InvoiceIndex.openReadOnly(directory.resolve(EMAIL_INDEX), live) : null;
+    if (order == null || email == null || Math.min(order.getIndexedLength(), email.getIndexedLength()) > fileLength) {
+      if (order != null) {
+        order.close();
+      }
+      if (email != null) {
+        email.close();
+      }
+      order = null;
+      email = null;
+    }
+    this.byOrder = order;
+    this.byEmail = email;
+    this.indexed = byOrder == null ? 0 : Math.min(byOrder.getIndexedLength(), byEmail.getIndexedLength());
+    this.length = validLength(fileLength);
+  }
+
+  /**
+   * Opens a read-only view of the store in the given directory, for queries that must not disturb a
+   * process writing it.
+   * @param directory the directory holding the data and index files.
+   * @return the view; empty if there is no store.
+   * @throws IOException if the files cannot be opened.
+   */
+  public static InvoiceStore openReadOnly(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return new InvoiceStore(directory, null, false, false);
+    }
+    FileChannel lockFile = FileChannel.open(directory.resolve(LOCK_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      boolean locked = lockFile.tryLock(SESSION_LOCK, 1, true) != null;
+      boolean live = false;
+      if (!locked) {
+        // A writer runs: wait until it has recovered its indexes, which is quicker than scanning without them.
+        // The lock is held until the view is closed, so a writer that starts meanwhile waits to recover
+        lockFile.lock(RECOVERY_LOCK, 1, true);
+        locked = lockFile.tryLock(SESSION_LOCK, 1, true) != null; // If the writer stopped meanwhile
+        live = !locked;
+      }
+      return new InvoiceStore(directory, lockFile, locked, live);
+    } catch (IOException | RuntimeException e) {
+      lockFile.close();
+      throw e;
+    }
+  }
+
+  // Rebuilds the indexes after an unclean close, re-indexes any records they do not cover yet
+  // and cuts off a torn record at the end
+  private void recover() throws IOException {
+    long fileLength = data.size();
+    long valid = validLength(fileLength);
+    long from = Math.min(byOrder.getIndexedLength(), byEmail.getIndexedLength());
+    if (!byOrder.wasClosedCleanly() || !byEmail.wasClosedCleanly() || valid < fileLength
+        || byOrder.getIndexedLength() > valid || byEmail.getIndexedLength() > valid) {
+      data.truncate(valid);
+      byOrder.clear();
+      byEmail.clear();
+      from = 0;
+    }
+    length = valid;
+    for (long offset = from; offset < length; offset += FRAME_BYTES + readLength(offset)) {
+      InvoiceRecord record = read(offset);
+      byOrder.put(record.getOrderNumber(), offset);
+      byEmail.put(emailKey(record.getCustomerEmail()), offset);
+    }
+    byOrder.setIndexedLength(length);
+    byEmail.setIndexedLength(length);
+    indexed = length;
+  }
+
+  // Returns the length of the data file up to the end of its last complete record
+  private long validLength(long fileLength) throws IOException {
+    long start = byOrder == null ? 0 : Math.min(byOrder.getIndexedLength(), byEmail.getIndexedLength());
+    if (start > fileLength || byOrder == null || !byOrder.wasClosedCleanly() || !byEmail.wasClosedCleanly()) {
+      start = 0;
+    }
+    long offset = start;
+    while (offset + FRAME_BYTES <= fileLength) {
+      int size = readLength(offset);
+      if (size < LINK_BYTES || size > MAX_RECORD || offset + FRAME_BYTES + size > fileLength
+          || readPayload(offset, size) == null) {
+        break;
+      }
+      offset += FRAME_BYTES + size;
+    }
+    return offset;
+  }
+
+  /**
+   * Appends invoices to the data file in one write and indexes them.
+   * The records are not forced to disk; call force() for that.
+   * @param records the invoices to append.
+   * @throws IOException if the invoices cannot be written.
+   */
+  public synchronized void append(List<InvoiceRecord> records) throws IOException {
+    if (readOnly) {
+      throw new IOException("Invoice store is open read-only");
+    }
+    // Link each record to the newest earlier one with the same key, including earlier ones in this batch
+    Map<Long, Long> newestOrder = new HashMap<>();
+    Map<Long, Long> newestEmail = new HashMap<>();
+    long[] offsets = new long[records.size()];
+    buffer.clear();
+    long offset = length;
+    for (int i = 0; i < records.size(); i++) {
+      InvoiceRecord record = records.get(i);
+      long orderKey = record.getOrderNumber();
+      long emailKey = emailKey(record.getCustomerEmail());
+      Long previousOrder = newestOrder.put(orderKey, offset);
+      Long previousEmail = newestEmail.put(emailKey, offset);
+
+      int maxSize = FRAME_BYTES + LINK_BYTES + record.maxEncodedSize();
+      ensureCapacity(maxSize);
+      int start = buffer.position();
+      buffer.position(start + 4);
+      buffer.putLong(previousOrder != null ? previousOrder : byOrder.get(orderKey));
+      buffer.putLong(previousEmail != null ? previousEmail : byEmail.get(emailKey));
+      record.encode(buffer);
+      int size = buffer.position() - start - 4;
+      if (size > MAX_RECORD) {
+        throw new IOException("Invoice too large for order " + record.getOrderNumber());
+      }
+      buffer.putInt(start, size);
+      crc.reset();
+      crc.update(buffer.array(), start + 4, size);
+      buffer.putInt((int) crc.getValue());
+      offsets[i] = offset;
+      offset += FRAME_BYTES + size;
+    }
+
+    // Grow the indexes first: once the records are written, indexing them must not fail
+    byOrder.reserve(records.size());
+    byEmail.reserve(records.size());
+    buffer.flip();
+    long position = length;
+    while (buffer.hasRemaining()) {
+      position += data.write(buffer, position);
+    }
+    length = offset;
+    for (int i = 0; i < records.size(); i++) {
+      byOrder.put(records.get(i).getOrderNumber(), offsets[i]);
+      byEmail.put(emailKey(records.get(i).getCustomerEmail()), offsets[i]);
+    }
+    // Published only once every record before it is indexed: a view trusts the indexes up to here
+    byOrder.setIndexedLength(length);
+    byEmail.setIndexedLength(length);
+    indexed = length;
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (buffer.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+  }
+
+  // Forces the invoice data to disk; the indexes can be rebuilt from it
+  public synchronized void force() throws IOException {
+    if (!readOnly) {
+      data.force(false);
+    }
+  }
+
+  /**
+   * Finds the invoices for an order number.
+   * @param orderNumber the order number.
+   * @return the invoices, oldest first; empty if there are none.
+   * @throws IOException if the store cannot be read.
+   */
+  public synchronized List<InvoiceRecord> findByOrderNumber(int orderNumber) throws IOException {
+    List<InvoiceRecord> found = new ArrayList<>();
+    if (byOrder != null) {
+      for (long offset = byOrder.get(orderNumber); offset >= 0; offset = link(offset, 0)) {
+        InvoiceRecord record = offset < indexed ? read(offset) : null;
+        if (record != null && record.getOrderNumber() == orderNumber) {
+          found.add(record);
+        }
+      }
+      Collections.reverse(found);
+    }
+    found.addAll(scan(record -> record.getOrderNumber() == orderNumber));
+    return found;
+  }
+
+  /**
+   * Finds the invoices for a customer email, ignoring case.
+   * @param email the email address.
+   * @return the invoices, oldest first; empty if there are none.
+   * @throws IOException if the store cannot be read.
+   */
+  public synchronized List<InvoiceRecord> findByEmail(String email) throws IOException {
+    String normalized = email.toLowerCase(Locale.ROOT);
+    List<InvoiceRecord> found = new ArrayList<>();
+    if (byEmail != null) {
+      // Different emails can share a key, so each record is checked
+      for (long offset = byEmail.get(emailKey(email)); offset >= 0; offset = link(offset, 8)) {
+        InvoiceRecord record = offset < indexed ? read(offset) : null;
+        if (record != null && record.getCustomerEmail().toLowerCase(Locale.ROOT).equals(normalized)) {
+          found.add(record);
+        }
+      }
+      Collections.reverse(found);
+    }
+    found.addAll(scan(record -> record.getCustomerEmail().toLowerCase(Locale.ROOT).equals(normalized)));
+    return found;
+  }
+
+  // Reads the records the indexes do not cover yet, oldest first: none for the writer, those a live
+  // writer appended after its last published length for a view, and every record without indexes.
+  // A record past the indexed length that the index already points at is only followed, not read,
+  // by the lookups above, so it is found here once.
+  private List<InvoiceRecord> scan(Predicate<InvoiceRecord> matches) throws IOException {
+    List<InvoiceRecord> found = new ArrayList<>();
+    for (long offset = indexed; offset < length; offset += FRAME_BYTES + readLength(offset)) {
+      InvoiceRecord record = read(offset);
+      if (matches.test(record)) {
+        found.add(record);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Writes every invoice as text, in the format of the old invoice file.
+   * @param out where to write the text.
+   * @return the number of invoices written.
+   * @throws IOException if the store cannot be read or the text cannot be written.
+   */
+  public long exportText(Writer out) throws IOException {
+    long end;
+    synchronized (this) {
+      end = length;
+    }
+    long count = 0;
+    for (long offset = 0; offset < end; offset += FRAME_BYTES + readLength(offset)) {
+      out.write(read(offset).render());
+      count++;
+    }
+    out.flush();
+    return count;
+  }
+
+  /**
+   * Writes every invoice as text to a file, in the platform encoding the old invoice file used.
+   * When that is UTF-8, the data file is read in large blocks and each record rendered by
+   * InvoiceTemplate straight into the output, without decoding it.
+   * @param file the file to write.
+   * @return the number of invoices written.
+   * @throws IOException if the store cannot be read or the file cannot be written.
+   */
+  public long exportText(Path file) throws IOException {
+    if (!Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+      try (BufferedWriter out = Files.newBufferedWriter(file, Charset.defaultCharset())) {
+        return exportText(out);
+      }
+    }
+    long end;
+    synchronized (this) {
+      end = length;
+    }
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+      return exportUtf8(out, end);
+    }
+  }
+
+  // Renders the records before end into the output, reading whole frames a block at a time
+  private long exportUtf8(OutputStream out, long end) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(EXPORT_BLOCK);
+    CRC32 check = new CRC32();
+    long count = 0;
+    long position = 0;
+    while (position < end) {
+      block.clear().limit((int) Math.min(block.capacity(), end - position));
+      readFully(block, position);
+      int offset = 0;
+      while (offset + FRAME_BYTES <= block.limit()) {
+        int size = block.getInt(offset);
+        if (size < LINK_BYTES || size > MAX_RECORD) {
+          throw new IOException("Corrupt invoice record at offset " + (position + offset));
+        }
+        if (offset + FRAME_BYTES + size > block.limit()) {
+          break;
+        }
+        check.reset();
+        check.update(block.array(), offset + 4, size);
+        if ((int) check.getValue() != block.getInt(offset + 4 + size)) {
+          throw new IOException("Corrupt invoice record at offset " + (position + offset));
+        }
+        ByteBuffer text = InvoiceTemplate.render(block.position(offset + 4 + LINK_BYTES));
+        out.write(text.array(), 0, text.limit());
+        count++;
+        offset += FRAME_BYTES + size;
+      }
+      if (offset == 0) {
+        block = ByteBuffer.allocate(FRAME_BYTES + readLength(position)); // A record larger than the block
+      }
+      position += offset;
+    }
+    out.flush();
+    return count;
+  }
+
+  /**
+   * Passes the order number of each invoice from a given data offset to the end, in file order,
+   * reading the data file a block at a time and decoding nothing else.
+   * @param from the offset of the first record, the end of an earlier record or 0.
+   * @param action called with each order number.
+   * @return the data length read up to.
+   * @throws IOException if the store cannot be read.
+   */
+  public long forEachOrderNumber(long from, IntConsumer action) throws IOException {
+    long end;
+    synchronized (this) {
+      end = length;
+    }
+    ByteBuffer block = ByteBuffer.allocate(EXPORT_BLOCK);
+    long position = from;
+    while (position < end) {
+      block.clear().limit((int) Math.min(block.capacity(), end - position));
+      readFully(block, position);
+      int offset = 0;
+      while (offset + FRAME_BYTES <= block.limit()) {
+        int size = block.getInt(offset);
+        if (size < LINK_BYTES || size > MAX_RECORD) {
+          throw new IOException("Corrupt invoice record at offset " + (position + offset));
+        }
+        if (offset + FRAME_BYTES + size > block.limit()) {
+          break;
+        }
+        action.accept(block.getInt(offset + 4 + LINK_BYTES + 1)); // After the links and the record type
+        offset += FRAME_BYTES + size;
+      }
+      if (offset == 0) {
+        block = ByteBuffer.allocate(FRAME_BYTES + readLength(position));
+      }
+      position += offset;
+    }
+    return end;
+  }
+
+  /**
+   * Returns the CRC stored with the record that ends at a given data length, which tells whether
+   * data read up to there earlier is still the same.
+   * @param end the end of a record.
+   * @return the CRC of the record's payload.
+   * @throws IOException if the store cannot be read.
+   */
+  public int crcBefore(long end) throws IOException {
+    ByteBuffer crc = ByteBuffer.allocate(4);
+    readFully(crc, end - 4);
+    return crc.getInt(0);
+  }
+
+  // Returns the number of bytes of invoice data
+  public synchronized long getDataLength() {
+    return length;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      force();
+    } finally {
+      if (data != null) {
+        data.close();
+      }
+      if (byOrder != null) {
+        byOrder.close();
+        byEmail.close();
+      }
+      if (lockFile != null) {
+        lockFile.close(); // Releases the lock, after the indexes are marked closed cleanly
+      }
+    }
+  }
+
+  private int readLength(long offset) throws IOException {
+    ByteBuffer size = ByteBuffer.allocate(4);
+    readFully(size, offset);
+    return size.getInt(0);
+  }
+
+  // Returns the back pointer at the given position in the record's payload
+  private long link(long offset, int at) throws IOException {
+    ByteBuffer link = ByteBuffer.allocate(8);
+    readFully(link, offset + 4 + at);
+    return link.getLong(0);
+  }
+
+  private InvoiceRecord read(long offset) throws IOException {
+    ByteBuffer payload = readPayload(offset, readLength(offset));
+    if (payload == null) {
+      throw new IOException("Corrupt invoice record at offset " + offset);
+    }
+    payload.position(LINK_BYTES);
+    return InvoiceRecord.decode(payload);
+  }
+
+  // Reads a payload and checks it against its CRC; returns null if it does not match
+  private ByteBuffer readPayload(long offset, int size) throws IOException {
+    ByteBuffer frame = ByteBuffer.allocate(size + 4);
+    readFully(frame, offset + 4);
+    CRC32 check = new CRC32();
+    check.update(frame.array(), 0, size);
+    if ((int) check.getValue() != frame.getInt(size)) {
+      return null;
+    }
+    return ByteBuffer.wrap(frame.array(), 0, size);
+  }
+
+  private void readFully(ByteBuffer target, long position) throws IOException {
+    while (target.hasRemaining()) {
+      if (data.read(target, position + target.position()) < 0) {
+        throw new IOException("Unexpected end of invoice data at offset " + position);
+      }
+    }
+  }
+
+  // 64-bit FNV-1a hash of the lower-cased email
+  static long emailKey(String email) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : email.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
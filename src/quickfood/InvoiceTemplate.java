@@ -0,0 +1,187 @@
+package quickfood;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*InvoiceTemplate renders invoices as UTF-8 text straight from their encoded records, without
+  decoding them into InvoiceRecord objects or building Strings. The fixed text between fields is
+  encoded once, each with the line break that ends the field before it; the string fields are copied
+  as the UTF-8 bytes they are stored as; and numbers are written digit by digit. Each thread renders
+  into its own reusable buffer, so rendering an invoice allocates nothing.
+
+  The bytes are exactly those of InvoiceRecord.render() encoded as UTF-8. Prices are written as
+  Double.toString() writes them: a stored price of c cents renders as c / 100.0 did, which for
+  amounts under $10,000,000 is the whole dollars, a point and the cents without trailing zeros
+  ("12.5", "3.0"). A total amount that is not a whole number of cents, or a larger or negative
+  amount, falls back to Double.toString().
+*/
+final class InvoiceTemplate {
+  private static final String NEWLINE = System.lineSeparator();
+  private static final byte[] CUSTOMER_NAME = utf8("Invoice:" + NEWLINE + "Customer Name: ");
+  private static final byte[] ORDER_NUMBER = utf8(NEWLINE + "Order Number: ");
+  private static final byte[] CUSTOMER_ADDRESS = utf8(NEWLINE + "Customer Address: ");
+  private static final byte[] CUSTOMER_LOCATION = utf8(NEWLINE + "Customer Location: ");
+  private static final byte[] CUSTOMER_EMAIL = utf8(NEWLINE + "Customer Email: ");
+  private static final byte[] UNAVAILABLE = utf8(NEWLINE + "Sorry! Our drivers are too far away from you to be able to deliver to your location."
+      + NEWLINE + "--------------------------------------------------------" + NEWLINE);
+  private static final byte[] RESTAURANT_NAME = utf8(NEWLINE + "Restaurant Name: ");
+  private static final byte[] RESTAURANT_LOCATION = utf8(NEWLINE + "Restaurant Location: ");
+  private static final byte[] DRIVER_NAME = utf8(NEWLINE + "Driver Name: ");
+  private static final byte[] ORDER_DETAILS = utf8(NEWLINE + "Order Details:");
+  private static final byte[] MEAL = utf8(NEWLINE + "Meal: ");
+  private static final byte[] QUANTITY = utf8(", Quantity: ");
+  private static final byte[] PRICE = utf8(", Price: $");
+  private static final byte[] TOTAL_AMOUNT = utf8(NEWLINE + "Total Amount: $");
+  private static final byte[] SPECIAL_INSTRUCTIONS = utf8(NEWLINE + "Special Instructions: ");
+  private static final byte[] END = utf8(NEWLINE + "--------------------------------------------------------" + NEWLINE);
+  private static final byte[] NULL = utf8("null");
+
+  // Below this many cents, Double.toString(cents / 100.0) is the plain two-decimal form; at $10M it switches to "1.0E7"
+  private static final long PLAIN_CENTS = 1_000_000_000L;
+
+  private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+  private InvoiceTemplate() {
+  }
+
+  /**
+   * Renders an encoded invoice record as UTF-8 text.
+   * @param record the buffer positioned at the start of a record written by InvoiceRecord.encode();
+   *        it is left positioned after the record.
+   * @return this thread's render buffer, positioned at 0 and limited to the invoice text; it is
+   *         overwritten by the thread's next render.
+   */
+  static ByteBuffer render(ByteBuffer record) {
+    ByteBuffer out = BUFFER.get();
+    int start = record.position();
+    while (true) {
+      out.clear();
+      try {
+        render(record, out);
+        return out.flip();
+      } catch (BufferOverflowException e) {
+        out = ByteBuffer.allocate(out.capacity() * 2);
+        BUFFER.set(out);
+        record.position(start);
+      }
+    }
+  }
+
+  private static void render(ByteBuffer in, ByteBuffer out) {
+    boolean delivery = in.get() == 0;
+    int orderNumber = in.getInt();
+    out.put(CUSTOMER_NAME);
+    copyString(in, out);
+    out.put(ORDER_NUMBER);
+    putLong(out, orderNumber);
+    out.put(CUSTOMER_ADDRESS);
+    copyString(in, out);
+    out.put(CUSTOMER_LOCATION);
+    copyString(in, out);
+    out.put(CUSTOMER_EMAIL);
+    copyString(in, out);
+    if (!delivery) {
+      out.put(UNAVAILABLE);
+      return;
+    }
+    out.put(RESTAURANT_NAME);
+    copyString(in, out);
+    out.put(RESTAURANT_LOCATION);
+    copyString(in, out);
+    out.put(DRIVER_NAME);
+    copyString(in, out);
+    out.put(ORDER_DETAILS);
+    int count = in.getInt();
+    for (int i = 0; i < count; i++) {
+      out.put(MEAL);
+      copyString(in, out);
+      out.put(QUANTITY);
+      putLong(out, in.getInt());
+      out.put(PRICE);
+      long cents = in.getLong();
+      if (cents >= 0 && cents < PLAIN_CENTS) {
+        putCents(out, cents);
+      } else {
+        putAscii(out, Double.toString(cents / 100.0));
+      }
+    }
+    out.put(TOTAL_AMOUNT);
+    putAmount(out, Double.longBitsToDouble(in.getLong()));
+    out.put(SPECIAL_INSTRUCTIONS);
+    copyString(in, out);
+    out.put(END);
+  }
+
+  // Copies a length-prefixed UTF-8 string; length -1 is a null, rendered as string concatenation did
+  private static void copyString(ByteBuffer in, ByteBuffer out) {
+    int length = in.getInt();
+    if (length < 0) {
+      out.put(NULL);
+      return;
+    }
+    if (length > out.remaining()) {
+      throw new BufferOverflowException();
+    }
+    out.put(out.position(), in, in.position(), length);
+    in.position(in.position() + length);
+    out.position(out.position() + length);
+  }
+
+  // Writes an amount as Double.toString() does
+  private static void putAmount(ByteBuffer out, double amount) {
+    long cents = Math.round(amount * 100);
+    if (Double.doubleToRawLongBits(amount) >= 0 && cents < PLAIN_CENTS && cents / 100.0 == amount) {
+      putCents(out, cents);
+    } else {
+      putAscii(out, Double.toString(amount));
+    }
+  }
+
+  // Writes a non-negative number of cents below PLAIN_CENTS as Double.toString(cents / 100.0) does
+  private static void putCents(ByteBuffer out, long cents) {
+    putLong(out, cents / 100);
+    out.put((byte) '.');
+    int fraction = (int) (cents % 100);
+    if (fraction % 10 == 0) {
+      out.put((byte) ('0' + fraction / 10));
+    } else {
+      out.put((byte) ('0' + fraction / 10)).put((byte) ('0' + fraction % 10));
+    }
+  }
+
+  // Writes a number in decimal, as Long.toString() does
+  private static void putLong(ByteBuffer out, long value) {
+    if (value == Long.MIN_VALUE) {
+      putAscii(out, Long.toString(value));
+      return;
+    }
+    if (value < 0) {
+      out.put((byte) '-');
+      value = -value;
+    }
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    int end = out.position() + digits;
+    if (end > out.limit()) {
+      throw new BufferOverflowException();
+    }
+    for (int at = end - 1; at >= out.position(); at--) {
+      out.put(at, (byte) ('0' + value % 10));
+      value /= 10;
+    }
+    out.position(end);
+  }
+
+  private static void putAscii(ByteBuffer out, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      out.put((byte) text.charAt(i));
+    }
+  }
+
+  private static byte[] utf8(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,197 @@
+package quickfood;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//InvoiceWriter appends invoices to the invoice store from a background thread.
+//Invoices are queued by the order threads and written in batches, one write call per batch.
+//If a write fails the thread stops, and the invoices it did not write are kept aside: a submit
+//still in progress then fails rather than returning as if its invoice were queued, and every
+//later submit and close() report the failure.
+public class InvoiceWriter implements AutoCloseable {
+
+  // When the writer forces written invoices to disk
+  public enum FlushPolicy {
+    BATCH,    // fsync after every batch
+    INTERVAL, // fsync at most once per flush interval
+    NONE      // leave it to the operating system
+  }
+
+  // Queued by close(), compared by identity
+  private static final InvoiceRecord CLOSE = InvoiceRecord.unavailable(Customer.fromValidatedFields(0, "", "", "", "", ""));
+  private static final int MAX_BATCH = 4096;
+
+  private final BlockingQueue<InvoiceRecord> queue;
+  private final InvoiceStore store;
+  private final FlushPolicy flushPolicy;
+  private final long flushIntervalNanos;
+  private final Thread thread;
+  // Held to read by submit() from its check of closed until its invoice is queued, and to write by close()
+  private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+  // Invoices queued or taken but never written, kept once the thread has stopped for submit() to find
+  private final Set<InvoiceRecord> unwritten = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+  private volatile IOException failure;
+  private volatile boolean closed;
+  private volatile boolean stopped; // Set when the background thread exits, before it drains the queue
+
+  /**
+   * Starts the background writer for an open invoice store. The store stays open when the writer is closed.
+   * @param store the store to append invoices to.
+   * @param capacity the number of invoices that can be queued before submit blocks.
+   * @param flushPolicy when written invoices are forced to disk.
+   * @param flushIntervalMillis the time between forces for FlushPolicy.INTERVAL.
+   */
+  public InvoiceWriter(InvoiceStore store, int capacity, FlushPolicy flushPolicy, long flushIntervalMillis) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.store = store;
+    this.flushPolicy = flushPolicy;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.thread = new Thread(this::run, "invoice-writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues an invoice to be appended to the store.
+   * Blocks while the queue is full so that order intake cannot outrun the disk.
+   * @param invoice the invoice.
+   * @throws IOException if the writer is closed, or a write failed before this invoice could be written.
+   */
+  public void submit(InvoiceRecord invoice) throws IOException {
+    closing.readLock().lock();
+    try {
+      checkOpen();
+      // The thread is gone once it has stopped, so do not wait for queue space forever
+      while (!queue.offer(invoice, 100, TimeUnit.MILLISECONDS)) {
+        if (stopped) {
+          checkOpen();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while queueing invoice");
+    } finally {
+      closing.readLock().unlock();
+    }
+    if (stopped && (queue.remove(invoice) || unwritten.remove(invoice))) {
+      // Queued after the thread drained the queue on its way out, or drained without being written
+      checkOpen();
+    }
+  }
+
+  /**
+   * Writes every queued invoice, forces the store to disk and stops the background writer.
+   * Calling close more than once has no further effect.
+   * @throws IOException if an error occurred while writing the invoices.
+   */
+  @Override
+  public void close() throws IOException {
+    closing.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true; // Every invoice queued before this is ahead of CLOSE
+    } finally {
+      closing.writeLock().unlock();
+    }
+    try {
+      // The writer thread is gone if a write failed, so do not wait for queue space forever
+      while (!queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+        if (stopped) {
+          break;
+        }
+      }
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing invoice writer");
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (failure != null) {
+      throw new IOException("Invoice writer failed: " + failure.getMessage(), failure);
+    }
+    if (closed) {
+      throw new IOException("Invoice writer is closed");
+    }
+    if (stopped) {
+      throw new IOException("Invoice writer has stopped");
+    }
+  }
+
+  // Background loop: waits for invoices, then writes everything queued so far in one go
+  private void run() {
+    List<InvoiceRecord> batch = new ArrayList<>();
+    List<InvoiceRecord> records = new ArrayList<>();
+    long lastForce = System.nanoTime();
+    boolean dirty = false;
+    try {
+      while (true) {
+        InvoiceRecord first = flushPolicy == FlushPolicy.INTERVAL
+            ? queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS)
+            : queue.take();
+        boolean closing = false;
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH - 1);
+          records.clear();
+          for (InvoiceRecord invoice : batch) {
+            if (invoice == CLOSE) {
+              closing = true;
+            } else {
+              records.add(invoice);
+            }
+          }
+          batch.clear();
+          if (!records.isEmpty()) {
+            store.append(records);
+            records.clear();
+            dirty = true;
+          }
+        }
+
+        long now = System.nanoTime();
+        boolean force = dirty && (closing
+            || flushPolicy == FlushPolicy.BATCH
+            || (flushPolicy == FlushPolicy.INTERVAL && now - lastForce >= flushIntervalNanos));
+        if (force) {
+          store.force();
+          lastForce = now;
+          dirty = false;
+        }
+        if (closing) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (RuntimeException e) {
+      failure = new IOException(e.toString(), e);
+    } catch (InterruptedException e) {
+      failure = new InterruptedIOException("Invoice writer interrupted");
+    } finally {
+      stopped = true;
+      // Whatever was not written is failed, not acknowledged: submitters still in submit() look for theirs here
+      unwritten.addAll(records);
+      unwritten.addAll(batch);
+      List<InvoiceRecord> left = new ArrayList<>();
+      queue.drainTo(left);
+      unwritten.addAll(left);
+      unwritten.remove(CLOSE);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package quickfood;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*LatencyHistogram counts durations in log-linear buckets, in the style of HdrHistogram: values below
+  32 ns have a bucket each, and every power of two above that is split into 16 buckets, so any
+  recorded value is known to within 1/16 (6.25%) of itself across the whole range of a long.
+  Recording is one atomic increment and one LongAdder add, with no locks and no allocation; reads
+  scan the 960 buckets and may miss values recorded while they run.
+*/
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder totalNanos = new LongAdder();
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Records one duration.
+   * @param nanos the duration in nanoseconds; negative values count as 0.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(value));
+    totalNanos.add(value);
+  }
+
+  // Records the time since a System.nanoTime() reading
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  // Returns a consistent-enough view of the counts for reporting
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      count += copy[i];
+    }
+    return new Snapshot(name, copy, count, totalNanos.sum());
+  }
+
+  // Clears all counts; values recorded while this runs may survive it
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    totalNanos.reset();
+  }
+
+  static int bucket(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  // The largest value that falls in a bucket
+  static long highestValue(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  // Summary statistics of a histogram at one moment; the getters make it a JMX composite value
+  public static final class Snapshot {
+    private final String name;
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+
+    private Snapshot(String name, long[] counts, long count, long totalNanos) {
+      this.name = name;
+      this.counts = counts;
+      this.count = count;
+      this.totalNanos = totalNanos;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getMeanNanos() {
+      return count == 0 ? 0 : totalNanos / (double) count;
+    }
+
+    public long getP50Nanos() {
+      return percentile(50);
+    }
+
+    public long getP90Nanos() {
+      return percentile(90);
+    }
+
+    public long getP99Nanos() {
+      return percentile(99);
+    }
+
+    public long getP999Nanos() {
+      return percentile(99.9);
+    }
+
+    public long getMaxNanos() {
+      return percentile(100);
+    }
+
+    /**
+     * Returns a percentile of the recorded durations.
+     * @param percent the percentile, from 0 to 100.
+     * @return the largest value in the bucket holding the percentile, or 0 if nothing was recorded.
+     */
+    public long percentile(double percent) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValue(i);
+        }
+      }
+      return highestValue(counts.length - 1);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s count=%d mean=%.0fns p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns",
+          name, count, getMeanNanos(), getP50Nanos(), getP90Nanos(), getP99Nanos(), getP999Nanos(), getMaxNanos());
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package quickfood;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*LocationCoordinates holds the latitude and longitude of known locations, indexed by LocationRegistry ID.
+  They are read from a file with one "name, latitude, longitude" line per location, for example
+    Cape Town, -33.9249, 18.4241
+  Blank lines and lines starting with '#' are ignored. Every location in the file is registered, so a
+  restaurant in a town with no drivers of its own still resolves to an ID that dispatch can place.
+*/
+public final class LocationCoordinates {
+  private static final LocationCoordinates NONE = new LocationCoordinates(new double[0], new double[0]);
+
+  private final double[] latitudes;
+  private final double[] longitudes;
+
+  private LocationCoordinates(double[] latitudes, double[] longitudes) {
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+  }
+
+  // Returns coordinates that know no locations, which turns off nearby dispatch
+  public static LocationCoordinates none() {
+    return NONE;
+  }
+
+  /**
+   * Reads coordinates from a file.
+   * @param file the coordinates file.
+   * @return the coordinates.
+   * @throws IOException if the file cannot be read or a line is malformed.
+   */
+  public static LocationCoordinates load(Path file) throws IOException {
+    double[] latitudes = new double[0];
+    double[] longitudes = new double[0];
+    try (BufferedReader reader = Files.newBufferedReader(file)) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isBlank() || line.startsWith("#")) {
+          continue;
+        }
+        String[] parts = line.split(",");
+        double latitude;
+        double longitude;
+        try {
+          if (parts.length != 3) {
+            throw new NumberFormatException("expected name, latitude, longitude");
+          }
+          latitude = Double.parseDouble(parts[1].trim());
+          longitude = Double.parseDouble(parts[2].trim());
+        } catch (NumberFormatException e) {
+          throw new IOException(file + " line " + lineNumber + ": " + e.getMessage());
+        }
+        if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+          throw new IOException(file + " line " + lineNumber + ": coordinates out of range");
+        }
+        int id = LocationRegistry.register(parts[0].trim());
+        if (id >= latitudes.length) {
+          int length = Math.max(id + 1, latitudes.length * 2);
+          int old = latitudes.length;
+          latitudes = Arrays.copyOf(latitudes, length);
+          longitudes = Arrays.copyOf(longitudes, length);
+          Arrays.fill(latitudes, old, length, Double.NaN);
+          Arrays.fill(longitudes, old, length, Double.NaN);
+        }
+        latitudes[id] = latitude;
+        longitudes[id] = longitude;
+      }
+    }
+    return new LocationCoordinates(latitudes, longitudes);
+  }
+
+  // Returns whether the position of the location is known
+  public boolean has(int locationId) {
+    return locationId >= 0 && locationId < latitudes.length && !Double.isNaN(latitudes[locationId]);
+  }
+
+  public double getLatitude(int locationId) {
+    return latitudes[locationId];
+  }
+
+  public double getLongitude(int locationId) {
+    return longitudes[locationId];
+  }
+}
@@ -0,0 +1,103 @@
+package quickfood;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*LocationRegistry gives every location a small integer ID, so dispatch compares ints instead of
+  strings and per-location data can live in plain arrays. Locations are matched ignoring case and
+  runs of whitespace: "Cape Town", " cape  town" and "CAPE TOWN" share one ID.
+
+  Driver locations, and the locations in the coordinates file, are registered as they are read;
+  order locations are only looked up, so that input naming an unknown place does not grow the
+  registry. IDs are never reused.
+*/
+public final class LocationRegistry {
+  // ID of a location no driver has been registered at
+  public static final int UNKNOWN = -1;
+
+  // Normalized names, and the exact spellings registered so far, mapped to their ID
+  private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private static volatile String[] names = new String[16];
+  private static int count;
+
+  private LocationRegistry() {
+  }
+
+  /**
+   * Returns the ID of a location, registering it if it is new.
+   * @param location the location as written in the driver file.
+   * @return the location ID.
+   */
+  public static int register(String location) {
+    Integer id = ids.get(location); // Spellings repeat, so most calls end here without normalizing
+    return id != null ? id : registerNew(location);
+  }
+
+  private static synchronized int registerNew(String location) {
+    String key = normalize(location);
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = count;
+      if (count == names.length) {
+        names = Arrays.copyOf(names, count * 2);
+      }
+      names[count++] = location.trim();
+      ids.put(key, id);
+    }
+    ids.put(location, id);
+    return id;
+  }
+
+  /**
+   * Returns the ID of a location without registering it.
+   * @param location the location as entered.
+   * @return the location ID, or UNKNOWN if no driver has been registered there.
+   */
+  public static int lookup(String location) {
+    Integer id = ids.get(location);
+    if (id == null) {
+      id = ids.get(normalize(location));
+    }
+    return id != null ? id : UNKNOWN;
+  }
+
+  /**
+   * Returns the name of a location as it was first registered.
+   * @param id the location ID.
+   * @return the location name.
+   */
+  public static String name(int id) {
+    return names[id];
+  }
+
+  // Returns the number of registered locations; IDs run from 0 to size() - 1
+  public static synchronized int size() {
+    return count;
+  }
+
+  /**
+   * Normalizes a location: surrounding whitespace removed, inner runs of whitespace replaced by a
+   * single space, and lower case.
+   * @param location the location as entered or read from the driver file.
+   * @return the normalized location.
+   */
+  public static String normalize(String location) {
+    StringBuilder normalized = new StringBuilder(location.length());
+    boolean space = false;
+    for (int i = 0; i < location.length(); i++) {
+      char c = location.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = normalized.length() > 0;
+      } else {
+        if (space) {
+          normalized.append(' ');
+          space = false;
+        }
+        normalized.append(c);
+      }
+    }
+    return normalized.toString().toLowerCase(Locale.ROOT);
+  }
+}
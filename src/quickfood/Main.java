@@ -1,7 +1,15 @@
 package quickfood;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 public class Main {
   // Constants for file names and command options
@@ -9,21 +17,358 @@ public class Main {
   private static final String INVOICE_FILE = "invoice.txt";
   private static final String DONE = "done";
   private static final String YES = "yes";
+  private static final String BULK = "--bulk";
+  private static final String HTTP = "--http";
+  private static final String JOURNAL_DIR = "journal";
+  private static final String INVOICE_DIR = "invoices";
+  private static final String EXPORT = "--export-invoices";
+  private static final String FIND_ORDER = "--invoice";
+  private static final String FIND_EMAIL = "--invoices-for";
+  private static final String REPORT = "--invoice-report";
+  private static final String INCREMENTAL = "--incremental";
+  private static final String REPORT_CHECKPOINT = "report.checkpoint";
+  private static final String LOCATIONS_FILE = "locations.txt";
+  private static final String ADMISSION_FILE = "admission.filter";
 
-  // List to store driver information
-  private static List<Driver> drivers = new ArrayList<>();
+  // Current drivers and their dispatch index; replaced as a whole when driver-info.txt changes
+  private static volatile DriverRoster roster = DriverRoster.of(new ArrayList<>());
+
+  // Positions of known locations, and how far a driver may come from when none is at the restaurant
+  private static LocationCoordinates coordinates = LocationCoordinates.none();
+  private static double dispatchRadiusKm;
+
+  // Assigns drivers to batches of orders when quickfood.dispatch.mode is batch; null for greedy dispatch
+  private static BatchDispatcher batchDispatcher;
+
+  // Partitions the drivers over dispatch shards when quickfood.dispatch.mode is sharded; null otherwise
+  private static ShardedDispatcher shardedDispatcher;
+  private static Thread shardRebalancer;
+
+  // Invoice store, and the long-lived writer that appends invoices to it
+  private static InvoiceStore invoiceStore;
+  private static InvoiceWriter invoiceWriter;
+
+  // Dispatches each order number once; null when quickfood.admission.recentOrders is 0
+  private static OrderAdmission orderAdmission;
+
+  // Write-ahead journal of dispatch events, replayed at startup to restore driver loads
+  private static OrderJournal orderJournal;
+
+  // Releases a driver's load when an order's expected delivery time passes without it being reported delivered
+  private static DeliveryTimer deliveryTimer;
+  private static long expectedDeliveryMillis;
+
+  // Reloads the drivers when the driver file changes
+  private static DriverFileWatcher driverFileWatcher;
 
   public static void main(String[] args) {
     Scanner scanner = new Scanner(System.in);
 
-    // Load drivers from file
+    // Look up or export stored invoices instead of taking orders
+    if (args.length >= 1 && (args[0].equals(EXPORT) || args[0].equals(FIND_ORDER) || args[0].equals(FIND_EMAIL)
+        || args[0].equals(REPORT))) {
+      try {
+        queryInvoices(args);
+      } catch (IOException e) {
+        System.err.println("Error reading invoices: " + e.getMessage());
+      }
+      return;
+    }
+
+    if (!start()) {
+      return;
+    }
+
+    // Publish metrics over JMX; on by default only for the long-running HTTP server
+    boolean http = args.length == 2 && args[0].equals(HTTP);
+    if (Boolean.parseBoolean(System.getProperty("quickfood.metrics.jmx", String.valueOf(http)))) {
+      try {
+        Metrics.registerMBean();
+      } catch (JMException e) {
+        System.err.println("Error publishing metrics: " + e.getMessage());
+      }
+    }
+
+    try {
+      // Replay orders from a file instead of prompting when run with --bulk <file>
+      if (args.length == 2 && args[0].equals(BULK)) {
+        try {
+          BulkOrderReader.processFile(args[1]);
+        } catch (IOException e) {
+          System.err.println("Error processing bulk orders: " + e.getMessage());
+        }
+      } else if (http) {
+        // Take orders over HTTP when run with --http <port>
+        try {
+          serveOrders(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+          System.err.println("Invalid port: " + args[1]);
+        } catch (IOException e) {
+          System.err.println("Error starting order server: " + e.getMessage());
+        }
+      } else {
+        takeOrders(scanner);
+      }
+    } finally {
+      stop();
+    }
+  }
+
+  /**
+   * Loads the drivers and opens everything an order passes through, configured by the quickfood.*
+   * system properties, so that dispatchOrder() can be called. main() does this before taking
+   * orders; a test harness in the same package can do it too.
+   * @return whether everything was opened; if not, the error has been reported.
+   */
+  static boolean start() {
+    // Load drivers from file and add the orders journalled since it was written
+    Map<Driver, Integer> undelivered;
     try {
-      loadDrivers(DRIVER_FILE);
+      loadCoordinates();
+      undelivered = loadDrivers(driverFile(), OrderJournal.recover(journalDirectory()));
     } catch (IOException e) {
       System.err.println("Error loading drivers: " + e.getMessage());
+      return false;
+    }
+
+    // Hand the drivers to their shards when sharded dispatch is configured
+    try {
+      shardedDispatcher = openShardedDispatcher();
+    } catch (IOException e) {
+      System.err.println("Error starting dispatch shards: " + e.getMessage());
+      return false;
+    }
+
+    // Reload the drivers in the background whenever the driver file changes
+    try {
+      driverFileWatcher = new DriverFileWatcher(Paths.get(driverFile()), () -> reloadDrivers(driverFile()));
+    } catch (IOException e) {
+      System.err.println("Error watching driver file: " + e.getMessage());
+      return false;
+    }
+
+    // Open the invoice store once; invoices are appended by a background writer
+    try {
+      invoiceWriter = openInvoiceWriter();
+    } catch (IOException e) {
+      System.err.println("Error opening invoice store: " + e.getMessage());
+      return false;
+    }
+
+    // Remember the order numbers already dispatched, so that a retried or replayed order is not dispatched again
+    try {
+      orderAdmission = openOrderAdmission();
+    } catch (IOException e) {
+      System.err.println("Error loading dispatched order numbers: " + e.getMessage());
+      closeInvoiceWriter();
+      return false;
+    }
+
+    // Journal every dispatch from here on so that a restart can restore the loads
+    try {
+      orderJournal = openOrderJournal();
+    } catch (IOException e) {
+      System.err.println("Error opening order journal: " + e.getMessage());
+      closeInvoiceWriter();
+      return false;
+    }
+
+    // Release loads as deliveries fall due, including those of orders journalled before the restart
+    deliveryTimer = openDeliveryTimer(undelivered);
+
+    // Collect orders into batches when batch dispatch is configured
+    batchDispatcher = openBatchDispatcher();
+    return true;
+  }
+
+  // Dispatches what is still waiting, writes out every invoice and journal entry and closes what start() opened
+  static void stop() {
+    closeBatchDispatcher();
+    deliveryTimer.close();
+    closeShardedDispatcher();
+    closeInvoiceWriter();
+    closeOrderJournal();
+    dumpMetrics();
+    try {
+      driverFileWatcher.close();
+    } catch (IOException e) {
+      System.err.println("Error closing driver file watcher: " + e.getMessage());
+    }
+  }
+
+  // Returns the driver file, named by the system property quickfood.drivers.file
+  private static String driverFile() {
+    return System.getProperty("quickfood.drivers.file", DRIVER_FILE);
+  }
+
+  // Returns the number of dispatched orders whose delivery has not been reported or timed out
+  static int pendingDeliveries() {
+    return deliveryTimer.pending();
+  }
+
+  /**
+   * Takes orders over HTTP until the process is stopped.
+   * @param port the port to listen on.
+   * @throws IOException if the port cannot be bound.
+   */
+  private static void serveOrders(int port) throws IOException {
+    // Responses are small and written in two parts; without TCP_NODELAY each one waits on a delayed ACK.
+    // Set here, before the JDK's server reads it, so that -Dsun.net.httpserver.nodelay=false still wins
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    OrderServer server = new OrderServer(port);
+    server.start();
+    // Finish requests in flight and write out their invoices when the process is stopped
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.stop();
+      stop();
+    }));
+    System.out.println("Taking orders on http://localhost:" + server.getPort() + "/orders");
+    try {
+      new CountDownLatch(1).await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Writes the metrics to the file named by quickfood.metrics.file, if set, before exiting
+  private static void dumpMetrics() {
+    String file = System.getProperty("quickfood.metrics.file");
+    if (file == null) {
+      return;
+    }
+    try {
+      Metrics.dump(Paths.get(file));
+    } catch (IOException e) {
+      System.err.println("Error writing metrics: " + e.getMessage());
+    }
+  }
+
+  // Dispatches any orders waiting for a batch before exiting
+  private static void closeBatchDispatcher() {
+    if (batchDispatcher == null) {
       return;
     }
+    try {
+      batchDispatcher.close();
+    } catch (IOException e) {
+      System.err.println("Error dispatching orders: " + e.getMessage());
+    }
+  }
+
+  // Stops the dispatch shards once they have answered every request
+  private static void closeShardedDispatcher() {
+    if (shardedDispatcher == null) {
+      return;
+    }
+    shardRebalancer.interrupt();
+    try {
+      shardedDispatcher.close();
+    } catch (IOException e) {
+      System.err.println("Error stopping dispatch shards: " + e.getMessage());
+    }
+  }
+
+  // Writes out any queued invoices before exiting
+  private static void closeInvoiceWriter() {
+    try {
+      invoiceWriter.close();
+    } catch (IOException e) {
+      System.err.println("Error writing invoice: " + e.getMessage());
+    }
+    if (orderAdmission != null) {
+      try {
+        long covered = invoiceStore.getDataLength();
+        orderAdmission.save(invoiceDirectory().resolve(ADMISSION_FILE), covered, covered > 0 ? invoiceStore.crcBefore(covered) : 0);
+      } catch (IOException e) {
+        System.err.println("Error saving dispatched order numbers: " + e.getMessage());
+      }
+    }
+    try {
+      invoiceStore.close();
+    } catch (IOException e) {
+      System.err.println("Error closing invoice store: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Prints stored invoices or exports them as text:
+   * --invoice <order number>, --invoices-for <email> or --export-invoices [file], or prints totals
+   * over them: --invoice-report [--incremental].
+   * The store is only read, so this can run while another process is taking orders.
+   * @param args the command line arguments.
+   * @throws IOException if the invoice store cannot be read or the export cannot be written.
+   */
+  private static void queryInvoices(String[] args) throws IOException {
+    if (args[0].equals(REPORT)) {
+      reportInvoices(args.length > 1 && args[1].equals(INCREMENTAL));
+      return;
+    }
+    try (InvoiceStore store = InvoiceStore.openReadOnly(invoiceDirectory())) {
+      if (args[0].equals(EXPORT)) {
+        String file = args.length > 1 ? args[1] : INVOICE_FILE;
+        long count = store.exportText(Paths.get(file));
+        System.out.println("Exported " + count + " invoices to " + file);
+        return;
+      }
+      if (args.length != 2) {
+        System.err.println("Usage: " + args[0] + (args[0].equals(FIND_ORDER) ? " <order number>" : " <email>"));
+        return;
+      }
+      List<InvoiceRecord> invoices;
+      if (args[0].equals(FIND_ORDER)) {
+        try {
+          invoices = store.findByOrderNumber(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+          System.err.println("Invalid order number: " + args[1]);
+          return;
+        }
+      } else {
+        invoices = store.findByEmail(args[1]);
+      }
+      if (invoices.isEmpty()) {
+        System.out.println("No invoices found for " + args[1]);
+      }
+      for (InvoiceRecord invoice : invoices) {
+        System.out.print(invoice.render());
+      }
+    }
+  }
+
+  /**
+   * Prints revenue per restaurant, deliveries per driver and the no-driver rate per location over
+   * every stored invoice. The store is read in place rather than opened, so orders can be taken
+   * meanwhile. A full report starts from scratch; an incremental one reads only the invoices added
+   * since the last report. Either way the checkpoint is updated for the next incremental report.
+   * @param incremental whether to carry on from the last report's checkpoint.
+   * @throws IOException if the invoices cannot be read or the checkpoint cannot be written.
+   */
+  private static void reportInvoices(boolean incremental) throws IOException {
+    Path checkpoint = invoiceDirectory().resolve(REPORT_CHECKPOINT);
+    if (!incremental) {
+      Files.deleteIfExists(checkpoint);
+    }
+    long started = System.nanoTime();
+    InvoiceReport.Totals totals = InvoiceReport.run(invoiceDirectory(), checkpoint);
+    totals.print(System.out);
+    System.err.printf(Locale.ROOT, "Report up to byte %d of the invoice data in %.1f ms%n", totals.getLength(), (System.nanoTime() - started) / 1e6);
+  }
 
+  // Syncs any journalled events that are still buffered before exiting
+  private static void closeOrderJournal() {
+    try {
+      orderJournal.close();
+    } catch (IOException e) {
+      System.err.println("Error writing order journal: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Prompts for orders until the user chooses to stop.
+   * @param scanner the Scanner object to read input from the user.
+   */
+  private static void takeOrders(Scanner scanner) {
     // Main loop to handle multiple orders
     while (true) {
       try {
@@ -31,35 +376,67 @@ public class Main {
         int orderNumber = InputUtils.getIntInput(scanner, "Order number: ");
         String customerName = InputUtils.getStringInput(scanner, "Name: ");
         String customerContactNumber = InputUtils.getContactNumberInput(scanner, "Contact number: ");
-        String customerAddress = InputUtils.getAlphanumericInput(scanner, "Address: ");
-        String customerLocation = InputUtils.getStringInput(scanner, "Location: ");
-        String customerEmail = InputUtils.getEmailInput(scanner, "Email: ");
 
-        // Create a Customer object with provided details
-        Customer customer = new Customer(orderNumber, customerName, customerContactNumber, customerAddress, customerLocation, customerEmail);
+        // A returning customer may keep the details of their last order instead of entering them again
+        Customer customer = null;
+        Customer known = ProfileCache.customer(customerContactNumber);
+        if (known != null && known.getName().equals(customerName)) {
+          System.out.println("Deliver to " + known.getAddress() + ", " + known.getLocation() + " and email " + known.getEmail() + "? (yes/no)");
+          if (scanner.nextLine().trim().equalsIgnoreCase(YES)) {
+            customer = known.withOrderNumber(orderNumber);
+          }
+        }
+        if (customer == null) {
+          String customerAddress = InputUtils.getAlphanumericInput(scanner, "Address: ");
+          String customerLocation = InputUtils.getStringInput(scanner, "Location: ");
+          String customerEmail = InputUtils.getEmailInput(scanner, "Email: ");
+
+          // Create a Customer object with provided details; InputUtils has already validated them
+          customer = Customer.fromValidatedFields(orderNumber, customerName, customerContactNumber, customerAddress, customerLocation, customerEmail);
+          ProfileCache.remember(customer);
+        }
 
         System.out.println("Enter restaurant details below");
         String restaurantName = InputUtils.getStringInput(scanner, "Name: ");
-        String restaurantLocation = InputUtils.getStringInput(scanner, "Location: ");
-        String restaurantContactNumber = InputUtils.getContactNumberInput(scanner, "Contact number: ");
+        String restaurantLocation = InputUtils.getLocationInput(scanner, "Location: ");
 
-        // Create a Restaurant object with provided details
-        Restaurant restaurant = new Restaurant(restaurantName, restaurantLocation, restaurantContactNumber);
+        // A known restaurant keeps its contact number; otherwise create a Restaurant object with provided details
+        Restaurant restaurant = ProfileCache.restaurant(restaurantName, restaurantLocation, null);
+        if (restaurant == null) {
+          String restaurantContactNumber = InputUtils.getContactNumberInput(scanner, "Contact number: ");
+          restaurant = new Restaurant(restaurantName, restaurantLocation, restaurantContactNumber);
+          ProfileCache.remember(restaurant);
+        }
+
+        // An order number that was placed before keeps the result it had then
+        if (orderAdmission != null) {
+          CompletableFuture<DispatchResult> original = admit(orderNumber);
+          if (original != null) {
+            DispatchResult first = BatchDispatcher.await(original);
+            System.out.println("Order " + orderNumber + " was already placed"
+                + (first.isDispatched() ? " and assigned to " + first.getDriverName() + "." : "; no driver was available."));
+            continue;
+          }
+        }
 
         // Find a driver for the order
         Driver driver;
         try {
-          driver = findDriver(restaurantLocation);
+          driver = assignDriver(orderNumber, restaurant.getLocationId());
         } catch (DriverNotFoundException e) {
           // Write an unavailable invoice if no driver is found
+          admitted(orderNumber, null);
           writeUnavailableInvoice(customer);
           System.out.println(e.getMessage());
           continue;
+        } catch (IOException e) {
+          abandoned(orderNumber, e);
+          throw e;
         }
+        admitted(orderNumber, driver);
 
         System.out.println("Enter order details:");
-        List<Meal> meals = new ArrayList<>();
-        double totalAmount = 0.0;
+        OrderLines lines = new OrderLines();
 
         // Loop to collect meal details
         while (true) {
@@ -69,17 +446,15 @@ public class Main {
           int quantity = InputUtils.getIntInput(scanner, "Enter quantity: ");
           double price = InputUtils.getDoubleInput(scanner, "Enter price: ");
 
-          // Create a Meal object and add to the meal list
-          Meal meal = new Meal(mealName, quantity, price);
-          meals.add(meal);
-          totalAmount += price * quantity;
+          // Add the meal to the order lines, which keep prices in whole cents
+          lines.add(mealName, quantity, price);
         }
 
         // Collect special instructions for the order
         String specialInstructions = InputUtils.getStringInput(scanner, "Enter any special instructions: ");
 
         // Create an Order object with collected details
-        Order order = new Order(customer, restaurant, meals, specialInstructions, totalAmount);
+        Order order = new Order(customer, restaurant, lines, specialInstructions);
 
         // Generate an invoice for the order
         generateInvoice(order, driver);
@@ -91,117 +466,532 @@ public class Main {
         }
       } catch (InvalidInputException e) {
         // Handle invalid input exceptions
+        Metrics.validationFailed(e.getField());
         System.out.println(e.getMessage());
+      } catch (IOException e) {
+        // Handle errors writing the invoice store or the order journal, or reaching a dispatch shard; the message names which
+        System.err.println(e.getMessage());
       }
     }
   }
 
+  /**
+   * Opens the invoice store in the directory from the system property quickfood.invoice.dir, and a
+   * writer using the flush settings from quickfood.invoice.flush (batch, interval or none),
+   * quickfood.invoice.flushIntervalMillis and quickfood.invoice.queueCapacity.
+   * @return the open invoice writer.
+   * @throws IOException if the invoice store cannot be opened.
+   */
+  private static InvoiceWriter openInvoiceWriter() throws IOException {
+    InvoiceWriter.FlushPolicy flushPolicy = InvoiceWriter.FlushPolicy.valueOf(
+        System.getProperty("quickfood.invoice.flush", "batch").toUpperCase(Locale.ROOT));
+    long flushIntervalMillis = Long.getLong("quickfood.invoice.flushIntervalMillis", 1000);
+    int queueCapacity = Integer.getInteger("quickfood.invoice.queueCapacity", 1024);
+    invoiceStore = new InvoiceStore(invoiceDirectory());
+    return new InvoiceWriter(invoiceStore, queueCapacity, flushPolicy, flushIntervalMillis);
+  }
+
+  /**
+   * Sets up duplicate order detection, sized by quickfood.admission.recentOrders, the order numbers
+   * remembered exactly per generation (default 262144, 0 turns detection off), and
+   * quickfood.admission.filterMB, the memory for the filters that remember older ones (default 64).
+   * The filters saved at the last close are read back and the invoices written since are added.
+   * @return the order admission, or null if detection is off.
+   * @throws IOException if the saved filters or the invoice store cannot be read.
+   */
+  private static OrderAdmission openOrderAdmission() throws IOException {
+    int recentOrders = Integer.getInteger("quickfood.admission.recentOrders", 1 << 18);
+    if (recentOrders <= 0) {
+      return null;
+    }
+    long filterBytes = Long.getLong("quickfood.admission.filterMB", 64) << 20;
+    OrderAdmission admission = new OrderAdmission(recentOrders, filterBytes, Main::originalDispatch);
+    long covered = admission.load(invoiceDirectory().resolve(ADMISSION_FILE), invoiceStore::crcBefore, invoiceStore.getDataLength());
+    invoiceStore.forEachOrderNumber(covered, admission::remember);
+    Metrics.register(admission);
+    return admission;
+  }
+
+  /**
+   * Returns the result of the first dispatch of an order number, from its oldest invoice.
+   * @param orderNumber the order number.
+   * @return the result, naming the driver on the invoice; null if there is no invoice for the order.
+   * @throws IOException if the invoice store cannot be read.
+   */
+  private static CompletableFuture<DispatchResult> originalDispatch(int orderNumber) throws IOException {
+    List<InvoiceRecord> invoices = invoiceStore.findByOrderNumber(orderNumber);
+    if (invoices.isEmpty()) {
+      return null;
+    }
+    InvoiceRecord first = invoices.get(0);
+    return CompletableFuture.completedFuture(first.isDelivery() ? DispatchResult.assigned(first.getDriverName()) : DispatchResult.NO_DRIVER);
+  }
+
+  private static Path invoiceDirectory() {
+    return Paths.get(System.getProperty("quickfood.invoice.dir", INVOICE_DIR));
+  }
+
+  /**
+   * Opens the order journal using the settings from the system properties
+   * quickfood.journal.dir, quickfood.journal.syncMillis and quickfood.journal.segmentBytes.
+   * @return the open order journal.
+   * @throws IOException if the journal directory cannot be written.
+   */
+  private static OrderJournal openOrderJournal() throws IOException {
+    long syncMillis = Long.getLong("quickfood.journal.syncMillis", 10);
+    long segmentBytes = Long.getLong("quickfood.journal.segmentBytes", 64L << 20);
+    return new OrderJournal(journalDirectory(), syncMillis, segmentBytes);
+  }
+
+  /**
+   * Starts batch dispatch if the system property quickfood.dispatch.mode is batch, with the window
+   * from quickfood.dispatch.batchMillis and quickfood.dispatch.batchOrders.
+   * @return the batch dispatcher, or null for greedy dispatch.
+   */
+  private static BatchDispatcher openBatchDispatcher() {
+    if (!System.getProperty("quickfood.dispatch.mode", "greedy").equalsIgnoreCase("batch")) {
+      return null;
+    }
+    long batchMillis = Long.getLong("quickfood.dispatch.batchMillis", 50);
+    int batchOrders = Integer.getInteger("quickfood.dispatch.batchOrders", 256);
+    return new BatchDispatcher(() -> roster, dispatchRadiusKm, batchMillis, batchOrders, Main::recordDispatch);
+  }
+
+  /**
+   * Starts the delivery timer with the expected delivery time from the system property
+   * quickfood.delivery.expectedMinutes and the resolution from quickfood.delivery.tickMillis.
+   * Orders journalled as dispatched but not delivered before the restart get a full expected
+   * delivery time from now, since their dispatch times are not journalled.
+   * @param undelivered the number of undelivered orders per driver, from the order journal.
+   * @return the running delivery timer.
+   */
+  private static DeliveryTimer openDeliveryTimer(Map<Driver, Integer> undelivered) {
+    expectedDeliveryMillis = Math.round(Double.parseDouble(System.getProperty("quickfood.delivery.expectedMinutes", "45")) * 60_000);
+    long tickMillis = Long.getLong("quickfood.delivery.tickMillis", 1000);
+    // One turn of the wheel covers the expected delivery time, so each tick visits only what is due
+    int wheelSize = (int) Math.min(1 << 20, Math.max(1, expectedDeliveryMillis / Math.max(1, tickMillis) + 1));
+    DeliveryTimer timer = new DeliveryTimer(tickMillis, wheelSize, Main::releaseDelivery);
+    undelivered.forEach((driver, count) -> {
+      for (int i = 0; i < count; i++) {
+        timer.scheduleRecovered(driver, expectedDeliveryMillis);
+      }
+    });
+    return timer;
+  }
+
+  /**
+   * Starts sharded dispatch if the system property quickfood.dispatch.mode is sharded, with the
+   * number of shards from quickfood.dispatch.shards and the transport (local or socket) from
+   * quickfood.dispatch.transport. The locations listed in quickfood.dispatch.isolate, separated by
+   * commas, get shards of their own from the start; after that, every
+   * quickfood.dispatch.rebalanceSeconds the busiest location is isolated if its shard takes more
+   * than quickfood.dispatch.rebalanceThreshold times the average share of orders.
+   * @return the sharded dispatcher, or null for greedy or batch dispatch.
+   * @throws IOException if the shards cannot be started.
+   */
+  private static ShardedDispatcher openShardedDispatcher() throws IOException {
+    if (!System.getProperty("quickfood.dispatch.mode", "greedy").equalsIgnoreCase("sharded")) {
+      return null;
+    }
+    int shards = Integer.getInteger("quickfood.dispatch.shards", 4);
+    ShardedDispatcher.Transport transport = ShardedDispatcher.Transport.valueOf(
+        System.getProperty("quickfood.dispatch.transport", "local").toUpperCase(Locale.ROOT));
+    ShardedDispatcher dispatcher = new ShardedDispatcher(roster.getDrivers(), shards, transport);
+    for (String location : System.getProperty("quickfood.dispatch.isolate", "").split(",")) {
+      if (!location.isBlank() && !dispatcher.isolate(location.trim())) {
+        System.err.println("Cannot give " + location.trim() + " a shard of its own");
+      }
+    }
+    long rebalanceMillis = Math.round(Double.parseDouble(System.getProperty("quickfood.dispatch.rebalanceSeconds", "60")) * 1000);
+    double threshold = Double.parseDouble(System.getProperty("quickfood.dispatch.rebalanceThreshold", "1.5"));
+    shardRebalancer = new Thread(() -> rebalanceShards(dispatcher, rebalanceMillis, threshold), "shard-rebalancer");
+    shardRebalancer.setDaemon(true);
+    if (rebalanceMillis > 0) {
+      shardRebalancer.start();
+    }
+    return dispatcher;
+  }
+
+  // Background loop: isolates a hot location whenever one shard takes too many of the recent orders
+  private static void rebalanceShards(ShardedDispatcher dispatcher, long intervalMillis, double threshold) {
+    try {
+      while (true) {
+        Thread.sleep(intervalMillis);
+        String isolated = dispatcher.rebalance(threshold);
+        if (isolated != null) {
+          System.err.println("Moved " + isolated + " to a dispatch shard of its own");
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stopped at shutdown
+    } catch (IOException e) {
+      System.err.println("Error rebalancing dispatch shards: " + e.getMessage());
+    }
+  }
+
+  private static Path journalDirectory() {
+    return Paths.get(System.getProperty("quickfood.journal.dir", JOURNAL_DIR));
+  }
+
+  /**
+   * Loads location coordinates from the file named by the system property quickfood.locations.file,
+   * and the radius for nearby dispatch from quickfood.dispatch.radiusKm (0 turns it off).
+   * Without the file orders are only dispatched to drivers at the restaurant's location.
+   * @throws IOException if the file exists but cannot be read.
+   */
+  private static void loadCoordinates() throws IOException {
+    Path file = Paths.get(System.getProperty("quickfood.locations.file", LOCATIONS_FILE));
+    dispatchRadiusKm = Double.parseDouble(System.getProperty("quickfood.dispatch.radiusKm", "50"));
+    if (Files.exists(file)) {
+      coordinates = LocationCoordinates.load(file);
+    }
+  }
+
   /**
    * Loads driver information from the specified file.
+   * The loads in the file are raised by the dispatches recorded in the order journal, so
+   * a restart carries on from where the previous run stopped.
    * @param filename the name of the file containing driver information.
+   * @param journalled the state recovered from the order journal.
+   * @return the number of journalled orders not yet delivered, per driver.
    * @throws IOException if an error occurs while reading the file.
    */
-  private static void loadDrivers(String filename) throws IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(filename));
-    String line;
-    while ((line = reader.readLine()) != null) {
-      String[] parts = line.split(",");
-      if (parts.length == 3) {
-        String name = parts[0].trim();
-        String location = parts[1].trim();
-        int load = Integer.parseInt(parts[2].trim());
-        drivers.add(new Driver(name, location, load));
+  private static Map<Driver, Integer> loadDrivers(String filename, OrderJournal.State journalled) throws IOException {
+    long start = Metrics.start();
+    List<Driver> loaded = readDrivers(filename);
+    Map<Driver, Integer> undelivered = journalled.applyTo(loaded);
+    roster = DriverRoster.of(loaded, coordinates);
+    Metrics.record(Metrics.LOAD_DRIVERS, start);
+    return undelivered;
+  }
+
+  /**
+   * Reads the drivers from the binary snapshot of the driver file if it matches the file, which
+   * skips parsing the text. Otherwise the text is parsed and the snapshot rewritten for the next
+   * start. Setting the system property quickfood.drivers.snapshot to false always reads the text.
+   * @param filename the name of the file containing driver information.
+   * @return the drivers in file order, with the loads written in the file.
+   * @throws IOException if an error occurs while reading the file.
+   */
+  private static List<Driver> readDrivers(String filename) throws IOException {
+    if (!Boolean.parseBoolean(System.getProperty("quickfood.drivers.snapshot", "true"))) {
+      return DriverFileLoader.load(filename);
+    }
+    Path file = Paths.get(filename);
+    Path snapshot = DriverSnapshot.pathFor(file);
+    List<Driver> drivers = DriverSnapshot.load(snapshot, file);
+    if (drivers != null) {
+      return drivers;
+    }
+    // Taken before reading, so that a change made while the text is parsed makes the snapshot stale
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    drivers = DriverFileLoader.load(filename);
+    try {
+      DriverSnapshot.write(snapshot, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), drivers);
+    } catch (IOException e) {
+      System.err.println("Error writing driver snapshot: " + e.getMessage());
+    }
+    return drivers;
+  }
+
+  /**
+   * Reloads driver information after the file changed and swaps it in.
+   * Drivers that are in both the old and the new file keep their current load.
+   * Dispatch carries on with the old roster while the file is read, and if the file
+   * cannot be read the old roster stays in place. That includes a file cut short while it is
+   * mapped, which surfaces as an InternalError rather than an IOException.
+   * @param filename the name of the file containing driver information.
+   */
+  private static void reloadDrivers(String filename) {
+    if (shardedDispatcher != null) {
+      System.err.println("Driver file changed; restart to apply it, the drivers are held by the dispatch shards");
+      return;
+    }
+    try {
+      long start = Metrics.start();
+      List<Driver> loaded = readDrivers(filename);
+      roster = roster.reload(loaded);
+      Metrics.record(Metrics.LOAD_DRIVERS, start);
+      System.err.println("Reloaded " + loaded.size() + " drivers from " + filename);
+    } catch (IOException | RuntimeException | InternalError e) {
+      System.err.println("Error reloading drivers, keeping the current roster: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Finds a driver located at the specified location with the least load, or if there is none
+   * there, the least loaded driver within the dispatch radius. In sharded mode only the location's
+   * own drivers are considered.
+   * @param locationId the LocationRegistry ID of the location to search for a driver.
+   * @return the driver with the least load at or near the specified location.
+   * @throws DriverNotFoundException if no driver is found at or near the specified location.
+   * @throws IOException if the location's dispatch shard cannot be reached.
+   */
+  static Driver findDriver(int locationId) throws DriverNotFoundException, IOException {
+    long start = Metrics.startSampled();
+    try {
+      if (shardedDispatcher != null) {
+        try {
+          return shardedDispatcher.claim(locationId);
+        } catch (IOException e) {
+          throw failed("reaching dispatch shard", e);
+        }
       }
+      return roster.claim(locationId, dispatchRadiusKm);
+    } finally {
+      Metrics.record(Metrics.FIND_DRIVER, start);
     }
-    reader.close();
   }
 
   /**
-   * Finds a driver located at the specified location with the least load.
-   * @param location the location to search for a driver.
+   * Finds a driver for an order and records the outcome in the order journal.
+   * @param orderNumber the number of the order being dispatched.
+   * @param locationId the LocationRegistry ID of the location to search for a driver.
    * @return the driver with the least load at the specified location.
    * @throws DriverNotFoundException if no driver is found at the specified location.
+   * @throws IOException if the order journal cannot be written.
    */
-  private static Driver findDriver(String location) throws DriverNotFoundException {
-    Driver bestDriver = null;
-    for (Driver driver : drivers) {
-      if (driver.getLocation().equalsIgnoreCase(location)) {
-        if (bestDriver == null || driver.getLoad() < bestDriver.getLoad()) {
-          bestDriver = driver;
-        }
+  static Driver assignDriver(int orderNumber, int locationId) throws DriverNotFoundException, IOException {
+    Metrics.orderPlaced();
+    Driver driver;
+    try {
+      driver = findDriver(locationId);
+    } catch (DriverNotFoundException e) {
+      Metrics.driverNotFound(locationId);
+      journalNoDriver(orderNumber);
+      throw e;
+    }
+    journalDispatch(orderNumber, driver);
+    deliveryTimer.schedule(orderNumber, driver, expectedDeliveryMillis);
+    return driver;
+  }
+
+  /**
+   * Reports an order delivered: its driver's load goes down and the delivery is journalled.
+   * @param orderNumber the number of the delivered order.
+   * @return the driver who delivered it, or null if no delivery of the order is pending, because it
+   *     was never dispatched, was already reported, or its expected delivery time has passed.
+   * @throws IOException if the order journal cannot be written.
+   */
+  static Driver completeDelivery(int orderNumber) throws IOException {
+    Driver driver = deliveryTimer.cancel(orderNumber);
+    if (driver != null) {
+      releaseLoad(driver);
+      journalDelivery(orderNumber, driver);
+    }
+    return driver;
+  }
+
+  // Called by the delivery timer when an order has not been reported delivered in the expected time
+  private static void releaseDelivery(int orderNumber, Driver driver) {
+    try {
+      releaseLoad(driver);
+      journalDelivery(orderNumber, driver);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
+  // Removes one order from a driver's load, in the roster or on the dispatch shard holding the driver
+  private static void releaseLoad(Driver driver) throws IOException {
+    if (shardedDispatcher != null) {
+      try {
+        shardedDispatcher.release(driver);
+      } catch (IOException e) {
+        throw failed("reaching dispatch shard", e);
       }
+    } else {
+      roster.release(driver);
     }
-    if (bestDriver == null) {
-      throw new DriverNotFoundException("Sorry! Our drivers are too far away from you to be able to deliver to your location.");
+  }
+
+  /**
+   * Assigns a driver to a complete order and writes its invoice.
+   * If no driver is available an unavailable invoice is written instead.
+   * In batch mode this waits for the order's batch to be assigned.
+   * An order whose number was dispatched before is not dispatched again and gets the earlier result.
+   * @param order the order to dispatch.
+   * @return the driver assigned to the order, if any, and whether the order was a duplicate.
+   * @throws IOException if an error occurs while writing the invoice store or the order journal.
+   */
+  static DispatchResult dispatchOrder(Order order) throws IOException {
+    return BatchDispatcher.await(dispatchOrderAsync(order));
+  }
+
+  // Assigns a driver to an order at once and writes its invoice, or the unavailable invoice
+  private static Driver dispatchNow(Order order) throws IOException {
+    Driver driver;
+    try {
+      driver = assignDriver(order.getCustomer().getOrderNumber(), order.getRestaurant().getLocationId());
+    } catch (DriverNotFoundException e) {
+      writeUnavailableInvoice(order.getCustomer());
+      return null;
     }
-    bestDriver.setLoad(bestDriver.getLoad() + 1); // Increment the load of the chosen driver
-    return bestDriver;
+    generateInvoice(order, driver);
+    return driver;
   }
 
   /**
-   * Generates an invoice for the order and writes it to the invoice file.
+   * Dispatches an order without waiting for its batch, so that a single thread can keep a batch filling.
+   * In greedy mode the order is dispatched before this returns.
+   * An order whose number was dispatched before is not dispatched again and gets the earlier result.
+   * @param order the order to dispatch.
+   * @return completes with the driver assigned to the order, if any, and whether the order was a duplicate.
+   * @throws IOException if an error occurs while writing the invoice store or the order journal.
+   */
+  static CompletableFuture<DispatchResult> dispatchOrderAsync(Order order) throws IOException {
+    int orderNumber = order.getCustomer().getOrderNumber();
+    if (orderAdmission != null) {
+      CompletableFuture<DispatchResult> original = admit(orderNumber);
+      if (original != null) {
+        return original.thenApply(DispatchResult::asDuplicate);
+      }
+    }
+    if (batchDispatcher == null) {
+      Driver driver;
+      try {
+        driver = dispatchNow(order);
+      } catch (IOException | RuntimeException e) {
+        abandoned(orderNumber, e);
+        throw e;
+      }
+      admitted(orderNumber, driver);
+      return CompletableFuture.completedFuture(DispatchResult.of(driver));
+    }
+    CompletableFuture<Driver> result = batchDispatcher.submit(order);
+    if (orderAdmission != null) {
+      result.whenComplete((driver, failure) -> {
+        if (failure == null) {
+          admitted(orderNumber, driver);
+        } else {
+          abandoned(orderNumber, failure);
+        }
+      });
+    }
+    return result.thenApply(DispatchResult::of);
+  }
+
+  // Admits an order number, or returns the result of the order first placed with it
+  private static CompletableFuture<DispatchResult> admit(int orderNumber) throws IOException {
+    try {
+      return orderAdmission.admit(orderNumber);
+    } catch (IOException e) {
+      throw failed("reading invoice store", e);
+    }
+  }
+
+  // Records the result of an admitted order, which any later duplicate of it returns
+  private static void admitted(int orderNumber, Driver driver) {
+    if (orderAdmission != null) {
+      orderAdmission.complete(orderNumber, DispatchResult.of(driver));
+    }
+  }
+
+  // Forgets an admitted order whose dispatch failed, so that it can be placed again
+  private static void abandoned(int orderNumber, Throwable failure) {
+    if (orderAdmission != null) {
+      orderAdmission.abandon(orderNumber, failure);
+    }
+  }
+
+  /**
+   * Journals the outcome of a batch-dispatched order and writes its invoice.
+   * @param order the order.
+   * @param driver the driver assigned to the order, or null if no driver is available.
+   * @throws IOException if an error occurs while writing the invoice store or the order journal.
+   */
+  private static void recordDispatch(Order order, Driver driver) throws IOException {
+    int orderNumber = order.getCustomer().getOrderNumber();
+    Metrics.orderPlaced();
+    if (driver == null) {
+      Metrics.driverNotFound(order.getRestaurant().getLocationId());
+      journalNoDriver(orderNumber);
+      writeUnavailableInvoice(order.getCustomer());
+    } else {
+      journalDispatch(orderNumber, driver);
+      deliveryTimer.schedule(orderNumber, driver, expectedDeliveryMillis);
+      generateInvoice(order, driver);
+    }
+  }
+
+  /**
+   * Generates an invoice for the order and queues it for the invoice store.
    * @param order the order to generate an invoice for.
    * @param driver the driver assigned to the order.
-   * @throws IOException if an error occurs while writing the invoice file.
-   */
-  private static void generateInvoice(Order order, Driver driver) throws IOException {
-    BufferedWriter writer = new BufferedWriter(new FileWriter(INVOICE_FILE, true)); // Append mode
-    writer.write("Invoice:");
-    writer.newLine();
-    writer.write("Customer Name: " + order.getCustomer().getName());
-    writer.newLine();
-    writer.write("Order Number: " + order.getCustomer().getOrderNumber());
-    writer.newLine();
-    writer.write("Customer Address: " + order.getCustomer().getAddress());
-    writer.newLine();
-    writer.write("Customer Location: " + order.getCustomer().getLocation());
-    writer.newLine();
-    writer.write("Customer Email: " + order.getCustomer().getEmail());
-    writer.newLine();
-    writer.write("Restaurant Name: " + order.getRestaurant().getName());
-    writer.newLine();
-    writer.write("Restaurant Location: " + order.getRestaurant().getLocation());
-    writer.newLine();
-    writer.write("Driver Name: " + driver.getName());
-    writer.newLine();
-    writer.write("Order Details:");
-    writer.newLine();
-    for (Meal meal : order.getMeals()) {
-      writer.write("Meal: " + meal.getName() + ", Quantity: " + meal.getQuantity() + ", Price: $" + meal.getPrice());
-      writer.newLine();
-    }
-    writer.write("Total Amount: $" + order.getTotalAmount());
-    writer.newLine();
-    writer.write("Special Instructions: " + order.getSpecialInstructions());
-    writer.newLine();
-    writer.write("--------------------------------------------------------");
-    writer.newLine();
-    writer.close();
+   * @throws IOException if an error occurs while writing the invoice store.
+   */
+  static void generateInvoice(Order order, Driver driver) throws IOException {
+    long start = Metrics.startSampled();
+    writeInvoice(InvoiceRecord.of(order, driver));
+    Metrics.record(Metrics.GENERATE_INVOICE, start);
+  }
+
+  /**
+   * Renders the invoice text for an order, one field per line.
+   * @param order the order to render an invoice for.
+   * @param driver the driver assigned to the order.
+   * @return the invoice text, including the trailing separator line.
+   */
+  static String renderInvoice(Order order, Driver driver) {
+    return InvoiceRecord.of(order, driver).render();
   }
 
   /**
    * Writes an invoice indicating that delivery is not available for the customer.
    * @param customer the customer to generate the invoice for.
-   * @throws IOException if an error occurs while writing the invoice file.
-   */
-  private static void writeUnavailableInvoice(Customer customer) throws IOException {
-    BufferedWriter writer = new BufferedWriter(new FileWriter(INVOICE_FILE, true)); // Append mode
-    writer.write("Invoice:");
-    writer.newLine();
-    writer.write("Customer Name: " + customer.getName());
-    writer.newLine();
-    writer.write("Order Number: " + customer.getOrderNumber());
-    writer.newLine();
-    writer.write("Customer Address: " + customer.getAddress());
-    writer.newLine();
-    writer.write("Customer Location: " + customer.getLocation());
-    writer.newLine();
-    writer.write("Customer Email: " + customer.getEmail());
-    writer.newLine();
-    writer.write("Sorry! Our drivers are too far away from you to be able to deliver to your location.");
-    writer.newLine();
-    writer.write("--------------------------------------------------------");
-    writer.newLine();
-    writer.close();
+   * @throws IOException if an error occurs while writing the invoice store.
+   */
+  static void writeUnavailableInvoice(Customer customer) throws IOException {
+    writeInvoice(InvoiceRecord.unavailable(customer));
+  }
+
+  // Queues an invoice for the invoice store
+  private static void writeInvoice(InvoiceRecord record) throws IOException {
+    try {
+      invoiceWriter.submit(record);
+    } catch (IOException e) {
+      throw failed("writing invoice", e);
+    }
+  }
+
+  // Journals that no driver was available for an order
+  private static void journalNoDriver(int orderNumber) throws IOException {
+    try {
+      orderJournal.recordNoDriver(orderNumber);
+    } catch (IOException e) {
+      throw failed("writing order journal", e);
+    }
+  }
+
+  // Journals the driver assigned to an order
+  private static void journalDispatch(int orderNumber, Driver driver) throws IOException {
+    try {
+      orderJournal.recordDispatch(orderNumber, driver);
+    } catch (IOException e) {
+      throw failed("writing order journal", e);
+    }
+  }
+
+  // Journals an order delivered, or released when its expected delivery time passed
+  private static void journalDelivery(int orderNumber, Driver driver) throws IOException {
+    try {
+      orderJournal.recordDelivery(orderNumber, driver);
+    } catch (IOException e) {
+      throw failed("writing order journal", e);
+    }
+  }
+
+  // Names the stage of placing an order that failed, so whoever reports the error can say what went wrong
+  private static IOException failed(String stage, IOException e) {
+    return new IOException("Error " + stage + ": " + e.getMessage(), e);
+  }
+
+  /**
+   * Renders the invoice text for a customer that cannot be delivered to.
+   * @param customer the customer to render the invoice for.
+   * @return the invoice text, including the trailing separator line.
+   */
+  static String renderUnavailableInvoice(Customer customer) {
+    return InvoiceRecord.unavailable(customer).render();
   }
 }
@@ -0,0 +1,219 @@
+package quickfood;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*Metrics holds the latency histograms and counters of the order path, shared by every thread.
+  Recording is lock-free: a histogram bucket increment or a LongAdder add. Everything can be read
+  over JMX as quickfood:type=Metrics or as plain text from dump().
+
+  Reading the clock costs more than the histogram update, so the per-order timings are sampled:
+  startSampled() times one call in quickfood.metrics.sampleEvery (default 16, rounded up to a power
+  of two; 1 times every call), chosen at random so that the percentiles stay unbiased. Their counts
+  are therefore sample counts. Counters, and timings started with start(), see every call.
+
+  Running with -Dquickfood.metrics=false turns recording off. The flag is a static final constant,
+  so the JIT removes the timing calls altogether rather than testing it on every order.
+*/
+public final class Metrics {
+  static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("quickfood.metrics", "true"));
+  private static final int SAMPLE_MASK = Integer.highestOneBit(Math.max(1, Integer.getInteger("quickfood.metrics.sampleEvery", 16)) * 2 - 1) - 1;
+
+  public static final LatencyHistogram FIND_DRIVER = new LatencyHistogram("findDriver");
+  public static final LatencyHistogram CUSTOMER = new LatencyHistogram("customer");
+  public static final LatencyHistogram GENERATE_INVOICE = new LatencyHistogram("generateInvoice");
+  public static final LatencyHistogram LOAD_DRIVERS = new LatencyHistogram("loadDrivers");
+  private static final LatencyHistogram[] HISTOGRAMS = {FIND_DRIVER, CUSTOMER, GENERATE_INVOICE, LOAD_DRIVERS};
+
+  private static final LongAdder ordersPlaced = new LongAdder();
+  private static volatile OrderAdmission admission;
+  private static volatile long firstOrderMillis; // Wall-clock time of the first order, for measuring startup
+  private static final Map<Integer, LongAdder> driverNotFound = new ConcurrentHashMap<>();
+  private static final Map<String, LongAdder> validationFailures = new ConcurrentHashMap<>();
+
+  private Metrics() {
+  }
+
+  // Returns the start time to pass to record, or 0 without calling the clock when metrics are off
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  // Like start(), but returns 0 for the calls that are not sampled
+  public static long startSampled() {
+    return ENABLED && (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+  }
+
+  // Records the time since start() or startSampled() in the histogram, unless the call was not timed
+  public static void record(LatencyHistogram histogram, long start) {
+    if (ENABLED && start != 0) {
+      histogram.recordSince(start);
+    }
+  }
+
+  // Counts an order whose dispatch was attempted, whether or not a driver was found
+  public static void orderPlaced() {
+    if (ENABLED) {
+      ordersPlaced.increment();
+      if (firstOrderMillis == 0) {
+        firstOrderMillis = System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+   * Counts an order for which no driver was found.
+   * @param locationId the LocationRegistry ID of the restaurant location, or UNKNOWN.
+   */
+  public static void driverNotFound(int locationId) {
+    if (ENABLED) {
+      driverNotFound.computeIfAbsent(locationId, id -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * Counts an order rejected because of invalid input.
+   * @param field the invalid field, or null if the input as a whole was malformed.
+   */
+  public static void validationFailed(String field) {
+    if (ENABLED) {
+      validationFailures.computeIfAbsent(field != null ? field : "input", f -> new LongAdder()).increment();
+    }
+  }
+
+  public static long getOrdersPlaced() {
+    return ordersPlaced.sum();
+  }
+
+  // Returns the no-driver count per location name, sorted by name
+  public static Map<String, Long> getDriverNotFound() {
+    Map<String, Long> counts = new TreeMap<>();
+    driverNotFound.forEach((id, count) ->
+        counts.merge(id == LocationRegistry.UNKNOWN ? "(unknown location)" : LocationRegistry.name(id), count.sum(), Long::sum));
+    return counts;
+  }
+
+  // Returns the validation failure count per field, sorted by field
+  public static Map<String, Long> getValidationFailures() {
+    Map<String, Long> counts = new TreeMap<>();
+    validationFailures.forEach((field, count) -> counts.put(field, count.sum()));
+    return counts;
+  }
+
+  // Includes the duplicate order statistics of an order admission in the dump
+  public static void register(OrderAdmission orderAdmission) {
+    admission = orderAdmission;
+  }
+
+  // Renders every metric as text, one per line
+  public static String dump() {
+    StringBuilder text = new StringBuilder();
+    String n = System.lineSeparator();
+    text.append("orders.placed ").append(getOrdersPlaced()).append(n);
+    if (firstOrderMillis != 0) {
+      text.append("orders.firstAtMillis ").append(firstOrderMillis).append(n);
+    }
+    for (LatencyHistogram histogram : HISTOGRAMS) {
+      text.append("latency.").append(histogram.snapshot()).append(n);
+    }
+    getDriverNotFound().forEach((location, count) -> text.append("driverNotFound[").append(location).append("] ").append(count).append(n));
+    getValidationFailures().forEach((field, count) -> text.append("validationFailures[").append(field).append("] ").append(count).append(n));
+    text.append(ProfileCache.CUSTOMERS).append(n);
+    text.append(ProfileCache.RESTAURANTS).append(n);
+    if (admission != null) {
+      text.append(admission).append(n);
+    }
+    return text.toString();
+  }
+
+  /**
+   * Writes the text dump to a file, replacing it.
+   * @param file the file to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void dump(Path file) throws IOException {
+    Files.write(file, dump().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Publishes the metrics on the platform MBean server as quickfood:type=Metrics.
+   * @throws JMException if the MBean cannot be registered.
+   */
+  public static void registerMBean() throws JMException {
+    ObjectName name = new ObjectName("quickfood:type=Metrics");
+    if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+    }
+  }
+
+  // The JMX view of the metrics
+  public interface MetricsMXBean {
+    long getOrdersPlaced();
+
+    Map<String, Long> getDriverNotFound();
+
+    Map<String, Long> getValidationFailures();
+
+    LatencyHistogram.Snapshot getFindDriver();
+
+    LatencyHistogram.Snapshot getCustomer();
+
+    LatencyHistogram.Snapshot getGenerateInvoice();
+
+    LatencyHistogram.Snapshot getLoadDrivers();
+
+    String dump();
+  }
+
+  private static final class MBean implements MetricsMXBean {
+    @Override
+    public long getOrdersPlaced() {
+      return Metrics.getOrdersPlaced();
+    }
+
+    @Override
+    public Map<String, Long> getDriverNotFound() {
+      return Metrics.getDriverNotFound();
+    }
+
+    @Override
+    public Map<String, Long> getValidationFailures() {
+      return Metrics.getValidationFailures();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFindDriver() {
+      return FIND_DRIVER.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCustomer() {
+      return CUSTOMER.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getGenerateInvoice() {
+      return GENERATE_INVOICE.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getLoadDrivers() {
+      return LOAD_DRIVERS.snapshot();
+    }
+
+    @Override
+    public String dump() {
+      return Metrics.dump();
+    }
+  }
+}
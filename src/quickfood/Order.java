@@ -6,7 +6,7 @@ import java.util.List;
 public class Order {
   private Customer customer;
   private Restaurant restaurant;
-  private List<Meal> meals;
+  private OrderLines lines;
   private String specialInstructions;
   private double totalAmount;
 
@@ -14,11 +14,20 @@ public class Order {
  public Order(Customer customer, Restaurant restaurant, List<Meal> meals, String specialInstructions, double totalAmount) {
    this.customer = customer;
    this.restaurant = restaurant;
-   this.meals = meals;
+   this.lines = OrderLines.of(meals);
    this.specialInstructions = specialInstructions;
    this.totalAmount = totalAmount;
  }
 
+ // Constructor to initialize an Order object whose total is the exact sum of its lines
+ public Order(Customer customer, Restaurant restaurant, OrderLines lines, String specialInstructions) {
+   this.customer = customer;
+   this.restaurant = restaurant;
+   this.lines = lines;
+   this.specialInstructions = specialInstructions;
+   this.totalAmount = lines.totalAmount();
+ }
+
  // Getters and setters
  public Customer getCustomer() {
    return customer;
@@ -36,12 +45,21 @@ public class Order {
    this.restaurant = restaurant;
  }
 
+ // Returns a read-only view of the order lines as meals
  public List<Meal> getMeals() {
-   return meals;
+   return lines.asMeals();
  }
 
  public void setMeals(List<Meal> meals) {
-   this.meals = meals;
+   this.lines = OrderLines.of(meals);
+ }
+
+ public OrderLines getLines() {
+   return lines;
+ }
+
+ public void setLines(OrderLines lines) {
+   this.lines = lines;
  }
 
  public String getSpecialInstructions() {
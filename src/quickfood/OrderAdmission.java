@@ -0,0 +1,402 @@
+package quickfood;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/*OrderAdmission lets each order number be dispatched once. An order whose number was seen before
+  is not dispatched again: it gets the result of the first dispatch, so a replayed or retried order
+  neither adds to a driver's load nor writes a second invoice.
+
+  Recent order numbers are kept exactly, with their results, in two generations of open-addressing
+  tables of primitive longs: when the current generation is full the older one is cleared and
+  reused, so the most recent recentOrders to twice that many numbers are remembered. An order
+  dispatched concurrently with its duplicate is in the table from the start, and the duplicate waits
+  for its result. Pending orders move along when the generations rotate, and a generation grows if
+  more orders are pending than it holds, so none is forgotten before its dispatch ends.
+
+  Older order numbers are only remembered by two generations of Bloom filters, sized so the filters
+  of hundreds of millions of orders stay within a fixed budget. A number the filters have not seen
+  is new without further ado, which is the common case. One they may have seen is looked up in the
+  history, the invoice store's order index, which gives the original result of an order that is
+  really a duplicate; about 1% of new numbers take that lookup by false positive. The lookup reads
+  the disk, so it is made without holding the lock, and the recent window is checked again after it.
+
+  The filters are written to a file when the store is closed, with the length of invoice data they
+  cover, and read back at startup; the order numbers of invoices written after that, or of the
+  whole store if there is no usable file, are added from the store.
+*/
+public final class OrderAdmission {
+
+  // Looks up the result of an order dispatched before the recent window, or null if there was none
+  public interface History {
+    CompletableFuture<DispatchResult> find(int orderNumber) throws IOException;
+  }
+
+  // Returns the CRC of the invoice record that ends at a given length of the invoice data
+  public interface CrcLookup {
+    int crc(long end) throws IOException;
+  }
+
+  private static final int MAGIC = 0x51464142; // "QFAB"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 48;
+  private static final int BITS_PER_ORDER = 10;
+
+  private final History history;
+  private final int recentOrders;
+  private Generation current;
+  private Generation previous;
+  private BloomFilter currentFilter;
+  private BloomFilter previousFilter;
+  private final long filterCapacity; // Orders per filter generation
+  private long admitted;
+  private long duplicates;
+  private long historyLookups;
+  private long falsePositives;
+
+  // Exact order numbers and their results: a DispatchResult, or the future of a pending dispatch
+  private static final class Generation {
+    final long[] keys; // 0 for a free slot
+    final Object[] results;
+    final int mask;
+    int size;
+
+    Generation(int capacity) {
+      int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2; // At most half full
+      keys = new long[slots];
+      results = new Object[slots];
+      mask = slots - 1;
+    }
+
+    // Returns the slot holding the key, or the free slot where it would go
+    int slot(long key) {
+      int slot = (int) (key * 0x9e3779b97f4a7c15L >>> 32) & mask;
+      while (keys[slot] != 0 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    // Returns a generation with room for at least capacity keys, holding the keys and results of this one
+    Generation grow(int capacity) {
+      Generation larger = new Generation(capacity);
+      for (int slot = 0; slot < keys.length; slot++) {
+        if (keys[slot] != 0) {
+          int to = larger.slot(keys[slot]);
+          larger.keys[to] = keys[slot];
+          larger.results[to] = results[slot];
+          larger.size++;
+        }
+      }
+      return larger;
+    }
+
+    void clear() {
+      Arrays.fill(keys, 0);
+      Arrays.fill(results, null);
+      size = 0;
+    }
+  }
+
+  /**
+   * Creates an admission filter that remembers nothing yet.
+   * @param recentOrders the order numbers per generation of the exact window, at least 1.
+   * @param filterBytes the memory for the Bloom filters, split between their two generations.
+   * @param history where to look up orders that are older than the exact window.
+   */
+  public OrderAdmission(int recentOrders, long filterBytes, History history) {
+    this.history = history;
+    this.recentOrders = Math.max(1, recentOrders);
+    this.current = new Generation(this.recentOrders);
+    this.previous = new Generation(this.recentOrders);
+    this.currentFilter = new BloomFilter(filterBytes / 2);
+    this.previousFilter = new BloomFilter(filterBytes / 2);
+    this.filterCapacity = Math.max(1, currentFilter.bytes() * 8 / BITS_PER_ORDER);
+  }
+
+  /**
+   * Admits an order number, unless it was seen before.
+   * @param orderNumber the order number.
+   * @return null if the order is new and is to be dispatched, after which complete() or abandon()
+   *     must be called; otherwise the result of the first dispatch of the number, which may still be pending.
+   * @throws IOException if the history cannot be read.
+   */
+  public CompletableFuture<DispatchResult> admit(int orderNumber) throws IOException {
+    long key = key(orderNumber);
+    synchronized (this) {
+      Object result = recent(key);
+      if (result != null) {
+        duplicates++;
+        return future(result);
+      }
+      if (!currentFilter.mightContain(key) && !previousFilter.mightContain(key)) {
+        return admitNew(key);
+      }
+      historyLookups++;
+    }
+    CompletableFuture<DispatchResult> original = history.find(orderNumber);
+    synchronized (this) {
+      // The same number may have been admitted while the history was read
+      Object result = recent(key);
+      if (result != null) {
+        duplicates++;
+        return future(result);
+      }
+      if (original != null) {
+        duplicates++;
+        return original;
+      }
+      falsePositives++; // Or an abandoned order placed again
+      return admitNew(key);
+    }
+  }
+
+  // Enters a new order number in the window as pending; returns null for admit() to return
+  private CompletableFuture<DispatchResult> admitNew(long key) {
+    admitted++;
+    put(key, new CompletableFuture<DispatchResult>());
+    addToFilter(key);
+    return null;
+  }
+
+  private static CompletableFuture<DispatchResult> future(Object result) {
+    return result instanceof CompletableFuture ? cast(result) : CompletableFuture.completedFuture((DispatchResult) result);
+  }
+
+  /**
+   * Records the result of dispatching an admitted order, and hands it to any duplicate waiting for it.
+   * @param orderNumber the order number.
+   * @param result the result of the dispatch.
+   */
+  public void complete(int orderNumber, DispatchResult result) {
+    CompletableFuture<DispatchResult> pending = replace(key(orderNumber), result);
+    if (pending != null) {
+      pending.complete(result);
+    }
+  }
+
+  /**
+   * Forgets an admitted order whose dispatch failed, so that it can be placed again. A duplicate
+   * waiting for its result fails with the same error.
+   * @param orderNumber the order number.
+   * @param failure why the dispatch failed.
+   */
+  public void abandon(int orderNumber, Throwable failure) {
+    CompletableFuture<DispatchResult> pending = replace(key(orderNumber), null);
+    if (pending != null) {
+      pending.completeExceptionally(failure);
+    }
+  }
+
+  // Sets the result of a recent order and returns its pending future, if any
+  private synchronized CompletableFuture<DispatchResult> replace(long key, Object result) {
+    Generation generation = current;
+    int slot = generation.slot(key);
+    if (generation.keys[slot] != key) {
+      generation = previous;
+      slot = generation.slot(key);
+      if (generation.keys[slot] != key) {
+        return null; // Not admitted
+      }
+    }
+    Object pending = generation.results[slot];
+    generation.results[slot] = result;
+    return pending instanceof CompletableFuture ? cast(pending) : null;
+  }
+
+  private Object recent(long key) {
+    int slot = current.slot(key);
+    if (current.keys[slot] == key && current.results[slot] != null) {
+      return current.results[slot];
+    }
+    slot = previous.slot(key);
+    return previous.keys[slot] == key ? previous.results[slot] : null;
+  }
+
+  // Adds a key to the exact window, clearing the older generation for reuse when the current one is full
+  private void put(long key, Object result) {
+    if (current.keys[current.slot(key)] != key && current.size >= recentOrders) {
+      rotate();
+    }
+    int slot = current.slot(key);
+    if (current.keys[slot] != key) {
+      if ((current.size + 1) * 2 > current.keys.length) {
+        // The generation is taken up by orders still pending: a full table would never find a free slot
+        current = current.grow(current.size + 1);
+        slot = current.slot(key);
+      }
+      current.keys[slot] = key;
+      current.size++;
+    }
+    current.results[slot] = result;
+  }
+
+  // Clears the older generation and makes it the current one; orders still being dispatched move along
+  private void rotate() {
+    Generation oldest = previous;
+    List<Long> keys = new ArrayList<>();
+    List<Object> pending = new ArrayList<>();
+    for (int slot = 0; slot < oldest.keys.length; slot++) {
+      if (oldest.results[slot] instanceof CompletableFuture) {
+        keys.add(oldest.keys[slot]);
+        pending.add(oldest.results[slot]);
+      }
+    }
+    oldest.clear();
+    previous = current;
+    current = oldest;
+    for (int i = 0; i < keys.size(); i++) {
+      int slot = current.slot(keys.get(i));
+      current.keys[slot] = keys.get(i);
+      current.results[slot] = pending.get(i);
+      current.size++;
+    }
+  }
+
+  private void addToFilter(long key) {
+    if (currentFilter.count() >= filterCapacity) {
+      BloomFilter full = currentFilter;
+      currentFilter = previousFilter;
+      previousFilter = full;
+      currentFilter.clear();
+    }
+    currentFilter.add(key);
+  }
+
+  // Adds an order number already dispatched, taken from the history, to the filters
+  synchronized void remember(int orderNumber) {
+    addToFilter(key(orderNumber));
+  }
+
+  // Never 0, which marks a free slot
+  private static long key(int orderNumber) {
+    return (orderNumber & 0xffffffffL) | 1L << 32;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static CompletableFuture<DispatchResult> cast(Object pending) {
+    return (CompletableFuture<DispatchResult>) pending;
+  }
+
+  /**
+   * Reads back the filters written by save(), if the file matches this filter's size.
+   * @param file the file written by save().
+   * @param crcAt returns the CRC of the invoice record ending at a given data length, to check that
+   *     the store is the one the file was written for.
+   * @param dataLength the current length of the invoice data.
+   * @return the length of invoice data the filters now cover, or 0 if the file was missing or unusable.
+   * @throws IOException if the file cannot be read.
+   */
+  public synchronized long load(Path file, CrcLookup crcAt, long dataLength) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // Read the whole header
+      }
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+        return 0;
+      }
+      long covered = header.getLong();
+      int lastCrc = header.getInt();
+      header.getInt(); // Reserved
+      long filterBytes = header.getLong();
+      long currentCount = header.getLong();
+      long previousCount = header.getLong();
+      if (filterBytes != currentFilter.bytes() || covered > dataLength || (covered > 0 && crcAt.crc(covered) != lastCrc)
+          || channel.size() != HEADER_BYTES + 2 * filterBytes + 4) {
+        return 0;
+      }
+      CRC32 crc = new CRC32();
+      ByteBuffer block = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+      for (BloomFilter filter : new BloomFilter[] {currentFilter, previousFilter}) {
+        int word = 0;
+        long words = filter.bytes() / 8;
+        while (word < words) {
+          block.clear().limit((int) Math.min(block.capacity(), (words - word) * 8));
+          while (block.hasRemaining() && channel.read(block) >= 0) {
+            // Fill the block
+          }
+          block.flip();
+          crc.update(block.duplicate());
+          word = filter.readFrom(word, block);
+        }
+      }
+      ByteBuffer check = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      while (check.hasRemaining() && channel.read(check) >= 0) {
+        // Read the CRC
+      }
+      if (check.getInt(0) != (int) crc.getValue()) {
+        currentFilter.clear();
+        previousFilter.clear();
+        return 0;
+      }
+      currentFilter.setCount(currentCount);
+      previousFilter.setCount(previousCount);
+      return covered;
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Writes the filters to a file, replacing it in one step, for load() at the next startup.
+   * @param file the file to write.
+   * @param covered the length of invoice data whose order numbers the filters hold.
+   * @param lastCrc the CRC of the invoice record that ends there, or 0 if there is none.
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void save(Path file, long covered, int lastCrc) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer block = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+      block.putInt(MAGIC).putInt(VERSION).putLong(covered).putInt(lastCrc).putInt(0)
+          .putLong(currentFilter.bytes()).putLong(currentFilter.count()).putLong(previousFilter.count());
+      writeFully(channel, block.flip());
+      CRC32 crc = new CRC32();
+      for (BloomFilter filter : new BloomFilter[] {currentFilter, previousFilter}) {
+        int word = 0;
+        long words = filter.bytes() / 8;
+        while (word < words) {
+          block.clear();
+          word = filter.writeTo(word, block);
+          block.flip();
+          crc.update(block.duplicate());
+          writeFully(channel, block);
+        }
+      }
+      block.clear().putInt((int) crc.getValue());
+      writeFully(channel, block.flip());
+      channel.force(true);
+    }
+    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+  }
+
+  // Renders the statistics as one line, as in Metrics.dump()
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.ROOT, "admission admitted=%d duplicates=%d historyLookups=%d falsePositives=%d recent=%d filtered=%d filterBytes=%d",
+        admitted, duplicates, historyLookups, falsePositives, current.size + previous.size,
+        currentFilter.count() + previousFilter.count(), currentFilter.bytes() + previousFilter.bytes());
+  }
+}
@@ -0,0 +1,577 @@
+package quickfood;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*OrderJournal is an append-only binary log of dispatch and delivery events, used to rebuild
+  driver loads after a crash. Records are collected in memory and written and fsynced together by a background
+  thread every sync interval, so a crash loses at most that interval of events.
+
+  The journal directory holds numbered segment files and one checkpoint. Each process run appends
+  to a new segment, and a segment is closed once it grows past the segment size. Closed segments
+  are folded into the checkpoint (outstanding orders per driver) and deleted, so recovery reads the
+  checkpoint plus at most a few segments no matter how long the system has been running.
+
+  Record layout: int payload length, payload, int CRC32 of the payload. The payload is a type
+  byte and an int order number, followed for dispatches and deliveries by the driver's name and
+  location as length-prefixed UTF-8. Replay of a segment stops at the first incomplete or corrupt record,
+  which can only be the tail of a segment that was being written when the process died.
+*/
+public class OrderJournal implements AutoCloseable {
+  private static final byte DISPATCHED = 1;
+  private static final byte NO_DRIVER = 2;
+  private static final byte DELIVERED = 3;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CHECKPOINT_FILE = "checkpoint.bin";
+  private static final int CHECKPOINT_MAGIC = 0x51464a44; // "QFJD", with the delivered total
+  private static final int CHECKPOINT_MAGIC_V1 = 0x51464a43; // "QFJC", written before deliveries were journalled
+  private static final int MAX_PAYLOAD = 1 << 20;
+  private static final int MAX_STRING_CHARS = 0xffff / 3;
+  private static final int SYNC_BYTES = 1 << 20; // Wake the sync thread early once this much is buffered
+  private static final int MAX_PENDING_BYTES = 16 << 20; // Recording waits while this much is buffered
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final long syncIntervalNanos;
+  private final CRC32 crc = new CRC32();
+  private final Thread thread;
+  private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+  private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+  private FileChannel segment;
+  private long segmentNumber;
+  private IOException failure;
+  private boolean closed;
+
+  /**
+   * Opens a new segment in the journal directory and starts the background sync thread.
+   * Call recover() first; segments left by earlier runs are folded into the checkpoint in the background.
+   * @param directory the journal directory, created if missing.
+   * @param syncIntervalMillis how often buffered records are written and fsynced.
+   * @param segmentBytes the size after which a segment is closed and a new one started.
+   * @throws IOException if the journal cannot be created.
+   */
+  public OrderJournal(Path directory, long syncIntervalMillis, long segmentBytes) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+    Files.createDirectories(directory);
+    List<Long> existing = segmentNumbers(directory);
+    this.segmentNumber = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+    this.segment = openSegment(segmentNumber);
+    this.thread = new Thread(this::run, "order-journal");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Records that an order was dispatched to a driver.
+   * @param orderNumber the order number.
+   * @param driver the driver the order was assigned to.
+   * @throws IOException if the journal has failed or is closed.
+   */
+  public void recordDispatch(int orderNumber, Driver driver) throws IOException {
+    append(DISPATCHED, orderNumber, driver.getName(), driver.getLocation());
+  }
+
+  /**
+   * Records that a driver delivered an order, or that its expected delivery time passed.
+   * @param orderNumber the order number, or 0 if it is not known.
+   * @param driver the driver the order was assigned to.
+   * @throws IOException if the journal has failed or is closed.
+   */
+  public void recordDelivery(int orderNumber, Driver driver) throws IOException {
+    append(DELIVERED, orderNumber, driver.getName(), driver.getLocation());
+  }
+
+  /**
+   * Records that no driver could be found for an order.
+   * @param orderNumber the order number.
+   * @throws IOException if the journal has failed or is closed.
+   */
+  public void recordNoDriver(int orderNumber) throws IOException {
+    append(NO_DRIVER, orderNumber, null, null);
+  }
+
+  private synchronized void append(byte type, int orderNumber, String name, String location) throws IOException {
+    while (pending.position() >= MAX_PENDING_BYTES && failure == null && !closed) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the order journal", e);
+      }
+    }
+    if (failure != null) {
+      throw new IOException("Order journal failed: " + failure.getMessage(), failure);
+    }
+    if (closed) {
+      throw new IOException("Order journal is closed");
+    }
+    // UTF-8 takes at most three bytes per char, which keeps each string within its two-byte length
+    if (name != null && (name.length() > MAX_STRING_CHARS || location.length() > MAX_STRING_CHARS)) {
+      throw new IOException("Journal record too large");
+    }
+    ensureCapacity(17 + (name == null ? 0 : 3 * (name.length() + location.length())));
+    int start = pending.position();
+    pending.position(start + 4);
+    pending.put(type);
+    pending.putInt(orderNumber);
+    if (name != null) {
+      putString(name);
+      putString(location);
+    }
+    int payload = pending.position() - start - 4;
+    pending.putInt(start, payload);
+    crc.reset();
+    crc.update(pending.array(), start + 4, payload);
+    pending.putInt((int) crc.getValue());
+    if (pending.position() >= SYNC_BYTES) {
+      notifyAll();
+    }
+  }
+
+  // Writes a length-prefixed UTF-8 string, copying chars straight into the buffer while they are ASCII
+  private void putString(String value) {
+    byte[] bytes = pending.array();
+    int at = pending.position() + 2;
+    int length = value.length();
+    int i = 0;
+    while (i < length && value.charAt(i) < 0x80) {
+      bytes[at + i] = (byte) value.charAt(i);
+      i++;
+    }
+    if (i < length) {
+      byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+      length = encoded.length;
+      System.arraycopy(encoded, 0, bytes, at, length);
+    }
+    pending.putShort((short) length);
+    pending.position(at + length);
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (pending.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+      pending.flip();
+      larger.put(pending);
+      pending = larger;
+    }
+  }
+
+  /**
+   * Writes and fsyncs everything recorded so far, then stops the sync thread and closes the segment.
+   * @throws IOException if an error occurred while writing the journal.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (failure == null) {
+        try {
+          sync();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      segment.close();
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  // Background loop: group-commits buffered records every sync interval and compacts closed segments
+  private void run() {
+    try {
+      compact();
+      while (true) {
+        synchronized (this) {
+          if (!closed && pending.position() < SYNC_BYTES) {
+            TimeUnit.NANOSECONDS.timedWait(this, syncIntervalNanos);
+          }
+          if (closed) {
+            return;
+          }
+        }
+        if (sync()) {
+          compact();
+        }
+      }
+    } catch (IOException e) {
+      synchronized (this) {
+        failure = e;
+        notifyAll();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Writes and fsyncs the pending records; returns whether the segment was rolled over
+  private boolean sync() throws IOException {
+    FileChannel channel;
+    synchronized (this) {
+      if (pending.position() == 0) {
+        return false;
+      }
+      ByteBuffer swap = writing;
+      writing = pending;
+      pending = swap;
+      pending.clear();
+      channel = segment;
+      notifyAll();
+    }
+    writing.flip();
+    while (writing.hasRemaining()) {
+      channel.write(writing);
+    }
+    writing.clear();
+    channel.force(false);
+    if (channel.size() < segmentBytes) {
+      return false;
+    }
+    synchronized (this) {
+      segment.close();
+      segmentNumber++;
+      segment = openSegment(segmentNumber);
+    }
+    return true;
+  }
+
+  // Folds every segment before the active one into the checkpoint and deletes them
+  private void compact() throws IOException {
+    long active;
+    synchronized (this) {
+      active = segmentNumber;
+    }
+    State state = readCheckpoint(directory);
+    List<Path> folded = new ArrayList<>();
+    for (long number : segmentNumbers(directory)) {
+      if (number < active && number > state.lastSegment) {
+        Path path = segmentPath(directory, number);
+        replaySegment(path, state);
+        state.lastSegment = number;
+        folded.add(path);
+      }
+    }
+    if (folded.isEmpty()) {
+      return;
+    }
+    writeCheckpoint(directory, state);
+    for (Path path : folded) {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private FileChannel openSegment(long number) throws IOException {
+    return FileChannel.open(segmentPath(directory, number),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Rebuilds the journalled state: the checkpoint plus every segment written after it.
+   * @param directory the journal directory; a missing directory means an empty journal.
+   * @return the outstanding orders per driver and the order totals.
+   * @throws IOException if the checkpoint or a segment cannot be read.
+   */
+  public static State recover(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return new State();
+    }
+    State state = readCheckpoint(directory);
+    for (long number : segmentNumbers(directory)) {
+      if (number > state.lastSegment) {
+        replaySegment(segmentPath(directory, number), state);
+      }
+    }
+    return state;
+  }
+
+  private static void replaySegment(Path path, State state) throws IOException {
+    // Count orders by the raw driver bytes and decode each distinct driver once at the end
+    DriverCounts counts = new DriverCounts();
+    try {
+      replaySegment(path, state, counts);
+    } finally {
+      counts.addTo(state);
+    }
+  }
+
+  private static void replaySegment(Path path, State state, DriverCounts counts) throws IOException {
+    CRC32 check = new CRC32();
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    byte[] bytes = buffer.array();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      while (true) {
+        // Parse every complete record in the buffer, then keep the partial one and read more
+        buffer.flip();
+        while (buffer.remaining() >= 4) {
+          int at = buffer.position();
+          int length = buffer.getInt(at);
+          if (length < 5 || length > MAX_PAYLOAD) {
+            return; // Torn or corrupt tail
+          }
+          if (buffer.remaining() < length + 8) {
+            break;
+          }
+          check.reset();
+          check.update(bytes, at + 4, length);
+          if ((int) check.getValue() != buffer.getInt(at + 4 + length)) {
+            return;
+          }
+          // Skip the order number; the name and location follow it unchanged as the driver's key
+          byte type = bytes[at + 4];
+          if (type == DISPATCHED) {
+            counts.add(bytes, at + 9, at + 4 + length, 1);
+            state.dispatched++;
+          } else if (type == DELIVERED) {
+            counts.add(bytes, at + 9, at + 4 + length, -1);
+            state.delivered++;
+          } else if (type == NO_DRIVER) {
+            state.noDriver++;
+          }
+          buffer.position(at + length + 8);
+        }
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+          buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+          bytes = buffer.array();
+        }
+        if (channel.read(buffer) < 0) {
+          return; // A partial record at the end is a torn tail
+        }
+      }
+    }
+  }
+
+  private static String string(ByteBuffer record) {
+    int length = record.getShort() & 0xffff;
+    String value = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+    record.position(record.position() + length);
+    return value;
+  }
+
+  private static State readCheckpoint(Path directory) throws IOException {
+    Path path = directory.resolve(CHECKPOINT_FILE);
+    State state = new State();
+    if (!Files.exists(path)) {
+      return state;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      int magic = in.readInt();
+      if (magic != CHECKPOINT_MAGIC && magic != CHECKPOINT_MAGIC_V1) {
+        throw new IOException("Not a journal checkpoint: " + path);
+      }
+      state.lastSegment = in.readLong();
+      state.dispatched = in.readLong();
+      state.noDriver = in.readLong();
+      state.delivered = magic == CHECKPOINT_MAGIC ? in.readLong() : 0;
+      int drivers = in.readInt();
+      for (int i = 0; i < drivers; i++) {
+        String key = in.readUTF();
+        state.dispatches.put(key, new long[] {in.readLong()});
+      }
+    }
+    return state;
+  }
+
+  // Writes the checkpoint to a temporary file and renames it over the old one in a single step
+  private static void writeCheckpoint(Path directory, State state) throws IOException {
+    Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(unclosable(channel), 1 << 16));
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeLong(state.lastSegment);
+      out.writeLong(state.dispatched);
+      out.writeLong(state.noDriver);
+      out.writeLong(state.delivered);
+      out.writeInt(state.dispatches.size());
+      for (Map.Entry<String, long[]> entry : state.dispatches.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue()[0]);
+      }
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static OutputStream unclosable(FileChannel channel) {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    };
+  }
+
+  private static Path segmentPath(Path directory, long number) {
+    return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+  }
+
+  private static List<Long> segmentNumbers(Path directory) throws IOException {
+    List<Long> numbers = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not a segment written by the journal
+        }
+      }
+    }
+    Collections.sort(numbers);
+    return numbers;
+  }
+
+  // Outstanding order counts keyed by the encoded name and location of a record, in an open-addressing table.
+  // Replay does one lookup per record, which a HashMap of decoded keys made the bulk of recovery time.
+  private static final class DriverCounts {
+    private byte[][] keys = new byte[1024][];
+    private long[] counts = new long[1024];
+    private int size;
+
+    void add(byte[] bytes, int from, int to, int delta) {
+      int slot = slot(bytes, from, to);
+      if (keys[slot] != null) {
+        counts[slot] += delta;
+        return;
+      }
+      keys[slot] = Arrays.copyOfRange(bytes, from, to);
+      counts[slot] = delta;
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    // Returns the slot holding the key, or the empty slot where it belongs
+    private int slot(byte[] bytes, int from, int to) {
+      int hash = 1;
+      for (int i = from; i < to; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      hash *= 0x9e3779b9; // Spread the polynomial hash before masking off the low bits
+      int mask = keys.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      byte[] key;
+      while ((key = keys[slot]) != null && !Arrays.equals(key, 0, key.length, bytes, from, to)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void grow() {
+      byte[][] oldKeys = keys;
+      long[] oldCounts = counts;
+      keys = new byte[oldKeys.length * 2][];
+      counts = new long[oldKeys.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = slot(oldKeys[i], 0, oldKeys[i].length);
+          keys[slot] = oldKeys[i];
+          counts[slot] = oldCounts[i];
+        }
+      }
+    }
+
+    void addTo(State state) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != null) {
+          ByteBuffer driver = ByteBuffer.wrap(keys[i]);
+          String key = DriverRoster.key(string(driver), string(driver));
+          state.dispatches.computeIfAbsent(key, k -> new long[1])[0] += counts[i];
+        }
+      }
+    }
+  }
+
+  // The state rebuilt from the journal: outstanding orders per driver and totals
+  public static final class State {
+    private final Map<String, long[]> dispatches = new HashMap<>(); // Dispatched less delivered, per driver
+    private long lastSegment;
+    private long dispatched;
+    private long noDriver;
+    private long delivered;
+
+    /**
+     * Adds the journalled orders that have not been delivered to the loads read from the driver file.
+     * When several drivers share a name and location, the first one receives the count.
+     * @param drivers the drivers loaded from the driver file, before they are indexed.
+     * @return the number of undelivered orders added to each driver's load.
+     */
+    public Map<Driver, Integer> applyTo(List<Driver> drivers) {
+      Map<String, long[]> remaining = new HashMap<>(dispatches);
+      Map<Driver, Integer> outstanding = new IdentityHashMap<>();
+      for (Driver driver : drivers) {
+        long[] count = remaining.remove(DriverRoster.key(driver.getName(), driver.getLocation()));
+        if (count != null && count[0] > 0) {
+          int added = (int) Math.min(Integer.MAX_VALUE - driver.getLoad(), count[0]);
+          driver.setLoad(driver.getLoad() + added);
+          outstanding.put(driver, added);
+        }
+      }
+      return outstanding;
+    }
+
+    // Returns the number of orders dispatched to a driver and not yet delivered
+    public long getDispatches(String name, String location) {
+      long[] count = dispatches.get(DriverRoster.key(name, location));
+      return count == null ? 0 : count[0];
+    }
+
+    public long getDispatched() {
+      return dispatched;
+    }
+
+    public long getNoDriver() {
+      return noDriver;
+    }
+
+    public long getDelivered() {
+      return delivered;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package quickfood;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/*OrderLines stores the meals of an order column by column: names, quantities and unit prices in
+  whole cents are kept in parallel arrays, so totalling an order is an exact integer sum with no
+  boxing and no object per line. asMeals() presents the lines as a List<Meal> for existing callers.
+*/
+public class OrderLines {
+  private String[] names;
+  private int[] quantities;
+  private long[] unitCents;
+  private int size;
+
+  // Creates an empty set of order lines
+  public OrderLines() {
+    this(4);
+  }
+
+  // Creates an empty set of order lines with room for the given number of meals
+  public OrderLines(int capacity) {
+    int length = Math.max(1, capacity);
+    names = new String[length];
+    quantities = new int[length];
+    unitCents = new long[length];
+  }
+
+  /**
+   * Creates order lines holding the given meals.
+   * @param meals the meals to copy.
+   * @return the order lines.
+   */
+  public static OrderLines of(List<Meal> meals) {
+    OrderLines lines = new OrderLines(meals.size());
+    for (Meal meal : meals) {
+      lines.add(meal.getName(), meal.getQuantity(), meal.getPrice());
+    }
+    return lines;
+  }
+
+  /**
+   * Adds a meal priced in whole cents.
+   * @param name the name of the meal.
+   * @param quantity the number ordered.
+   * @param priceCents the unit price in cents.
+   */
+  public void add(String name, int quantity, long priceCents) {
+    if (size == names.length) {
+      int length = size * 2;
+      names = Arrays.copyOf(names, length);
+      quantities = Arrays.copyOf(quantities, length);
+      unitCents = Arrays.copyOf(unitCents, length);
+    }
+    names[size] = name;
+    quantities[size] = quantity;
+    unitCents[size] = priceCents;
+    size++;
+  }
+
+  /**
+   * Adds a meal priced in currency units, rounded to the nearest cent.
+   * @param name the name of the meal.
+   * @param quantity the number ordered.
+   * @param price the unit price, e.g. 89.5.
+   */
+  public void add(String name, int quantity, double price) {
+    add(name, quantity, toCents(price));
+  }
+
+  // Returns the number of meals
+  public int size() {
+    return size;
+  }
+
+  public String getName(int index) {
+    return names[index];
+  }
+
+  public int getQuantity(int index) {
+    return quantities[index];
+  }
+
+  public long getPriceCents(int index) {
+    return unitCents[index];
+  }
+
+  // Returns the unit price of a meal in currency units
+  public double getPrice(int index) {
+    return unitCents[index] / 100.0;
+  }
+
+  // Returns the exact total of all meals in cents
+  public long totalCents() {
+    long total = 0;
+    for (int i = 0; i < size; i++) {
+      total += quantities[i] * unitCents[i];
+    }
+    return total;
+  }
+
+  // Returns the total of all meals in currency units
+  public double totalAmount() {
+    return totalCents() / 100.0;
+  }
+
+  /**
+   * Returns a read-only view of the lines as meals. Each Meal is created when it is read,
+   * so changing it does not change the order.
+   * @return the meals of the order.
+   */
+  public List<Meal> asMeals() {
+    return new AbstractList<Meal>() {
+      @Override
+      public Meal get(int index) {
+        if (index < 0 || index >= size) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new Meal(names[index], quantities[index], getPrice(index));
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Converts a price in currency units to whole cents.
+   * @param price the price, e.g. 89.5.
+   * @return the price in cents, e.g. 8950.
+   */
+  public static long toCents(double price) {
+    return Math.round(price * 100);
+  }
+}
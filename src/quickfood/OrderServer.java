@@ -0,0 +1,240 @@
+package quickfood;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*OrderServer takes orders over HTTP using the JDK's built-in server.
+  POST /orders with a form-encoded body holding the same fields as a bulk order line:
+    orderNumber, name, contactNumber, address, location, email, restaurantName,
+    restaurantLocation, restaurantContactNumber, specialInstructions and meals
+  (meals is a ';' separated list of name:quantity:price entries). The order is dispatched and
+  invoiced like any other, and the response is a JSON object naming the assigned driver, or
+  status "no driver" when the restaurant is out of reach; an order number placed before gets the
+  first result again, marked "duplicate". An invalid order, including one from a
+  restaurant location no driver has ever served, gets a 400 naming the field. POST /deliveries with orderNumber reports
+  an order delivered, releasing its driver, and answers 404 if no delivery of it is pending. GET /metrics returns Metrics.dump() as
+  plain text. A failure writing the invoice store or order journal, or reaching a dispatch shard,
+  gets a 500 saying which. Each request runs on its own virtual thread when the JDK supports them,
+  otherwise on a cached thread pool.
+*/
+public class OrderServer {
+  private static final String PATH = "/orders";
+  private static final String DELIVERIES_PATH = "/deliveries";
+  private static final String METRICS_PATH = "/metrics";
+  private static final String[] FIELD_NAMES = {
+    "orderNumber", "name", "contactNumber", "address", "location", "email",
+    "restaurantName", "restaurantLocation", "restaurantContactNumber", "specialInstructions", "meals"
+  };
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a server bound to the specified port. Call start() to begin taking orders.
+   * @param port the port to listen on, or 0 for any free port.
+   * @throws IOException if the port cannot be bound.
+   */
+  public OrderServer(int port) throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = newRequestExecutor();
+    server.createContext(PATH, this::handle);
+    server.createContext(DELIVERIES_PATH, OrderServer::handleDelivery);
+    server.createContext(METRICS_PATH, OrderServer::handleMetrics);
+    server.setExecutor(executor);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  // Stops accepting orders, waits up to a second for requests in flight and releases the threads
+  public void stop() {
+    server.stop(1);
+    executor.shutdown();
+  }
+
+  // Returns the port the server is listening on
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        respond(exchange, 405, "{\"error\":\"Use POST to submit an order.\"}");
+        return;
+      }
+      String body;
+      try (InputStream in = exchange.getRequestBody()) {
+        body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+
+      Order order;
+      try {
+        order = BulkOrderReader.parseFields(fields(body));
+      } catch (InvalidInputException e) {
+        Metrics.validationFailed(e.getField());
+        respond(exchange, 400, "{\"error\":" + quote(e.getMessage())
+            + (e.getField() != null ? ",\"field\":" + quote(e.getField()) : "") + "}");
+        return;
+      } catch (IllegalArgumentException e) {
+        Metrics.validationFailed(null);
+        respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+        return;
+      }
+
+      DispatchResult result = Main.dispatchOrder(order);
+      int orderNumber = order.getCustomer().getOrderNumber();
+      String duplicate = result.isDuplicate() ? ",\"duplicate\":true" : "";
+      if (result.isDispatched()) {
+        respond(exchange, 200, "{\"orderNumber\":" + orderNumber + ",\"status\":\"dispatched\",\"driver\":" + quote(result.getDriverName()) + duplicate + "}");
+      } else {
+        respond(exchange, 200, "{\"orderNumber\":" + orderNumber + ",\"status\":\"no driver\",\"message\":"
+            + quote("Sorry! Our drivers are too far away from you to be able to deliver to your location.") + duplicate + "}");
+      }
+    } catch (IOException e) {
+      fail(exchange, e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void handleDelivery(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        respond(exchange, 405, "{\"error\":\"Use POST to report a delivery.\"}");
+        return;
+      }
+      String body;
+      try (InputStream in = exchange.getRequestBody()) {
+        body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      int orderNumber;
+      try {
+        String value = form(body).get("orderNumber");
+        orderNumber = Integer.parseInt(value == null ? "" : value.trim());
+      } catch (NumberFormatException e) {
+        respond(exchange, 400, "{\"error\":" + quote("Missing or invalid field 'orderNumber'.") + "}");
+        return;
+      } catch (IllegalArgumentException e) {
+        // A malformed percent-escape in the body
+        respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+        return;
+      }
+      if (Main.completeDelivery(orderNumber) == null) {
+        respond(exchange, 404, "{\"orderNumber\":" + orderNumber + ",\"error\":\"No delivery pending for this order.\"}");
+      } else {
+        respond(exchange, 200, "{\"orderNumber\":" + orderNumber + ",\"status\":\"delivered\"}");
+      }
+    } catch (IOException e) {
+      fail(exchange, e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void handleMetrics(HttpExchange exchange) throws IOException {
+    try {
+      byte[] bytes = Metrics.dump().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  // Decodes a form-encoded body
+  private static Map<String, String> form(String body) {
+    Map<String, String> form = new HashMap<>();
+    for (String pair : body.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+        form.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return form;
+  }
+
+  // Decodes the form body into the field order of the bulk CSV format
+  private static String[] fields(String body) throws InvalidInputException {
+    Map<String, String> form = form(body);
+    String[] fields = new String[FIELD_NAMES.length];
+    for (int i = 0; i < FIELD_NAMES.length; i++) {
+      String value = form.get(FIELD_NAMES[i]);
+      if (value == null) {
+        if (!FIELD_NAMES[i].equals("meals")) {
+          throw new InvalidInputException(FIELD_NAMES[i], "Missing field '" + FIELD_NAMES[i] + "'.");
+        }
+        value = "";
+      }
+      fields[i] = value;
+    }
+    return fields;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  // Answers 500 with the error, which names the stage that failed, unless a response was already started:
+  // then the client has lost its connection or the rest of the response, and the error can only be logged
+  private static void fail(HttpExchange exchange, IOException e) throws IOException {
+    if (exchange.getResponseCode() == -1) {
+      respond(exchange, 500, "{\"error\":" + quote(e.getMessage() != null ? e.getMessage() : e.toString()) + "}");
+    } else {
+      System.err.println("Error sending response: " + e.getMessage());
+    }
+  }
+
+  private static String quote(String text) {
+    StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < ' ') {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    return json.append('"').toString();
+  }
+
+  /**
+   * Creates the executor that runs requests: a virtual thread per request on JDK 21 and later,
+   * or a cached pool of platform threads on older runtimes.
+   * @return the request executor.
+   */
+  static ExecutorService newRequestExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
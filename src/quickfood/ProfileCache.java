@@ -0,0 +1,237 @@
+package quickfood;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*ProfileCache remembers the customers and restaurants of recent orders, so that a repeat order
+  neither validates nor stores their details again. Customers are keyed by contact number and
+  restaurants by name and location. A hit needs every field of the order to match the cached
+  profile; an order with changed details is a miss, is validated as usual and replaces the profile.
+
+  Restaurants and customers cannot be modified, so a cached restaurant is shared by every order
+  that names it. A Customer carries its order number, so each order gets its own small copy of the
+  cached customer, sharing the cached field values.
+
+  Each cache holds at most its share of quickfood.profileCache.maxMB megabytes (default 32, 0 turns
+  caching off), by an estimate of the memory its entries use. Lookups take no lock: evicting by
+  strict LRU would relink an entry on every hit, which on a large cache costs more than the
+  validation it saves, so eviction uses the CLOCK approximation of LRU instead.
+*/
+public final class ProfileCache<V> {
+  private static final long MAX_BYTES = Long.getLong("quickfood.profileCache.maxMB", 32) << 20;
+
+  public static final ProfileCache<Customer> CUSTOMERS = new ProfileCache<>("customers", MAX_BYTES / 2);
+  public static final ProfileCache<Restaurant> RESTAURANTS = new ProfileCache<>("restaurants", MAX_BYTES / 2);
+
+  private static final int ENTRY_BYTES = 150;  // Map node, Entry, queue slot and profile object headers and fields
+  private static final int STRING_BYTES = 48;  // String and byte[] headers, fields and padding
+
+  private final String name;
+  private final long maxBytes;
+  private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final ArrayDeque<Entry<V>> clock = new ArrayDeque<>(); // Entries in insertion order, guarded by itself
+  private long bytes; // Guarded by clock
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private static final class Entry<V> {
+    final String key;
+    final V value;
+    final int bytes;
+    boolean referenced; // Set by hits, cleared as the clock hand passes; racy by design
+    boolean replaced;   // Guarded by clock
+
+    Entry(String key, V value, int bytes) {
+      this.key = key;
+      this.value = value;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Creates an empty cache.
+   * @param name the name the statistics are reported under.
+   * @param maxBytes the most memory its entries may use by estimate; 0 or less caches nothing.
+   */
+  public ProfileCache(String name, long maxBytes) {
+    this.name = name;
+    this.maxBytes = Math.max(0, maxBytes);
+  }
+
+  /**
+   * Returns the cached customer with a contact number as a customer for a new order, if every
+   * other field matches too.
+   * @param orderNumber the order number of the new order.
+   * @param name the customer's name as entered.
+   * @param contactNumber the customer's contact number as entered.
+   * @param address the customer's address as entered.
+   * @param location the customer's location as entered.
+   * @param email the customer's email as entered.
+   * @return the customer, already validated, or null if the details have to be validated.
+   */
+  static Customer customer(int orderNumber, String name, String contactNumber, String address, String location, String email) {
+    Customer cached = CUSTOMERS.get(contactNumber);
+    if (cached != null && cached.getName().equals(name) && cached.getAddress().equals(address)
+        && cached.getLocation().equals(location) && cached.getEmail().equals(email)) {
+      CUSTOMERS.hits.increment();
+      return cached.withOrderNumber(orderNumber);
+    }
+    CUSTOMERS.misses.increment();
+    return null;
+  }
+
+  /**
+   * Returns the cached customer with a contact number, whatever their other details, so that a
+   * returning customer need not enter them again.
+   * @param contactNumber the contact number.
+   * @return the cached customer, with order number 0, or null if there is none.
+   */
+  static Customer customer(String contactNumber) {
+    Customer cached = CUSTOMERS.get(contactNumber);
+    (cached != null ? CUSTOMERS.hits : CUSTOMERS.misses).increment();
+    return cached;
+  }
+
+  // Remembers a validated customer, replacing any customer cached with the same contact number
+  static void remember(Customer customer) {
+    CUSTOMERS.put(customer.getContactNumber(), customer.withOrderNumber(0), strings(customer.getName(), customer.getContactNumber(),
+        customer.getAddress(), customer.getLocation(), customer.getEmail()));
+  }
+
+  /**
+   * Returns the cached restaurant with a name and location, if its contact number matches too.
+   * @param name the restaurant's name as entered.
+   * @param location the restaurant's location as entered.
+   * @param contactNumber the restaurant's contact number as entered, or null to accept any.
+   * @return the shared restaurant, already validated, or null if the details have to be validated.
+   */
+  static Restaurant restaurant(String name, String location, String contactNumber) {
+    Restaurant cached = RESTAURANTS.get(restaurantKey(name, location));
+    if (cached != null && (contactNumber == null || cached.getContactNumber().equals(contactNumber))) {
+      RESTAURANTS.hits.increment();
+      return cached;
+    }
+    RESTAURANTS.misses.increment();
+    return null;
+  }
+
+  // Remembers a validated restaurant, which from now on is shared by the orders that name it
+  static void remember(Restaurant restaurant) {
+    String key = restaurantKey(restaurant.getName(), restaurant.getLocation());
+    RESTAURANTS.put(key, restaurant, strings(key, restaurant.getName(), restaurant.getLocation(), restaurant.getContactNumber()));
+  }
+
+  private static String restaurantKey(String name, String location) {
+    return name + '\n' + location; // Neither can contain a line break
+  }
+
+  // Estimates the memory used by an entry holding these strings
+  private static int strings(String... values) {
+    int bytes = ENTRY_BYTES;
+    for (String value : values) {
+      bytes += STRING_BYTES + value.length();
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the value cached under a key and marks it recently used. The caller counts the lookup
+   * as a hit or a miss once it knows whether the value matches.
+   * @param key the key.
+   * @return the value, or null if it is not cached.
+   */
+  V get(String key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (!entry.referenced) {
+      entry.referenced = true; // Written only when it changes, so hits on hot entries stay reads
+    }
+    return entry.value;
+  }
+
+  /**
+   * Caches a value. While the cache is over its cap, the clock hand passes over the entries in
+   * insertion order, giving each entry used since the hand last passed a second chance and evicting
+   * the first that was not: an approximation of LRU that needs no bookkeeping on a hit.
+   * @param key the key.
+   * @param value the value.
+   * @param bytes the estimated memory used by the entry.
+   */
+  void put(String key, V value, int bytes) {
+    if (bytes > maxBytes) {
+      return;
+    }
+    Entry<V> entry = new Entry<>(key, value, bytes);
+    synchronized (clock) {
+      Entry<V> previous = entries.put(key, entry);
+      if (previous != null) {
+        previous.replaced = true; // Still counted in bytes until the hand reaches it and drops it
+      }
+      clock.addLast(entry);
+      this.bytes += bytes;
+      while (this.bytes > maxBytes) {
+        Entry<V> hand = clock.pollFirst();
+        if (hand.replaced) {
+          this.bytes -= hand.bytes;
+          continue;
+        }
+        if (hand.referenced) {
+          hand.referenced = false;
+          clock.addLast(hand);
+          continue;
+        }
+        entries.remove(hand.key, hand);
+        this.bytes -= hand.bytes;
+        evictions.increment();
+      }
+    }
+  }
+
+  // Removes every entry; the statistics are kept
+  public void clear() {
+    synchronized (clock) {
+      entries.clear();
+      clock.clear();
+      bytes = 0;
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  // Returns the number of entries cached
+  public int size() {
+    return entries.size();
+  }
+
+  // Returns the estimated memory used by the entries cached, and by replaced ones the clock hand has not dropped yet
+  public long bytes() {
+    synchronized (clock) {
+      return bytes;
+    }
+  }
+
+  // Renders the statistics as one line, as in Metrics.dump()
+  @Override
+  public String toString() {
+    long hit = getHits();
+    long all = hit + getMisses();
+    return String.format(Locale.ROOT, "profileCache.%s hits=%d misses=%d hitRate=%.1f%% evictions=%d entries=%d bytes=%d",
+        name, hit, getMisses(), all == 0 ? 0.0 : 100.0 * hit / all, getEvictions(), size(), bytes());
+  }
+}
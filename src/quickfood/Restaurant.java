@@ -1,40 +1,38 @@
 package quickfood;
 
-//Restaurant class to store restaurant information
-public class Restaurant {
-  private String name;
-  private String location;
-  private String contactNumber;
+//Restaurant class to store restaurant information; it cannot be modified, so orders can share one
+public final class Restaurant {
+  private final String name;
+  private final String location;
+  private int locationId; // Derived from location; only ever moves from UNKNOWN to the registered ID
+  private final String contactNumber;
 
  // Constructor to initialize a Restaurant object
  public Restaurant(String name, String location, String contactNumber) {
    this.name = name;
    this.location = location;
+   this.locationId = LocationRegistry.lookup(location);
    this.contactNumber = contactNumber;
  }
 
- // Getters and setters for Restaurant attributes
+ // Getters for Restaurant attributes
  public String getName() {
    return name;
  }
 
- public void setName(String name) {
-   this.name = name;
- }
-
  public String getLocation() {
    return location;
  }
 
- public void setLocation(String location) {
-   this.location = location;
+ // Returns the ID of the location, or LocationRegistry.UNKNOWN if no driver is registered there
+ public int getLocationId() {
+   if (locationId == LocationRegistry.UNKNOWN) {
+     locationId = LocationRegistry.lookup(location); // Drivers may have been loaded there since
+   }
+   return locationId;
  }
 
  public String getContactNumber() {
    return contactNumber;
  }
-
- public void setContactNumber(String contactNumber) {
-   this.contactNumber = contactNumber;
- }
 }
\ No newline at end of file
@@ -0,0 +1,265 @@
+package quickfood;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*ShardLink carries requests from ShardedDispatcher to one DispatchShard. Requests are pipelined:
+  send returns at once and the reply completes later, and a shard handles the requests of a link
+  in the order they were sent, which ShardedDispatcher relies on when it moves drivers.
+
+  local() runs the shard on its own thread behind a queue, standing in for a node without the cost
+  of a network. socket() runs it behind a loopback TCP connection, with every request and reply
+  encoded as they would be between processes.
+*/
+abstract class ShardLink implements AutoCloseable {
+  private static final int QUEUE_CAPACITY = 4096;
+  private static final int MAX_BATCH = 256;
+
+  /**
+   * Sends a request to the shard.
+   * @param request the request; its reply completes when the shard has handled it.
+   * @throws IOException if the link is closed or broken.
+   */
+  abstract void send(DispatchShard.Request request) throws IOException;
+
+  // Stops the shard once it has handled every request sent before
+  @Override
+  public abstract void close() throws IOException;
+
+  /**
+   * Starts a shard on a thread of its own.
+   * @param shard the shard.
+   * @param name the name of the shard's thread.
+   * @return the link to it.
+   */
+  static ShardLink local(DispatchShard shard, String name) {
+    return new Local(shard, name);
+  }
+
+  /**
+   * Starts a shard behind a loopback TCP connection.
+   * @param shard the shard.
+   * @param name the name of the shard's threads.
+   * @return the link to it.
+   * @throws IOException if the connection cannot be made.
+   */
+  static ShardLink socket(DispatchShard shard, String name) throws IOException {
+    return new Remote(shard, name);
+  }
+
+  private static final class Local extends ShardLink {
+    // Queued by close(), compared by identity
+    private static final DispatchShard.Request CLOSE = new DispatchShard.Request(DispatchShard.CLOSE, null, 0, null, 0);
+
+    private final BlockingQueue<DispatchShard.Request> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile boolean closed;
+
+    Local(DispatchShard shard, String name) {
+      thread = new Thread(() -> run(shard), name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    void send(DispatchShard.Request request) throws IOException {
+      if (closed) {
+        throw new IOException("Shard link is closed");
+      }
+      try {
+        queue.put(request);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while sending to shard");
+      }
+    }
+
+    // Handles queued requests in order, taking them from the queue in batches
+    private void run(DispatchShard shard) {
+      List<DispatchShard.Request> batch = new ArrayList<>(MAX_BATCH);
+      try {
+        while (true) {
+          batch.add(queue.take());
+          queue.drainTo(batch, MAX_BATCH - 1);
+          for (DispatchShard.Request request : batch) {
+            if (request == CLOSE) {
+              return;
+            }
+            try {
+              request.reply.complete(shard.handle(request));
+            } catch (RuntimeException e) {
+              request.reply.completeExceptionally(e);
+            }
+          }
+          batch.clear();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        queue.put(CLOSE);
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while closing shard");
+      }
+    }
+  }
+
+  private static final class Remote extends ShardLink {
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final Thread server;
+    private final Thread reader;
+    private final Map<Integer, DispatchShard.Request> waiting = new ConcurrentHashMap<>();
+    private final BlockingQueue<DispatchShard.Request> outgoing = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private int nextId; // Used by the writer thread only
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    Remote(DispatchShard shard, String name) throws IOException {
+      ServerSocket listening = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+      server = new Thread(() -> {
+        try {
+          shard.serve(listening);
+        } catch (IOException e) {
+          // The coordinator sees the connection drop and fails what is waiting
+        }
+      }, name);
+      server.setDaemon(true);
+      server.start();
+      socket = new Socket();
+      socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), listening.getLocalPort()));
+      socket.setTcpNoDelay(true);
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+      reader = new Thread(() -> read(in), name + "-replies");
+      reader.setDaemon(true);
+      reader.start();
+      writer = new Thread(this::write, name + "-requests");
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+    @Override
+    void send(DispatchShard.Request request) throws IOException {
+      if (failure != null) {
+        throw new IOException("Shard link failed: " + failure.getMessage(), failure);
+      }
+      if (closed) {
+        throw new IOException("Shard link is closed");
+      }
+      try {
+        outgoing.put(request);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while sending to shard");
+      }
+    }
+
+    // Writes queued requests in batches with one flush each, so a pipeline costs few packets
+    private void write() {
+      List<DispatchShard.Request> batch = new ArrayList<>(MAX_BATCH);
+      try {
+        while (true) {
+          batch.add(outgoing.take());
+          outgoing.drainTo(batch, MAX_BATCH - 1);
+          for (DispatchShard.Request request : batch) {
+            int id = ++nextId;
+            if (request.operation != DispatchShard.CLOSE) {
+              waiting.put(id, request);
+            }
+            DispatchShard.writeRequest(request, id, out);
+            if (request.operation == DispatchShard.CLOSE) {
+              out.flush();
+              return;
+            }
+          }
+          out.flush();
+          batch.clear();
+        }
+      } catch (IOException e) {
+        fail(e);
+        for (DispatchShard.Request request : batch) {
+          request.reply.completeExceptionally(e);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void read(DataInputStream in) {
+      try {
+        while (true) {
+          int id = in.readInt();
+          DispatchShard.Reply reply = DispatchShard.readReply(in);
+          DispatchShard.Request request = waiting.remove(id);
+          if (request != null) {
+            request.reply.complete(reply);
+          }
+        }
+      } catch (IOException e) {
+        if (!closed) {
+          fail(e);
+        }
+      }
+    }
+
+    private void fail(IOException e) {
+      failure = e;
+      for (DispatchShard.Request request : waiting.values()) {
+        request.reply.completeExceptionally(e);
+      }
+      waiting.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      try {
+        closed = true; // Before the shard can hang up, so the reader takes the end of the stream as expected
+        outgoing.put(new DispatchShard.Request(DispatchShard.CLOSE, null, 0, null, 0));
+        writer.join();
+        server.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while closing shard");
+      } finally {
+        socket.close();
+      }
+      try {
+        reader.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package quickfood;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/*ShardMap decides which dispatch shard owns each location, and with it the location's drivers.
+  Locations are placed by rendezvous hashing of their normalized name: each location goes to the
+  shard with the highest hash of (name, shard). Names rather than LocationRegistry IDs are hashed
+  so that shards running as separate processes, each with its own registry, agree on the placement.
+
+  A hot location can be isolated: pinned to a shard that is then reserved for it, so that no other
+  location hashes there. Rendezvous hashing moves only the locations of the reserved shard when it
+  leaves the pool; every other location stays where it was. A map is immutable; isolating a
+  location returns a new one.
+*/
+final class ShardMap {
+  private final int shards;
+  private final Map<String, Integer> pinned; // Normalized location to its reserved shard
+  private final BitSet reserved;
+  private volatile int[] cache = new int[0]; // Shard by LocationRegistry ID, -1 until computed
+
+  ShardMap(int shards) {
+    this(shards, new HashMap<>(), new BitSet());
+  }
+
+  private ShardMap(int shards, Map<String, Integer> pinned, BitSet reserved) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("Need at least one shard");
+    }
+    this.shards = shards;
+    this.pinned = pinned;
+    this.reserved = reserved;
+  }
+
+  int size() {
+    return shards;
+  }
+
+  /**
+   * Returns the shard that owns a location.
+   * @param location the location name, in any case or spacing.
+   * @return the shard number, from 0.
+   */
+  int shardOf(String location) {
+    String key = LocationRegistry.normalize(location);
+    Integer shard = pinned.get(key);
+    if (shard != null) {
+      return shard;
+    }
+    int best = -1;
+    long bestHash = 0;
+    for (int candidate = 0; candidate < shards; candidate++) {
+      if (reserved.get(candidate)) {
+        continue;
+      }
+      long hash = hash(key, candidate);
+      if (best < 0 || Long.compareUnsigned(hash, bestHash) > 0) {
+        best = candidate;
+        bestHash = hash;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the shard that owns a registered location, remembering the answer.
+   * @param locationId the LocationRegistry ID of the location.
+   * @return the shard number, from 0.
+   */
+  int shardOf(int locationId) {
+    int[] shardsById = cache;
+    if (locationId < shardsById.length && shardsById[locationId] >= 0) {
+      return shardsById[locationId];
+    }
+    int shard = shardOf(LocationRegistry.name(locationId));
+    synchronized (this) {
+      shardsById = cache;
+      if (locationId >= shardsById.length) {
+        int length = Math.max(locationId + 1, Math.max(64, shardsById.length * 2));
+        shardsById = Arrays.copyOf(shardsById, length);
+        Arrays.fill(shardsById, cache.length, length, -1);
+      }
+      shardsById[locationId] = shard;
+      cache = shardsById;
+    }
+    return shard;
+  }
+
+  // Returns whether a shard is reserved for an isolated location
+  boolean isReserved(int shard) {
+    return reserved.get(shard);
+  }
+
+  // Returns the number of shards that take every location which is not isolated
+  int shared() {
+    return shards - reserved.cardinality();
+  }
+
+  /**
+   * Returns a map in which a location has a shard to itself.
+   * @param location the location to isolate.
+   * @param shard the shard to reserve for it; it must not be reserved already.
+   * @return the new map.
+   * @throws IllegalArgumentException if that would leave no shard for the other locations.
+   */
+  ShardMap isolate(String location, int shard) {
+    if (reserved.get(shard) || shared() < 2) {
+      throw new IllegalArgumentException("Shard " + shard + " cannot be reserved for " + location);
+    }
+    Map<String, Integer> morePinned = new HashMap<>(pinned);
+    morePinned.put(LocationRegistry.normalize(location), shard);
+    BitSet moreReserved = (BitSet) reserved.clone();
+    moreReserved.set(shard);
+    return new ShardMap(shards, morePinned, moreReserved);
+  }
+
+  // Returns whether a location has been isolated
+  boolean isIsolated(String location) {
+    return pinned.containsKey(LocationRegistry.normalize(location));
+  }
+
+  // FNV-1a over the name, then the shard mixed in and the bits spread
+  private static long hash(String key, int shard) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    hash ^= (shard + 1) * 0x9E3779B97F4A7C15L;
+    hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+    return hash ^ (hash >>> 31);
+  }
+}
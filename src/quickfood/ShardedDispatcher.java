@@ -0,0 +1,373 @@
+package quickfood;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*ShardedDispatcher partitions the drivers by location over several DispatchShards and routes each
+  order to the shard that owns its restaurant's location, so that no single roster, lock or thread
+  carries the whole fleet. Shards are reached through ShardLinks, in-process or over loopback
+  sockets, standing in for separate dispatch nodes.
+
+  The dispatcher keeps a view of every driver, by number, for the journal and the invoices; loads
+  in the view are updated from the shards' replies and may briefly lag them. The view has Driver
+  objects of its own, so the roster it was started from, and any DriverIndex over it, is left as it
+  was. A driver of that roster can still be released, by way of their number. An order is only
+  dispatched within its shard, so drivers at a nearby location on another shard are not considered.
+
+  A location that takes more than its share of orders can be isolated on a shard of its own.
+  ShardMap then reassigns locations, and their drivers move with their loads: taken from the old
+  shard after every request already sent there, and given to the new shard before any request is
+  routed by the new map. Dispatch waits only while the drivers are in transit. If a shard fails
+  during the move, the old map stays and the drivers taken are given back to their old shards.
+*/
+public class ShardedDispatcher implements AutoCloseable {
+
+  // How the dispatcher reaches its shards
+  public enum Transport {
+    LOCAL, // A thread and a queue per shard
+    SOCKET // A thread and a loopback TCP connection per shard
+  }
+
+  private final Driver[] drivers; // The dispatcher's view, by driver number
+  private final Map<Driver, Integer> numbers = new IdentityHashMap<>(); // Both the view's and the roster's drivers
+  private final Map<String, String> locations = new LinkedHashMap<>(); // Normalized to registered name, for every location with drivers
+  private final ShardLink[] links;
+  private final ReentrantReadWriteLock moving = new ReentrantReadWriteLock();
+  private volatile ShardMap map;
+
+  /**
+   * Starts the shards and hands each the drivers of its locations.
+   * @param roster the drivers, whose loads become the shards' starting loads; they are not modified.
+   * @param shards the number of shards.
+   * @param transport how the shards are reached.
+   * @throws IOException if a shard cannot be started.
+   */
+  public ShardedDispatcher(List<Driver> roster, int shards, Transport transport) throws IOException {
+    this.map = new ShardMap(shards);
+    this.drivers = new Driver[roster.size()];
+    this.links = new ShardLink[shards];
+    for (int i = 0; i < shards; i++) {
+      String name = "dispatch-shard-" + i;
+      links[i] = transport == Transport.SOCKET ? ShardLink.socket(new DispatchShard(), name) : ShardLink.local(new DispatchShard(), name);
+    }
+    List<CompletableFuture<DispatchShard.Reply>> given = new ArrayList<>(drivers.length);
+    for (int number = 0; number < drivers.length; number++) {
+      Driver listed = roster.get(number);
+      Driver driver = new Driver(listed.getName(), listed.getLocation(), listed.getLoad());
+      drivers[number] = driver;
+      numbers.put(driver, number);
+      numbers.put(listed, number);
+      locations.putIfAbsent(LocationRegistry.normalize(driver.getLocation()), driver.getLocation());
+      given.add(give(map.shardOf(driver.getLocationId()), number, driver.getLoad()));
+    }
+    for (CompletableFuture<DispatchShard.Reply> reply : given) {
+      await(reply);
+    }
+  }
+
+  /**
+   * Claims the least loaded driver at a location from the shard that owns it.
+   * @param locationId the LocationRegistry ID of the restaurant location.
+   * @return the driver, with their load as the shard reported it.
+   * @throws DriverNotFoundException if the location has no drivers.
+   * @throws IOException if the shard cannot be reached.
+   */
+  public Driver claim(int locationId) throws DriverNotFoundException, IOException {
+    Driver driver = await(claimAsync(locationId));
+    if (driver == null) {
+      throw new DriverNotFoundException("Sorry! Our drivers are too far away from you to be able to deliver to your location.");
+    }
+    return driver;
+  }
+
+  /**
+   * Sends a claim without waiting for it, so that one thread can keep every shard busy.
+   * @param locationId the LocationRegistry ID of the restaurant location.
+   * @return completes with the driver, or null if the location has no drivers.
+   * @throws IOException if the shard cannot be reached.
+   */
+  public CompletableFuture<Driver> claimAsync(int locationId) throws IOException {
+    if (locationId == LocationRegistry.UNKNOWN) {
+      return CompletableFuture.completedFuture(null);
+    }
+    DispatchShard.Request request = new DispatchShard.Request(DispatchShard.CLAIM, LocationRegistry.name(locationId), 0, null, 0);
+    moving.readLock().lock();
+    try {
+      links[map.shardOf(locationId)].send(request);
+    } finally {
+      moving.readLock().unlock();
+    }
+    return request.reply.thenApply(reply -> {
+      if (reply.values[0] < 0) {
+        return null;
+      }
+      Driver driver = drivers[reply.values[0]];
+      driver.setLoad(reply.values[1]);
+      return driver;
+    });
+  }
+
+  /**
+   * Removes one order from a driver's load on the shard that holds the driver.
+   * @param driver a driver returned by claim, or the same driver in the roster the dispatcher started from.
+   * @return whether the load was reduced.
+   * @throws IOException if the shard cannot be reached.
+   */
+  public boolean release(Driver driver) throws IOException {
+    Integer number = numbers.get(driver);
+    if (number == null) {
+      return false;
+    }
+    DispatchShard.Request request = new DispatchShard.Request(DispatchShard.RELEASE, null, number, null, 0);
+    moving.readLock().lock();
+    try {
+      links[map.shardOf(driver.getLocationId())].send(request);
+    } finally {
+      moving.readLock().unlock();
+    }
+    DispatchShard.Reply reply = await(request.reply);
+    drivers[number].setLoad(reply.values[1]);
+    return reply.values[0] == 1;
+  }
+
+  // Returns the shard that currently owns a location
+  public int shardOf(int locationId) {
+    return map.shardOf(locationId);
+  }
+
+  public int getShards() {
+    return links.length;
+  }
+
+  /**
+   * Collects the claims per location that each shard has handled since the last call.
+   * @return for each shard, the claim count per location name.
+   * @throws IOException if a shard cannot be reached.
+   */
+  public List<Map<String, Integer>> claimCounts() throws IOException {
+    List<CompletableFuture<DispatchShard.Reply>> replies = new ArrayList<>();
+    for (ShardLink link : links) {
+      DispatchShard.Request request = new DispatchShard.Request(DispatchShard.STATS, null, 0, null, 0);
+      link.send(request);
+      replies.add(request.reply);
+    }
+    List<Map<String, Integer>> counts = new ArrayList<>();
+    for (CompletableFuture<DispatchShard.Reply> reply : replies) {
+      DispatchShard.Reply stats = await(reply);
+      Map<String, Integer> shard = new HashMap<>();
+      for (int i = 0; i < stats.names.length; i++) {
+        shard.put(stats.names[i], stats.values[i]);
+      }
+      counts.add(shard);
+    }
+    return counts;
+  }
+
+  /**
+   * Isolates the busiest location on the least busy shard, if its shard handles more than
+   * threshold times the average number of claims. The counts are those since the last call.
+   * @param threshold how far above the average a shard must be, e.g. 1.5.
+   * @return the location isolated, or null if no shard was busy enough or none could be reserved.
+   * @throws IOException if a shard cannot be reached.
+   */
+  public synchronized String rebalance(double threshold) throws IOException {
+    List<Map<String, Integer>> counts = claimCounts();
+    long[] totals = new long[links.length];
+    long all = 0;
+    String hottest = null;
+    int hottestCount = 0;
+    for (int shard = 0; shard < links.length; shard++) {
+      for (Map.Entry<String, Integer> entry : counts.get(shard).entrySet()) {
+        totals[shard] += entry.getValue();
+        if (entry.getValue() > hottestCount && !map.isIsolated(entry.getKey())) {
+          hottest = entry.getKey();
+          hottestCount = entry.getValue();
+        }
+      }
+      all += totals[shard];
+    }
+    if (hottest == null || map.shared() < 2) {
+      return null;
+    }
+    int source = map.shardOf(hottest);
+    if (totals[source] <= threshold * all / links.length) {
+      return null;
+    }
+    int target = -1;
+    for (int shard = 0; shard < links.length; shard++) {
+      if (!map.isReserved(shard) && (target < 0 || totals[shard] < totals[target])) {
+        target = shard;
+      }
+    }
+    isolate(hottest, target);
+    return hottest;
+  }
+
+  /**
+   * Gives a location a shard of its own: its current shard is reserved for it, and the other
+   * locations there move to the remaining shards.
+   * @param location the location to isolate.
+   * @return whether it was isolated; false if it already is or no shard could be spared.
+   * @throws IOException if a shard cannot be reached.
+   */
+  public synchronized boolean isolate(String location) throws IOException {
+    if (map.isIsolated(location) || map.shared() < 2) {
+      return false;
+    }
+    isolate(location, map.shardOf(location));
+    return true;
+  }
+
+  // Moves the drivers of every location whose shard changes, with dispatch held back meanwhile.
+  // If a shard fails on the way, the map is left as it was and the drivers go back to their old shards.
+  private void isolate(String location, int shard) throws IOException {
+    ShardMap next = map.isolate(location, shard);
+    moving.writeLock().lock();
+    try {
+      List<String> moved = new ArrayList<>();
+      List<CompletableFuture<DispatchShard.Reply>> taken = new ArrayList<>();
+      IOException failure = null;
+      for (String name : locations.values()) {
+        int from = map.shardOf(name);
+        if (from != next.shardOf(name)) {
+          DispatchShard.Request request = new DispatchShard.Request(DispatchShard.TAKE, name, 0, null, 0);
+          try {
+            links[from].send(request);
+          } catch (IOException e) {
+            failure = e;
+            break;
+          }
+          moved.add(name);
+          taken.add(request.reply);
+        }
+      }
+      int[][] values = new int[moved.size()][]; // Number and load of each driver taken, by location; null if not taken
+      for (int i = 0; i < moved.size(); i++) {
+        try {
+          values[i] = await(taken.get(i)).values;
+        } catch (IOException e) {
+          failure = failure == null ? e : failure;
+        }
+      }
+      if (failure == null) {
+        try {
+          List<CompletableFuture<DispatchShard.Reply>> given = new ArrayList<>();
+          for (int i = 0; i < moved.size(); i++) {
+            int to = next.shardOf(moved.get(i));
+            for (int j = 0; j < values[i].length; j += 2) {
+              given.add(give(to, values[i][j], values[i][j + 1]));
+            }
+          }
+          for (CompletableFuture<DispatchShard.Reply> reply : given) {
+            await(reply);
+          }
+          map = next;
+          return;
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      throw restore(location, next, moved, values, failure);
+    } finally {
+      moving.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Undoes a failed move: removes any drivers already given to their new shards and gives every
+   * driver taken back to its old shard, which the unchanged map still routes their location to.
+   * @param location the location that was being isolated.
+   * @param next the map the move was for.
+   * @param moved the locations whose drivers were taken.
+   * @param values the number and load of each driver taken, by location; null where the take failed.
+   * @param failure what stopped the move.
+   * @return the exception to throw, saying which locations, if any, lost their drivers.
+   */
+  private IOException restore(String location, ShardMap next, List<String> moved, int[][] values, IOException failure) {
+    List<String> lost = new ArrayList<>();
+    for (int i = 0; i < moved.size(); i++) {
+      if (values[i] == null) {
+        continue;
+      }
+      String name = moved.get(i);
+      try {
+        // Copies left on the new shard would never be routed to, but are taken so that a later move starts clean
+        DispatchShard.Request request = new DispatchShard.Request(DispatchShard.TAKE, name, 0, null, 0);
+        links[next.shardOf(name)].send(request);
+        await(request.reply);
+      } catch (IOException e) {
+        // The new shard is most likely the one that failed
+      }
+      try {
+        List<CompletableFuture<DispatchShard.Reply>> given = new ArrayList<>();
+        for (int j = 0; j < values[i].length; j += 2) {
+          given.add(give(map.shardOf(name), values[i][j], values[i][j + 1]));
+        }
+        for (CompletableFuture<DispatchShard.Reply> reply : given) {
+          await(reply);
+        }
+      } catch (IOException e) {
+        lost.add(name);
+      }
+    }
+    String message = "Could not isolate " + location + ": " + failure.getMessage()
+        + (lost.isEmpty() ? "; every driver is back on their shard" : "; the drivers at " + String.join(", ", lost)
+            + " could not be given back and cannot be dispatched");
+    return new IOException(message, failure);
+  }
+
+  private CompletableFuture<DispatchShard.Reply> give(int shard, int number, int load) throws IOException {
+    Driver driver = drivers[number];
+    DispatchShard.Request request = new DispatchShard.Request(DispatchShard.GIVE, driver.getLocation(), number, driver.getName(), load);
+    links[shard].send(request);
+    return request.reply;
+  }
+
+  /**
+   * Waits for a reply from a shard.
+   * @param reply the pending reply.
+   * @return the reply's value.
+   * @throws IOException if the shard failed or the wait was interrupted.
+   */
+  static <T> T await(CompletableFuture<T> reply) throws IOException {
+    try {
+      return reply.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IOException("Shard failed: " + e.getCause(), e.getCause());
+    }
+  }
+
+  /**
+   * Stops every shard once it has handled what was sent to it.
+   * @throws IOException if a shard did not stop cleanly.
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (ShardLink link : links) {
+      try {
+        link.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
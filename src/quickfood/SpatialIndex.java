@@ -0,0 +1,221 @@
+package quickfood;
+
+/*SpatialIndex is a static k-d tree over points on the earth's surface, each carrying an int ID.
+  Points are stored as 3D unit vectors, where straight-line (chord) distance grows with great-circle
+  distance, so radius and nearest-neighbour queries are exact anywhere on the globe without the
+  distortion of a latitude/longitude grid. The tree is built once and kept in flat arrays: the node
+  for a range of the arrays is its middle element, split on x, y and z in turn.
+*/
+final class SpatialIndex {
+  static final double EARTH_RADIUS_KM = 6371.0088;
+
+  // Receives the points found by a radius query
+  interface Visitor {
+    void visit(int id, double distanceKm);
+  }
+
+  private final int[] ids;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] zs;
+
+  /**
+   * Builds the index.
+   * @param ids the ID of each point.
+   * @param latitudes the latitude of each point in degrees.
+   * @param longitudes the longitude of each point in degrees.
+   */
+  SpatialIndex(int[] ids, double[] latitudes, double[] longitudes) {
+    int n = ids.length;
+    this.ids = ids.clone();
+    this.xs = new double[n];
+    this.ys = new double[n];
+    this.zs = new double[n];
+    for (int i = 0; i < n; i++) {
+      double lat = Math.toRadians(latitudes[i]);
+      double lon = Math.toRadians(longitudes[i]);
+      xs[i] = Math.cos(lat) * Math.cos(lon);
+      ys[i] = Math.cos(lat) * Math.sin(lon);
+      zs[i] = Math.sin(lat);
+    }
+    build(0, n, 0);
+  }
+
+  // Returns the number of points
+  int size() {
+    return ids.length;
+  }
+
+  /**
+   * Visits every point within a distance of a position.
+   * @param latitude the latitude of the position in degrees.
+   * @param longitude the longitude of the position in degrees.
+   * @param radiusKm the distance along the earth's surface.
+   * @param visitor receives each point found and its distance.
+   */
+  void within(double latitude, double longitude, double radiusKm, Visitor visitor) {
+    double lat = Math.toRadians(latitude);
+    double lon = Math.toRadians(longitude);
+    double[] target = {Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    double chord = chord(radiusKm);
+    within(0, ids.length, 0, target, chord * chord, visitor);
+  }
+
+  private void within(int from, int to, int axis, double[] target, double limit, Visitor visitor) {
+    while (from < to) {
+      int mid = (from + to) >>> 1;
+      double squared = squaredDistance(mid, target);
+      if (squared <= limit) {
+        visitor.visit(ids[mid], surfaceKm(squared));
+      }
+      double delta = target[axis] - coordinate(mid, axis);
+      int next = axis == 2 ? 0 : axis + 1;
+      // Search the side the target is on, and the other side only if the radius crosses the split
+      if (delta < 0) {
+        if (delta * delta <= limit) {
+          within(mid + 1, to, next, target, limit, visitor);
+        }
+        to = mid;
+      } else {
+        if (delta * delta <= limit) {
+          within(from, mid, next, target, limit, visitor);
+        }
+        from = mid + 1;
+      }
+      axis = next;
+    }
+  }
+
+  /**
+   * Finds the point nearest to a position.
+   * @param latitude the latitude of the position in degrees.
+   * @param longitude the longitude of the position in degrees.
+   * @param maxKm the largest distance to consider.
+   * @return the ID of the nearest point, or -1 if there is none within maxKm.
+   */
+  int nearest(double latitude, double longitude, double maxKm) {
+    double lat = Math.toRadians(latitude);
+    double lon = Math.toRadians(longitude);
+    double[] target = {Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    double chord = chord(maxKm);
+    double[] best = {chord * chord, -1};
+    nearest(0, ids.length, 0, target, best);
+    return (int) best[1];
+  }
+
+  // best holds the squared distance to beat and the index of the nearest point so far
+  private void nearest(int from, int to, int axis, double[] target, double[] best) {
+    if (from >= to) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    double squared = squaredDistance(mid, target);
+    if (squared <= best[0]) {
+      best[0] = squared;
+      best[1] = ids[mid];
+    }
+    double delta = target[axis] - coordinate(mid, axis);
+    int next = axis == 2 ? 0 : axis + 1;
+    if (delta < 0) {
+      nearest(from, mid, next, target, best);
+      if (delta * delta <= best[0]) {
+        nearest(mid + 1, to, next, target, best);
+      }
+    } else {
+      nearest(mid + 1, to, next, target, best);
+      if (delta * delta <= best[0]) {
+        nearest(from, mid, next, target, best);
+      }
+    }
+  }
+
+  /**
+   * Returns the great-circle distance between two positions.
+   * @param latitude1 the latitude of the first position in degrees.
+   * @param longitude1 the longitude of the first position in degrees.
+   * @param latitude2 the latitude of the second position in degrees.
+   * @param longitude2 the longitude of the second position in degrees.
+   * @return the distance in kilometres.
+   */
+  static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+    double dLat = Math.toRadians(latitude2 - latitude1);
+    double dLon = Math.toRadians(longitude2 - longitude1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+        + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  // Converts a surface distance to the straight-line distance between unit vectors
+  private static double chord(double km) {
+    return km >= Math.PI * EARTH_RADIUS_KM ? 2 : 2 * Math.sin(km / (2 * EARTH_RADIUS_KM));
+  }
+
+  private static double surfaceKm(double squaredChord) {
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(squaredChord) / 2));
+  }
+
+  private double squaredDistance(int i, double[] target) {
+    double dx = xs[i] - target[0];
+    double dy = ys[i] - target[1];
+    double dz = zs[i] - target[2];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  private double coordinate(int i, int axis) {
+    return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
+  }
+
+  // Puts the median of the range on the axis in the middle, smaller values before it, and recurses
+  private void build(int from, int to, int axis) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    select(from, to - 1, mid, axis);
+    int next = axis == 2 ? 0 : axis + 1;
+    build(from, mid, next);
+    build(mid + 1, to, next);
+  }
+
+  // Quickselect: partially orders the range so that position k holds the value it would when sorted
+  private void select(int left, int right, int k, int axis) {
+    while (right > left) {
+      double pivot = coordinate((left + right) >>> 1, axis);
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (coordinate(i, axis) < pivot) {
+          i++;
+        }
+        while (coordinate(j, axis) > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(i++, j--);
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void swap(int a, int b) {
+    int id = ids[a];
+    ids[a] = ids[b];
+    ids[b] = id;
+    double t = xs[a];
+    xs[a] = xs[b];
+    xs[b] = t;
+    t = ys[a];
+    ys[a] = ys[b];
+    ys[b] = t;
+    t = zs[a];
+    zs[a] = zs[b];
+    zs[b] = t;
+  }
+}